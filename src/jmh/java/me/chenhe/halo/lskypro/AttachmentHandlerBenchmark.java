@@ -0,0 +1,145 @@
+package me.chenhe.halo.lskypro;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import me.chenhe.halo.lskypro.client.Links;
+import me.chenhe.halo.lskypro.client.UploadResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.Metadata;
+
+/**
+ * CPU and allocation cost of the per-request work done by {@link LskyProAttachmentHandler}
+ * besides the HTTP call itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AttachmentHandlerBenchmark {
+
+    private LskyProAttachmentHandler handler;
+    private PolicyPropertiesCache policyCache;
+    private Policy policy;
+    private ConfigMap configMap;
+    private LskyProProperties properties;
+    private LskyProProperties propertiesWithoutInstanceId;
+    private DataBuffer imageBuffer;
+    private DataBuffer textBuffer;
+    private UploadResponse uploadResponse;
+
+    @Setup
+    public void setup() {
+        final var registry = new SimpleMeterRegistry();
+        policyCache = new PolicyPropertiesCache();
+        final var beans = new StaticListableBeanFactory();
+        beans.addBean("meterRegistry", registry);
+        beans.addBean("policyCache", policyCache);
+        final var metrics = new LskyProMetrics(beans.getBeanProvider(MeterRegistry.class),
+            beans.getBeanProvider(PolicyPropertiesCache.class),
+            beans.getBeanProvider(AsyncDeleteQueue.class));
+        handler = new LskyProAttachmentHandler(null, policyCache, null, null, null, null, null,
+            metrics);
+
+        policy = new Policy();
+        final var policyMetadata = new Metadata();
+        policyMetadata.setName("lsky-pro-benchmark");
+        policy.setMetadata(policyMetadata);
+        final var policySpec = new Policy.PolicySpec();
+        policySpec.setTemplateName("chenhe-lsky-pro");
+        policySpec.setConfigMapName("lsky-pro-benchmark-config");
+        policy.setSpec(policySpec);
+
+        configMap = new ConfigMap();
+        final var configMetadata = new Metadata();
+        configMetadata.setName("lsky-pro-benchmark-config");
+        configMetadata.setVersion(1L);
+        configMap.setMetadata(configMetadata);
+        configMap.setData(Map.of("default", """
+            {"lskyUrl":"https://lsky.example.com","lskyToken":"1|abcdefghijklmnopqrstuvwxyz",
+            "lskyStrategy":1,"lskyAlbumId":2,"instanceId":"","dedupEnabled":true,
+            "maxRetries":2,"rateLimitPerMinute":120}"""));
+
+        properties = LskyProAttachmentHandler.getProperties(configMap);
+        properties.setInstanceId("benchmark");
+        propertiesWithoutInstanceId = LskyProAttachmentHandler.getProperties(configMap);
+
+        final var bufferFactory = DefaultDataBufferFactory.sharedInstance;
+        final var image = new byte[8192];
+        System.arraycopy(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}, 0,
+            image, 0, 4);
+        imageBuffer = bufferFactory.wrap(image);
+        textBuffer = bufferFactory.wrap("Lorem ipsum dolor sit amet. ".repeat(292)
+            .getBytes(StandardCharsets.UTF_8));
+
+        uploadResponse = new UploadResponse("k8bXpKm", "0a1b2c3d4e5f.png",
+            "IMG_20240101_120000.jpg", "png", "da39a3ee5e6b4b0d3255bfef95601890afd80709", 2048.5f,
+            "image/jpeg", new Links("https://lsky.example.com/i/2024/01/01/0a1b2c3d4e5f.png",
+            "https://lsky.example.com/thumbnails/0a1b2c3d4e5f.png"));
+    }
+
+    @Benchmark
+    public boolean shouldHandle() {
+        return handler.shouldHandle(policy);
+    }
+
+    @Benchmark
+    public MediaType sniffImage() {
+        return ImageSniffer.getMediaType(imageBuffer, "IMG_20240101_120000.jpg");
+    }
+
+    @Benchmark
+    public MediaType sniffNonImage() {
+        return ImageSniffer.getMediaType(textBuffer, "notes.jpg");
+    }
+
+    @Benchmark
+    public LskyProProperties getProperties() {
+        return LskyProAttachmentHandler.getProperties(configMap);
+    }
+
+    @Benchmark
+    public PolicyPropertiesCache.ResolvedPolicy resolveCachedPolicy() {
+        return policyCache.resolve(configMap, policy);
+    }
+
+    @Benchmark
+    public String getExplicitInstanceId() {
+        return LskyProAttachmentHandler.getInstanceId(properties, policy);
+    }
+
+    @Benchmark
+    public String getDerivedInstanceId() {
+        return LskyProAttachmentHandler.getInstanceId(propertiesWithoutInstanceId, policy);
+    }
+
+    @Benchmark
+    public Object getUploadedImageMediaType() {
+        return handler.getUploadedImageMediaType(uploadResponse);
+    }
+
+    @Benchmark
+    public Attachment buildAttachment() {
+        return handler.buildAttachment(uploadResponse, "benchmark", null);
+    }
+
+    @Benchmark
+    public Attachment buildDeduplicatedAttachment() {
+        return handler.buildAttachment(uploadResponse, "benchmark",
+            "da39a3ee5e6b4b0d3255bfef95601890afd80709");
+    }
+}
@@ -0,0 +1,98 @@
+package me.chenhe.halo.lskypro;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Building and probing the key set used by {@link OrphanReconciler}, against a plain
+ * {@link HashSet}. Run with the gc profiler to compare the allocated bytes per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KeyFingerprintSetBenchmark {
+
+    private static final String ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    @Param({"100000", "500000"})
+    public int keys;
+
+    private String[] present;
+    private String[] absent;
+    private KeyFingerprintSet fingerprints;
+    private HashSet<String> strings;
+
+    @Setup
+    public void setup() {
+        final var random = new Random(42);
+        present = new String[keys];
+        absent = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            present[i] = randomKey(random);
+            absent[i] = randomKey(random);
+        }
+        fingerprints = buildFingerprints();
+        strings = buildStrings();
+    }
+
+    /**
+     * Lsky Pro image keys are short random strings.
+     */
+    private static String randomKey(Random random) {
+        final var chars = new char[6];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+
+    @Benchmark
+    public KeyFingerprintSet buildFingerprints() {
+        final var set = new KeyFingerprintSet();
+        for (final var key : present) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    @Benchmark
+    public HashSet<String> buildStrings() {
+        final var set = new HashSet<String>();
+        for (final var key : present) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    @Benchmark
+    public int probeFingerprints() {
+        var found = 0;
+        for (final var key : absent) {
+            if (fingerprints.contains(key)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int probeStrings() {
+        var found = 0;
+        for (final var key : absent) {
+            if (strings.contains(key)) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
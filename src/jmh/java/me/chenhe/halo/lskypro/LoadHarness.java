@@ -0,0 +1,325 @@
+package me.chenhe.halo.lskypro;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import me.chenhe.halo.lskypro.client.FakeLskyProServer;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.core.extension.attachment.endpoint.AttachmentHandler;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.Metadata;
+
+/**
+ * Runs concurrent uploads and deletes through {@link LskyProAttachmentHandler} against a
+ * {@link FakeLskyProServer}, and reports throughput, latency percentiles, heap usage and leaked
+ * {@link DataBuffer}s.
+ * <p>
+ * Options are passed as {@code key=value} arguments, see {@link Options}. e.g.
+ * {@code ./gradlew loadTest -PloadArgs="requests=5000 concurrency=64 latencyMs=50 error5xx=0.01"}
+ */
+public class LoadHarness {
+
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    private final Options options;
+    private final FakeLskyProServer server;
+    private final LskyProClientRegistry clientRegistry;
+    private final LskyProAttachmentHandler handler;
+    private final Policy policy;
+    private final ConfigMap configMap;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * Every buffer handed to the handler, to check that all of them have been released.
+     */
+    private final Queue<NettyDataBuffer> allocated = new ConcurrentLinkedQueue<>();
+    private final NettyDataBufferFactory bufferFactory =
+        new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+
+    private final Stats uploads = new Stats();
+    private final Stats deletes = new Stats();
+
+    LoadHarness(Options options, FakeLskyProServer server) {
+        this.options = options;
+        this.server = server;
+
+        final var beans = new StaticListableBeanFactory();
+        beans.addBean("meterRegistry", meterRegistry);
+        final var policyCache = new PolicyPropertiesCache();
+        beans.addBean("policyCache", policyCache);
+        final var metrics = new LskyProMetrics(beans.getBeanProvider(MeterRegistry.class),
+            beans.getBeanProvider(PolicyPropertiesCache.class),
+            beans.getBeanProvider(AsyncDeleteQueue.class));
+        // deduplication and async delete need the extension client, so they stay disabled
+        clientRegistry = new LskyProClientRegistry(metrics);
+        final var spooler = new UploadSpooler();
+        handler = new LskyProAttachmentHandler(clientRegistry, policyCache,
+            new UploadDeduplicator(null, spooler), null, new ImageTransformer(), spooler,
+            new LskyProCatalog(), metrics);
+
+        policy = new Policy();
+        final var policyMetadata = new Metadata();
+        policyMetadata.setName("lsky-pro-load-test");
+        policy.setMetadata(policyMetadata);
+        final var policySpec = new Policy.PolicySpec();
+        policySpec.setTemplateName("chenhe-lsky-pro");
+        policySpec.setConfigMapName("lsky-pro-load-test-config");
+        policy.setSpec(policySpec);
+
+        configMap = new ConfigMap();
+        final var configMetadata = new Metadata();
+        configMetadata.setName("lsky-pro-load-test-config");
+        configMetadata.setVersion(1L);
+        configMap.setMetadata(configMetadata);
+        configMap.setData(Map.of("default", """
+            {"lskyUrl":"%s","lskyToken":"load-test","instanceId":"load-test","maxRetries":%d,
+            "spoolEnabled":%b,"maxConcurrentUploads":%d,"uploadQueueSize":%d,
+            "uploadScheduler":"%s"}""".formatted(server.getUrl(), options.maxRetries,
+            options.spool, options.maxConcurrentUploads, options.uploadQueueSize,
+            options.uploadScheduler)));
+    }
+
+    public static void main(String[] args) {
+        final var options = Options.parse(args);
+        try (var server = FakeLskyProServer.start()) {
+            server.setToken("load-test");
+            server.setLatency(Duration.ofMillis(options.latencyMs),
+                Duration.ofMillis(options.latencyMs + options.latencyJitterMs));
+            server.setErrorRate(401, options.error401);
+            server.setErrorRate(429, options.error429);
+            server.setErrorRate(503, options.error5xx);
+            new LoadHarness(options, server).run();
+        }
+    }
+
+    void run() {
+        final var memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        final var heapBefore = memory.getHeapMemoryUsage().getUsed();
+        final var peakHeap = new AtomicLong(heapBefore);
+        final var sampler = Flux.interval(Duration.ofMillis(50))
+            .subscribe(i -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(),
+                Math::max));
+
+        System.out.printf("Running %d uploads of %d bytes with concurrency %d against %s%n",
+            options.requests, options.size, options.concurrency, server.getUrl());
+        final var start = System.nanoTime();
+        Flux.range(0, options.requests)
+            .flatMap(this::uploadThenDelete, options.concurrency)
+            .blockLast();
+        final var elapsed = Duration.ofNanos(System.nanoTime() - start);
+        sampler.dispose();
+
+        System.gc();
+        final var heapAfter = memory.getHeapMemoryUsage().getUsed();
+        final var leaked = allocated.stream()
+            .filter(buffer -> buffer.getNativeBuffer().refCnt() > 0)
+            .count();
+
+        System.out.printf("Finished in %.2fs%n", elapsed.toMillis() / 1000.0);
+        uploads.print("upload", elapsed);
+        if (options.delete) {
+            deletes.print("delete", elapsed);
+        }
+        System.out.printf("throughput: %.1f MiB/s%n",
+            server.getReceivedBytes() / 1024.0 / 1024.0 / Math.max(0.001,
+                elapsed.toMillis() / 1000.0));
+        System.out.printf("server: %d uploads, %d deletes, %d injected errors, %d images left%n",
+            server.getUploads(), server.getDeletes(), server.getInjectedErrors(),
+            server.getStoredImages());
+        meterRegistry.find(LskyProMetrics.PREFIX + "client.requests").timers()
+            .forEach(timer -> System.out.printf("client %s %s: %d%n",
+                timer.getId().getTag("method"), timer.getId().getTag("status"),
+                timer.count()));
+        System.out.printf("bulkhead: %s%n",
+            clientRegistry.getBulkheadStatus().get("load-test"));
+        System.out.printf("heap: %d MiB before, %d MiB peak, %d MiB after%n",
+            heapBefore >> 20, peakHeap.get() >> 20, heapAfter >> 20);
+        System.out.printf("leaked DataBuffers: %d of %d%n", leaked, allocated.size());
+    }
+
+    private Mono<Void> uploadThenDelete(int i) {
+        final var file = new GeneratedFilePart("load-" + i + ".jpg", content());
+        final var upload = uploads.record(
+            handler.upload(new Upload(file, policy, configMap)));
+        if (!options.delete) {
+            return upload.then();
+        }
+        return upload
+            .flatMap(attachment -> deletes.record(handler.delete(
+                new Delete(attachment, policy, configMap))))
+            .then();
+    }
+
+    /**
+     * Random content with a JPEG signature, split into chunks like a multipart file received by
+     * Halo.
+     */
+    private Flux<DataBuffer> content() {
+        return Flux.range(0, (options.size + CHUNK_SIZE - 1) / CHUNK_SIZE)
+            .map(i -> {
+                final var length = Math.min(CHUNK_SIZE, options.size - i * CHUNK_SIZE);
+                final var bytes = new byte[length];
+                ThreadLocalRandom.current().nextBytes(bytes);
+                if (i == 0) {
+                    // JPEG signature, so that the content passes sniffing
+                    bytes[0] = (byte) 0xFF;
+                    bytes[1] = (byte) 0xD8;
+                    bytes[2] = (byte) 0xFF;
+                }
+                final var buffer = bufferFactory.wrap(Unpooled.wrappedBuffer(bytes));
+                allocated.add(buffer);
+                return buffer;
+            });
+    }
+
+    /**
+     * Latencies and outcomes of one kind of operation.
+     */
+    static class Stats {
+        private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        <T> Mono<T> record(Mono<T> operation) {
+            return Mono.defer(() -> {
+                final var start = System.nanoTime();
+                return operation
+                    .doOnSuccess(v -> complete(start, "success"))
+                    .doOnError(e -> complete(start, e.getClass().getSimpleName() + ": "
+                        + e.getMessage()))
+                    .onErrorResume(e -> Mono.empty());
+            });
+        }
+
+        private void complete(long start, String outcome) {
+            latencies.add(System.nanoTime() - start);
+            outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        }
+
+        void print(String name, Duration elapsed) {
+            final var sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            System.out.printf("%s: %d ops, %.1f ops/s, latency ms p50=%.1f p90=%.1f p99=%.1f "
+                    + "max=%.1f%n", name, sorted.length,
+                sorted.length / Math.max(0.001, elapsed.toMillis() / 1000.0),
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 1));
+            new TreeMap<>(outcomes).forEach((outcome, count) ->
+                System.out.printf("  %6d %s%n", count.sum(), outcome));
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final var index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Harness options, parsed from {@code key=value} arguments.
+     */
+    static class Options {
+        int requests = 1000;
+        int concurrency = 16;
+        /**
+         * Size of each uploaded file in bytes.
+         */
+        int size = 256 * 1024;
+        boolean delete = true;
+        boolean spool = false;
+        int maxRetries = 0;
+        int maxConcurrentUploads = 8;
+        int uploadQueueSize = 32;
+        String uploadScheduler = "SHARED";
+        long latencyMs = 20;
+        long latencyJitterMs = 10;
+        double error401 = 0;
+        double error429 = 0;
+        double error5xx = 0;
+
+        static Options parse(String[] args) {
+            final var values = new HashMap<String, String>();
+            for (final var arg : args) {
+                final var separator = arg.indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("Expect key=value, got " + arg);
+                }
+                values.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+            final var options = new Options();
+            for (final var entry : values.entrySet()) {
+                final var value = entry.getValue();
+                switch (entry.getKey()) {
+                    case "requests" -> options.requests = Integer.parseInt(value);
+                    case "concurrency" -> options.concurrency = Integer.parseInt(value);
+                    case "size" -> options.size = Integer.parseInt(value);
+                    case "delete" -> options.delete = Boolean.parseBoolean(value);
+                    case "spool" -> options.spool = Boolean.parseBoolean(value);
+                    case "maxRetries" -> options.maxRetries = Integer.parseInt(value);
+                    case "maxConcurrentUploads" ->
+                        options.maxConcurrentUploads = Integer.parseInt(value);
+                    case "uploadQueueSize" -> options.uploadQueueSize = Integer.parseInt(value);
+                    case "uploadScheduler" -> options.uploadScheduler = value;
+                    case "latencyMs" -> options.latencyMs = Long.parseLong(value);
+                    case "latencyJitterMs" -> options.latencyJitterMs = Long.parseLong(value);
+                    case "error401" -> options.error401 = Double.parseDouble(value);
+                    case "error429" -> options.error429 = Double.parseDouble(value);
+                    case "error5xx" -> options.error5xx = Double.parseDouble(value);
+                    default -> throw new IllegalArgumentException(
+                        "Unknown option " + entry.getKey());
+                }
+            }
+            return options;
+        }
+    }
+
+    private record GeneratedFilePart(String filename, Flux<DataBuffer> content)
+        implements FilePart {
+
+        @Override
+        public Mono<Void> transferTo(Path dest) {
+            return Mono.error(new UnsupportedOperationException());
+        }
+
+        @Override
+        public String name() {
+            return "file";
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return HttpHeaders.EMPTY;
+        }
+    }
+
+    private record Upload(FilePart file, Policy policy, ConfigMap configMap)
+        implements AttachmentHandler.UploadContext {
+    }
+
+    private record Delete(Attachment attachment, Policy policy, ConfigMap configMap)
+        implements AttachmentHandler.DeleteContext {
+    }
+}
@@ -0,0 +1,269 @@
+package me.chenhe.halo.lskypro.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import jakarta.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import lombok.Setter;
+import me.chenhe.halo.lskypro.client.LskyProClient.LskyResponse;
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * An in-process stand-in of the Lsky Pro endpoints used by {@link LskyProClient}, for load tests
+ * and benchmarks that must not depend on a real deployment.
+ * <p>
+ * Uploaded content is only counted, not stored. Responses follow the shape of
+ * {@code LskyResponse<UploadResponse>}, and latency and error responses can be injected.
+ */
+public class FakeLskyProServer implements AutoCloseable {
+
+    private static final Pattern FILENAME = Pattern.compile("filename=\"([^\"]*)\"");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DisposableServer server;
+
+    /**
+     * Expected API token, without leading {@code Bearer}. {@code null} to accept any request.
+     */
+    @Setter
+    private volatile @Nullable String token;
+
+    private volatile Duration minLatency = Duration.ZERO;
+    private volatile Duration maxLatency = Duration.ZERO;
+
+    /**
+     * HTTP status -> probability of answering a request with it.
+     */
+    private final Map<Integer, Double> errorRates = new ConcurrentHashMap<>();
+
+    /**
+     * Key -> size of stored images.
+     */
+    private final Map<String, Long> images = new ConcurrentHashMap<>();
+
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong deletes = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private FakeLskyProServer() {
+        server = HttpServer.create()
+            .host("127.0.0.1")
+            .port(0)
+            .route(routes -> routes
+                .post("/api/v1/upload", this::upload)
+                .delete("/api/v1/images/{key}", this::delete))
+            .bindNow();
+    }
+
+    /**
+     * Start a server on a random local port.
+     */
+    public static FakeLskyProServer start() {
+        return new FakeLskyProServer();
+    }
+
+    /**
+     * The URL to use as {@code lskyUrl}.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    /**
+     * Delay every response by a random duration in the given range.
+     */
+    public void setLatency(Duration min, Duration max) {
+        this.minLatency = min;
+        this.maxLatency = max.compareTo(min) < 0 ? min : max;
+    }
+
+    /**
+     * Answer the given fraction of requests with {@code status}, e.g. {@code 401}, {@code 429}
+     * or {@code 503}.
+     */
+    public void setErrorRate(int status, double rate) {
+        if (rate <= 0) {
+            errorRates.remove(status);
+        } else {
+            errorRates.put(status, rate);
+        }
+    }
+
+    public int getStoredImages() {
+        return images.size();
+    }
+
+    /**
+     * Number of uploads that were accepted.
+     */
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    /**
+     * Number of deletes that were handled, including those of unknown images.
+     */
+    public long getDeletes() {
+        return deletes.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    /**
+     * Total size of upload request bodies, including multipart headers.
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private Publisher<Void> upload(HttpServerRequest request, HttpServerResponse response) {
+        final var upload = new ReceivedUpload();
+        return request.receive()
+            .doOnNext(upload::accept)
+            .then(Mono.defer(() -> {
+                receivedBytes.addAndGet(upload.size);
+                final var error = checkError(request, response);
+                if (error != null) {
+                    return error;
+                }
+                uploads.incrementAndGet();
+                final var key = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+                final var filename = upload.filename == null ? "image.png" : upload.filename;
+                final var extension = filename.contains(".")
+                    ? filename.substring(filename.lastIndexOf('.') + 1) : "png";
+                final var name = key + "." + extension;
+                images.put(key, upload.size);
+                final var data = new UploadResponse(key, name, filename, extension,
+                    key, upload.size / 1024f,
+                    MediaTypeFactory.getMediaType(filename)
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM).toString(),
+                    new Links(getUrl() + "/i/" + name, getUrl() + "/thumbnails/" + name));
+                return json(response, HttpResponseStatus.OK,
+                    new LskyResponse<>(true, "Uploaded successfully", data));
+            }))
+            .delaySubscription(nextLatency());
+    }
+
+    private Publisher<Void> delete(HttpServerRequest request, HttpServerResponse response) {
+        return request.receive()
+            .then(Mono.defer(() -> {
+                final var error = checkError(request, response);
+                if (error != null) {
+                    return error;
+                }
+                deletes.incrementAndGet();
+                if (images.remove(request.param("key")) == null) {
+                    return json(response, HttpResponseStatus.NOT_FOUND,
+                        new LskyResponse<>(false, "Image not found.", null));
+                }
+                return json(response, HttpResponseStatus.OK,
+                    new LskyResponse<>(true, "Deleted successfully", null));
+            }))
+            .delaySubscription(nextLatency());
+    }
+
+    /**
+     * @return An error response to send instead of handling the request, or {@code null}.
+     */
+    private @Nullable Mono<Void> checkError(HttpServerRequest request,
+        HttpServerResponse response) {
+        final var expectedToken = token;
+        if (expectedToken != null && !("Bearer " + expectedToken).equals(
+            request.requestHeaders().get(HttpHeaders.AUTHORIZATION))) {
+            return json(response, HttpResponseStatus.UNAUTHORIZED,
+                new LskyResponse<>(false, "Unauthenticated.", null));
+        }
+
+        var dice = ThreadLocalRandom.current().nextDouble();
+        for (final var entry : errorRates.entrySet()) {
+            dice -= entry.getValue();
+            if (dice < 0) {
+                injectedErrors.incrementAndGet();
+                return error(response, entry.getKey());
+            }
+        }
+        return null;
+    }
+
+    private Mono<Void> error(HttpServerResponse response, int status) {
+        final var httpStatus = HttpResponseStatus.valueOf(status);
+        if (status >= 500) {
+            // like a reverse proxy in front of Lsky Pro
+            return response.status(httpStatus)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE)
+                .sendString(Mono.just(httpStatus.reasonPhrase()))
+                .then();
+        }
+        if (status == 429) {
+            response.header(HttpHeaders.RETRY_AFTER, "1");
+        }
+        return json(response, httpStatus,
+            new LskyResponse<>(false, httpStatus.reasonPhrase(), null));
+    }
+
+    private Mono<Void> json(HttpServerResponse response, HttpResponseStatus status,
+        LskyResponse<?> body) {
+        final String json;
+        try {
+            json = objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            return Mono.error(e);
+        }
+        return response.status(status)
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .sendString(Mono.just(json))
+            .then();
+    }
+
+    private Duration nextLatency() {
+        final var min = minLatency.toNanos();
+        final var max = maxLatency.toNanos();
+        return Duration.ofNanos(min == max ? min
+            : ThreadLocalRandom.current().nextLong(min, max + 1));
+    }
+
+    /**
+     * Counts the multipart body and picks the filename out of the part headers.
+     */
+    private static class ReceivedUpload {
+        long size;
+        @Nullable String filename;
+
+        void accept(ByteBuf buf) {
+            if (filename == null && size == 0) {
+                final var head = buf.toString(buf.readerIndex(),
+                    Math.min(buf.readableBytes(), 1024), StandardCharsets.UTF_8);
+                final var matcher = FILENAME.matcher(head);
+                if (matcher.find()) {
+                    filename = matcher.group(1);
+                }
+            }
+            size += buf.readableBytes();
+        }
+    }
+}
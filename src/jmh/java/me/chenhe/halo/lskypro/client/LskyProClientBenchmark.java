@@ -0,0 +1,94 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.ExchangeStrategies;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Cost of building and encoding a multipart upload request and decoding its response, with the
+ * network replaced by a stub that discards the request body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LskyProClientBenchmark {
+
+    static final int CHUNK_SIZE = 8 * 1024;
+
+    static final String UPLOAD_RESPONSE = """
+        {"status":true,"message":"success","data":{"key":"k8bXpKm","name":"0a1b2c3d4e5f.png",
+        "pathname":"2024/01/01/0a1b2c3d4e5f.png","origin_name":"IMG_20240101_120000.jpg",
+        "size":2048.5,"mimetype":"image/jpeg","extension":"png",
+        "md5":"d41d8cd98f00b204e9800998ecf8427e","sha1":"da39a3ee5e6b4b0d3255bfef95601890afd80709",
+        "links":{"url":"https://lsky.example.com/i/2024/01/01/0a1b2c3d4e5f.png",
+        "thumbnail_url":"https://lsky.example.com/thumbnails/0a1b2c3d4e5f.png"}}}""";
+
+    @Param({"4096", "4194304"})
+    public int size;
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+    private byte[] image;
+    private LskyProClient client;
+
+    @Setup
+    public void setup() {
+        image = new byte[size];
+        for (int i = 0; i < size; i++) {
+            image[i] = (byte) i;
+        }
+        client = new LskyProClient("https://lsky.example.com", "1|token", null,
+            RetryOptions.NONE, null, null, builder -> builder.exchangeFunction(stub()));
+    }
+
+    @Benchmark
+    public UploadResponse upload() {
+        return client.upload(content(), "IMG_20240101_120000.jpg", MediaType.IMAGE_JPEG, 1, null)
+            .block();
+    }
+
+    private Flux<DataBuffer> content() {
+        return Flux.range(0, (size + CHUNK_SIZE - 1) / CHUNK_SIZE)
+            .map(i -> {
+                final var offset = i * CHUNK_SIZE;
+                return bufferFactory.wrap(
+                    ByteBuffer.wrap(image, offset, Math.min(CHUNK_SIZE, size - offset)));
+            });
+    }
+
+    /**
+     * Encode the request as the real connector would, then answer with a canned response.
+     */
+    private static ExchangeFunction stub() {
+        final var strategies = ExchangeStrategies.withDefaults();
+        return request -> {
+            final var httpRequest = new MockClientHttpRequest(request.method(), request.url());
+            httpRequest.setWriteHandler(body -> Flux.from(body)
+                .doOnNext(DataBufferUtils::release)
+                .then());
+            return request.writeTo(httpRequest, strategies)
+                .then(Mono.fromSupplier(() -> ClientResponse.create(HttpStatus.OK, strategies)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(UPLOAD_RESPONSE)
+                    .build()));
+        };
+    }
+}
@@ -0,0 +1,226 @@
+package me.chenhe.halo.lskypro;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.client.LskyProException;
+import me.chenhe.halo.lskypro.extension.PendingDelete;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.Metadata;
+import run.halo.app.extension.ReactiveExtensionClient;
+
+/**
+ * Write-behind queue of images to delete from Lsky Pro.
+ * <p>
+ * Deletes are persisted as {@link PendingDelete} and drained in the background: at most
+ * {@link #BATCH_SIZE} images per instance are handled in one round, with bounded concurrency.
+ * Failed deletes are retried with exponential backoff and given up after
+ * {@link #MAX_ATTEMPTS}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AsyncDeleteQueue {
+
+    static final Duration DRAIN_INTERVAL = Duration.ofSeconds(10);
+    static final int BATCH_SIZE = 50;
+    static final int PER_INSTANCE_CONCURRENCY = 4;
+    static final int MAX_INSTANCE_CONCURRENCY = 4;
+    static final int MAX_ATTEMPTS = 10;
+    static final Duration BASE_BACKOFF = Duration.ofSeconds(5);
+    static final Duration MAX_BACKOFF = Duration.ofHours(1);
+
+    private final ReactiveExtensionClient client;
+    private final LskyProClientRegistry clientRegistry;
+    private final PolicyPropertiesCache policyCache;
+
+    private final Sinks.Many<Boolean> trigger = Sinks.many().multicast().directBestEffort();
+
+    private final AtomicLong pending = new AtomicLong();
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+    private volatile DrainRound lastRound;
+
+    private Disposable drainer;
+
+    /**
+     * Accept an image to delete. Returns as soon as the request is persisted.
+     */
+    public Mono<Void> enqueue(String imageKey, String instanceId, Policy policy) {
+        final var spec = new PendingDelete.Spec();
+        spec.setImageKey(imageKey);
+        spec.setInstanceId(instanceId);
+        spec.setPolicyName(policy.getMetadata().getName());
+        final var metadata = new Metadata();
+        metadata.setGenerateName("lsky-delete-");
+        final var pendingDelete = new PendingDelete();
+        pendingDelete.setMetadata(metadata);
+        pendingDelete.setSpec(spec);
+        return client.create(pendingDelete)
+            .doOnNext(d -> {
+                pending.incrementAndGet();
+                trigger.tryEmitNext(true);
+            })
+            .then();
+    }
+
+    public synchronized void start() {
+        if (drainer != null) {
+            return;
+        }
+        drainer = Flux.merge(Flux.interval(Duration.ZERO, DRAIN_INTERVAL).map(t -> true),
+                trigger.asFlux())
+            .onBackpressureDrop()
+            .concatMap(t -> drain()
+                .onErrorResume(e -> {
+                    log.warn("Failed to drain LskyPro delete queue", e);
+                    return Mono.empty();
+                }), 1)
+            .subscribe();
+    }
+
+    public synchronized void stop() {
+        if (drainer != null) {
+            drainer.dispose();
+            drainer = null;
+        }
+    }
+
+    public Status getStatus() {
+        return new Status(pending.get(), deleted.sum(), failedAttempts.sum(), abandoned.sum(),
+            lastRound);
+    }
+
+    Mono<Void> drain() {
+        final var startedAt = Instant.now();
+        return client.list(PendingDelete.class,
+                d -> d.getMetadata().getDeletionTimestamp() == null, null)
+            .collectList()
+            .flatMap(all -> {
+                pending.set(all.size());
+                final var batches = all.stream()
+                    .filter(d -> isDue(d, startedAt))
+                    .sorted(Comparator.comparing(d -> d.getMetadata().getCreationTimestamp(),
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                    .collect(Collectors.groupingBy(d -> d.getSpec().getInstanceId()));
+                if (batches.isEmpty()) {
+                    return Mono.empty();
+                }
+                return Flux.fromIterable(batches.values())
+                    .flatMap(this::drainBatch, MAX_INSTANCE_CONCURRENCY)
+                    .reduce(0L, Long::sum)
+                    .doOnNext(count -> {
+                        final var round = new DrainRound(startedAt,
+                            Duration.between(startedAt, Instant.now()), count);
+                        lastRound = round;
+                        log.debug("Drained LskyPro delete queue: {}", round);
+                    })
+                    .then();
+            });
+    }
+
+    /**
+     * @return The number of images deleted.
+     */
+    private Mono<Long> drainBatch(List<PendingDelete> instanceDeletes) {
+        return Flux.fromIterable(instanceDeletes)
+            .take(BATCH_SIZE)
+            .flatMap(this::process, PER_INSTANCE_CONCURRENCY)
+            .filter(Boolean::booleanValue)
+            .count();
+    }
+
+    /**
+     * @return Whether the image is deleted.
+     */
+    private Mono<Boolean> process(PendingDelete pendingDelete) {
+        final var spec = pendingDelete.getSpec();
+        return client.fetch(Policy.class, spec.getPolicyName())
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .map(configMap -> {
+                    final var resolved = policyCache.resolve(configMap, policy);
+                    if (!resolved.instanceId().equals(spec.getInstanceId())) {
+                        throw new IllegalStateException(
+                            "Instance ID of policy %s has changed".formatted(policy.getMetadata()
+                                .getName()));
+                    }
+                    return clientRegistry.getClient(configMap.getMetadata().getName(),
+                        resolved.properties(), resolved.instanceId());
+                }))
+            .switchIfEmpty(Mono.error(() -> new IllegalStateException(
+                "Policy %s or its ConfigMap no longer exists".formatted(spec.getPolicyName()))))
+            .flatMap(lskyProClient -> lskyProClient.delete(spec.getImageKey())
+                .onErrorResume(LskyProException.class, e -> e.statusCode.value() == 404
+                    ? Mono.empty() : Mono.error(e)))
+            .then(Mono.defer(() -> client.delete(pendingDelete)))
+            .doOnSuccess(d -> {
+                deleted.increment();
+                pending.decrementAndGet();
+                log.debug("Image {} deleted from LskyPro asynchronously.", spec.getImageKey());
+            })
+            .thenReturn(true)
+            .onErrorResume(e -> reschedule(pendingDelete, e).thenReturn(false));
+    }
+
+    private Mono<Void> reschedule(PendingDelete pendingDelete, Throwable error) {
+        failedAttempts.increment();
+        final var spec = pendingDelete.getSpec();
+        spec.setAttempts(spec.getAttempts() + 1);
+        spec.setLastError(error.getMessage());
+        if (spec.getAttempts() >= MAX_ATTEMPTS) {
+            log.warn("Give up deleting image {} from LskyPro after {} attempts: {}",
+                spec.getImageKey(), spec.getAttempts(), error.getMessage());
+            abandoned.increment();
+            pending.decrementAndGet();
+            return client.delete(pendingDelete).then();
+        }
+        spec.setNextAttemptAt(Instant.now().plus(backoff(spec.getAttempts())));
+        log.debug("Failed to delete image {} from LskyPro, retry at {}: {}",
+            spec.getImageKey(), spec.getNextAttemptAt(), error.getMessage());
+        return client.update(pendingDelete).then();
+    }
+
+    /**
+     * Exponential backoff with jitter.
+     */
+    static Duration backoff(int attempts) {
+        final var exp = BASE_BACKOFF.toMillis() << Math.min(attempts - 1, 20);
+        final var cap = Math.min(exp, MAX_BACKOFF.toMillis());
+        return Duration.ofMillis(cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1));
+    }
+
+    private static boolean isDue(PendingDelete pendingDelete, Instant now) {
+        final var nextAttemptAt = pendingDelete.getSpec().getNextAttemptAt();
+        return nextAttemptAt == null || !nextAttemptAt.isAfter(now);
+    }
+
+    /**
+     * @param deleted The number of images deleted in this round.
+     */
+    public record DrainRound(Instant startedAt, Duration duration, long deleted) {
+    }
+
+    /**
+     * @param pending        Number of images waiting to be deleted.
+     * @param deleted        Number of images deleted since plugin start.
+     * @param failedAttempts Number of failed attempts since plugin start.
+     * @param abandoned      Number of images given up after too many attempts.
+     */
+    public record Status(long pending, long deleted, long failedAttempts, long abandoned,
+                         DrainRound lastRound) {
+    }
+}
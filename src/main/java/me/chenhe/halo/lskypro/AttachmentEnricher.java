@@ -0,0 +1,296 @@
+package me.chenhe.halo.lskypro;
+
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.BLURHASH;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.ENRICHED;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_HEIGHT;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_LINK;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_WIDTH;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.THUMBNAIL_LINK;
+
+import jakarta.annotation.Nullable;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.extension.ExtensionClient;
+import run.halo.app.extension.controller.Controller;
+import run.halo.app.extension.controller.ControllerBuilder;
+import run.halo.app.extension.controller.Reconciler;
+
+/**
+ * Records what is only known once an image is stored in Lsky Pro: the real size in bytes after
+ * server-side processing, the width and height, and a BlurHash placeholder. They are kept as
+ * annotations of the attachment, see {@link LskyProAttachmentHandler#IMAGE_WIDTH} and so on.
+ * <p>
+ * It runs as a reconciler, so it is off the critical path of uploads, limited to a few workers,
+ * and catches up on existing attachments when the plugin starts. Only the headers and the first
+ * bytes of the image are downloaded, plus the small thumbnail generated by Lsky Pro for the
+ * placeholder. An image that cannot be read due to a client error, or still fails after
+ * {@link #MAX_ATTEMPTS} attempts, is marked enriched without any of them.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AttachmentEnricher implements Reconciler<Reconciler.Request> {
+
+    static final int WORKERS = 2;
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+    static final Duration RETRY_DELAY = Duration.ofMinutes(5);
+
+    /**
+     * Attempts per attachment before giving up on transient errors. Counted in memory, so that
+     * failures do not update the attachment, and a restart allows as many attempts again.
+     */
+    static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Leading bytes downloaded to read the dimensions. Enough for the headers of common formats
+     * unless the metadata in front of the frame is huge.
+     */
+    static final int PREFIX_BYTES = 128 * 1024;
+
+    /**
+     * Images larger than this are not downloaded to compute the placeholder.
+     */
+    static final int MAX_PLACEHOLDER_SOURCE_BYTES = 2 * 1024 * 1024;
+
+    static final int PLACEHOLDER_SIZE = 32;
+
+    private final ExtensionClient client;
+    private final ImageDownloader downloader;
+
+    /**
+     * Attachment name -> failed attempts so far.
+     */
+    private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+
+    @Override
+    public Result reconcile(Request request) {
+        final var attachment = client.fetch(Attachment.class, request.name()).orElse(null);
+        if (attachment == null || attachment.getMetadata().getDeletionTimestamp() != null) {
+            attempts.remove(request.name());
+            return Result.doNotRetry();
+        }
+        final var annotations = attachment.getMetadata().getAnnotations();
+        if (annotations == null || annotations.containsKey(ENRICHED)
+            || !StringUtils.hasText(annotations.get(IMAGE_LINK))) {
+            return Result.doNotRetry();
+        }
+        Enrichment enrichment;
+        try {
+            enrichment = enrich(annotations.get(IMAGE_LINK), annotations.get(THUMBNAIL_LINK));
+        } catch (RuntimeException e) {
+            final int attempt = attempts.merge(request.name(), 1, Integer::sum);
+            if (attempt < MAX_ATTEMPTS) {
+                log.warn("Failed to enrich attachment {} (attempt {}), retry later: {}",
+                    request.name(), attempt, e.getMessage());
+                return new Result(true, RETRY_DELAY.multipliedBy(1L << (attempt - 1)));
+            }
+            log.warn("Failed to enrich attachment {} after {} attempts, give up: {}",
+                request.name(), attempt, e.getMessage());
+            enrichment = new Enrichment(-1, null, null);
+        }
+        attempts.remove(request.name());
+
+        final var updated = new HashMap<>(annotations);
+        updated.put(ENRICHED, "true");
+        if (enrichment.dimensions() != null) {
+            updated.put(IMAGE_WIDTH, String.valueOf(enrichment.dimensions().width()));
+            updated.put(IMAGE_HEIGHT, String.valueOf(enrichment.dimensions().height()));
+        }
+        if (enrichment.blurHash() != null) {
+            updated.put(BLURHASH, enrichment.blurHash());
+        }
+        attachment.getMetadata().setAnnotations(updated);
+        if (enrichment.size() > 0) {
+            attachment.getSpec().setSize(enrichment.size());
+        }
+        client.update(attachment);
+        return Result.doNotRetry();
+    }
+
+    @Override
+    public Controller setupWith(ControllerBuilder builder) {
+        return builder
+            .extension(new Attachment())
+            .workerCount(WORKERS)
+            .build();
+    }
+
+    /**
+     * @return Nothing known if the image is gone or cannot be read, so that it is not tried
+     * again.
+     */
+    private Enrichment enrich(String imageLink, @Nullable String thumbnailLink) {
+        final var head = downloader.webClient().get()
+            .uri(imageLink)
+            .header(HttpHeaders.RANGE, "bytes=0-" + (PREFIX_BYTES - 1))
+            .exchangeToMono(response -> readPrefix(response, PREFIX_BYTES))
+            .block(TIMEOUT);
+        if (head == null) {
+            log.debug("Image {} is gone or forbidden, skip enriching", imageLink);
+            return new Enrichment(-1, null, null);
+        }
+        final var dimensions = ImageDimensions.read(head.bytes());
+
+        String blurHash = null;
+        try {
+            byte[] source = null;
+            if (StringUtils.hasText(thumbnailLink)) {
+                source = download(thumbnailLink);
+            }
+            if (source == null && head.size() > 0 && head.size() <= head.bytes().length) {
+                // the prefix is the whole image
+                source = head.bytes();
+            } else if (source == null && head.size() > 0
+                && head.size() <= MAX_PLACEHOLDER_SOURCE_BYTES) {
+                source = download(imageLink);
+            }
+            if (source != null) {
+                final var image = decodeSmall(source);
+                if (image != null) {
+                    blurHash = BlurHash.encode(image, 4, 3);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the size and dimensions are still worth saving
+            log.debug("Failed to compute placeholder of {}: {}", imageLink, e.getMessage());
+        }
+        return new Enrichment(head.size(), dimensions, blurHash);
+    }
+
+    private @Nullable byte[] download(String link) {
+        final var body = downloader.webClient().get()
+            .uri(link)
+            .exchangeToMono(response -> readPrefix(response, MAX_PLACEHOLDER_SOURCE_BYTES + 1))
+            .block(TIMEOUT);
+        return body == null || body.bytes().length > MAX_PLACEHOLDER_SOURCE_BYTES
+            ? null : body.bytes();
+    }
+
+    /**
+     * Read at most {@code limit} bytes of the body, and the total size from the headers.
+     *
+     * @return Empty on client errors that will not go away by retrying, e.g. not found or
+     * forbidden.
+     */
+    private static Mono<Head> readPrefix(ClientResponse response, int limit) {
+        if (isPermanentError(response.statusCode().value())) {
+            return response.releaseBody().then(Mono.empty());
+        }
+        if (!response.statusCode().is2xxSuccessful()) {
+            return response.createError();
+        }
+        final var size = getTotalSize(response);
+        return DataBufferUtils.join(DataBufferUtils.takeUntilByteCount(
+                response.bodyToFlux(DataBuffer.class), limit))
+            .map(buffer -> {
+                final var bytes = new byte[buffer.readableByteCount()];
+                buffer.read(bytes);
+                DataBufferUtils.release(buffer);
+                return new Head(size, bytes);
+            })
+            .defaultIfEmpty(new Head(size, new byte[0]));
+    }
+
+    static boolean isPermanentError(int status) {
+        return status >= 400 && status < 500
+            && status != HttpStatus.REQUEST_TIMEOUT.value()
+            && status != HttpStatus.TOO_MANY_REQUESTS.value();
+    }
+
+    /**
+     * The size of the whole image, from {@code Content-Range} of partial responses (as the
+     * server may ignore the range), otherwise from {@code Content-Length}.
+     *
+     * @return {@code -1} if unknown.
+     */
+    private static long getTotalSize(ClientResponse response) {
+        final var headers = response.headers().asHttpHeaders();
+        if (response.statusCode().value() == HttpStatus.PARTIAL_CONTENT.value()) {
+            final var range = headers.getFirst(HttpHeaders.CONTENT_RANGE);
+            final var slash = range == null ? -1 : range.lastIndexOf('/');
+            if (slash < 0) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(range.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                // "*" for unknown length
+                return -1;
+            }
+        }
+        return headers.getContentLength();
+    }
+
+    /**
+     * Decode the image with source subsampling and scale it to at most
+     * {@link #PLACEHOLDER_SIZE} pixels on the longer side.
+     *
+     * @return {@code null} if the format is not supported.
+     */
+    private static @Nullable BufferedImage decodeSmall(byte[] data) throws IOException {
+        try (final var input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            final var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            final var reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final var width = reader.getWidth(0);
+                final var height = reader.getHeight(0);
+                final var subsampling =
+                    Math.max(1, Math.max(width, height) / (PLACEHOLDER_SIZE * 4));
+                final var param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                final var decoded = reader.read(0, param);
+
+                final var scale = Math.min(1.0,
+                    (double) PLACEHOLDER_SIZE / Math.max(decoded.getWidth(), decoded.getHeight()));
+                final var targetWidth = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+                final var targetHeight =
+                    Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+                final var small =
+                    new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+                final var graphics = small.createGraphics();
+                try {
+                    graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    graphics.drawImage(decoded, 0, 0, targetWidth, targetHeight, null);
+                } finally {
+                    graphics.dispose();
+                }
+                return small;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private record Head(long size, byte[] bytes) {
+    }
+
+    /**
+     * @param size Size of the stored image in bytes, {@code -1} if unknown.
+     */
+    private record Enrichment(long size, @Nullable ImageDimensions.Dimensions dimensions,
+                              @Nullable String blurHash) {
+    }
+}
@@ -0,0 +1,445 @@
+package me.chenhe.halo.lskypro;
+
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_KEY;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_LINK;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.INSTANCE_ID;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.THUMBNAIL_LINK;
+
+import jakarta.annotation.Nullable;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.PolicyPropertiesCache.ResolvedPolicy;
+import me.chenhe.halo.lskypro.client.RoutingLskyProClient;
+import me.chenhe.halo.lskypro.client.UploadResponse;
+import me.chenhe.halo.lskypro.extension.Migration;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.Metadata;
+import run.halo.app.extension.PageRequestImpl;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.index.query.Queries;
+
+/**
+ * Moves image attachments of another policy (e.g. local storage) into a Lsky Pro policy.
+ * <p>
+ * Source attachments are read page by page in the order of their names. Each image is
+ * downloaded from its permalink, uploaded to Lsky Pro with bounded parallelism, then the
+ * attachment is rewritten in place to point at the target policy. Progress and the checkpoint are
+ * saved in the {@link Migration} after each page. Once all pages are done, the attachments that
+ * failed are retried up to {@link #MAX_RETRY_ROUNDS} times. Files of the source policy are kept.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AttachmentMigrator {
+
+    static final int PAGE_SIZE = 50;
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int MAX_CONCURRENCY = 16;
+    static final int MAX_RECORDED_FAILURES = 1000;
+
+    /**
+     * How many times the recorded failures are retried once all pages are done.
+     */
+    static final int MAX_RETRY_ROUNDS = 2;
+
+    private final ReactiveExtensionClient client;
+    private final LskyProClientRegistry clientRegistry;
+    private final PolicyPropertiesCache policyCache;
+    private final ImageDownloader downloader;
+
+    /**
+     * Migration name -> the running loop.
+     */
+    private final Map<String, Disposable> running = new ConcurrentHashMap<>();
+
+    /**
+     * Start a new migration.
+     */
+    public Mono<Migration> create(Migration.Spec spec) {
+        if (!StringUtils.hasText(spec.getSourcePolicyName())
+            || !StringUtils.hasText(spec.getTargetPolicyName())) {
+            return Mono.error(new ServerWebInputException(
+                "Both source and target policy are required."));
+        }
+        if (spec.getSourcePolicyName().equals(spec.getTargetPolicyName())) {
+            return Mono.error(new ServerWebInputException(
+                "Source and target policy must be different."));
+        }
+        spec.setConcurrency(spec.getConcurrency() <= 0 ? DEFAULT_CONCURRENCY
+            : Math.min(spec.getConcurrency(), MAX_CONCURRENCY));
+        final var metadata = new Metadata();
+        metadata.setGenerateName("lsky-migration-");
+        final var migration = new Migration();
+        migration.setMetadata(metadata);
+        migration.setSpec(spec);
+        migration.getStatus().setPhase(Migration.Phase.RUNNING);
+        migration.getStatus().setStartedAt(Instant.now());
+        return resolveTarget(spec)
+            .then(client.create(migration))
+            .doOnNext(created -> launch(created.getMetadata().getName()));
+    }
+
+    public Mono<Migration> pause(String name) {
+        final var loop = running.remove(name);
+        if (loop != null) {
+            loop.dispose();
+        }
+        return updateStatus(name, status -> {
+            if (status.getPhase() == Migration.Phase.RUNNING) {
+                status.setPhase(Migration.Phase.PAUSED);
+            }
+        }).doOnNext(m -> log.info("LskyPro migration {} paused", name));
+    }
+
+    public Mono<Migration> resume(String name) {
+        return updateStatus(name, status -> {
+            if (status.getPhase() != Migration.Phase.COMPLETED) {
+                status.setPhase(Migration.Phase.RUNNING);
+                status.setLastError(null);
+            }
+        }).doOnNext(m -> {
+            if (m.getStatus().getPhase() == Migration.Phase.RUNNING) {
+                launch(name);
+            }
+        });
+    }
+
+    /**
+     * Resume migrations that were running when the plugin stopped.
+     */
+    public void start() {
+        client.list(Migration.class, m -> m.getStatus() != null
+                && m.getStatus().getPhase() == Migration.Phase.RUNNING, null)
+            .doOnNext(m -> launch(m.getMetadata().getName()))
+            .subscribe();
+    }
+
+    /**
+     * Stop all running loops, leaving their phase as is so that they are resumed on start.
+     */
+    public void stop() {
+        running.values().forEach(Disposable::dispose);
+        running.clear();
+    }
+
+    private synchronized void launch(String name) {
+        final var existing = running.get(name);
+        if (existing != null && !existing.isDisposed()) {
+            return;
+        }
+        log.info("LskyPro migration {} started", name);
+        final var loop = Disposables.swap();
+        running.put(name, loop);
+        loop.update(run(name)
+            .doFinally(s -> running.remove(name, loop))
+            .subscribe());
+    }
+
+    private Mono<Void> run(String name) {
+        return client.get(Migration.class, name)
+            .flatMap(migration -> resolveTarget(migration.getSpec()))
+            .flatMap(target -> Mono.defer(() -> step(name, target))
+                .repeat()
+                .takeUntil(Boolean::booleanValue)
+                .then())
+            .onErrorResume(e -> {
+                log.warn("LskyPro migration {} failed", name, e);
+                return updateStatus(name, status -> {
+                    status.setPhase(Migration.Phase.FAILED);
+                    status.setLastError(e.getMessage());
+                }).then();
+            });
+    }
+
+    /**
+     * Migrate one page, or once all pages are done, retry the recorded failures.
+     *
+     * @return Whether the migration has finished.
+     */
+    private Mono<Boolean> step(String name, Target target) {
+        final var start = System.nanoTime();
+        return client.get(Migration.class, name).flatMap(migration -> {
+            final var spec = migration.getSpec();
+            final var status = migration.getStatus();
+            return client.listBy(Attachment.class,
+                    listOptions(spec.getSourcePolicyName(), status.getCheckpoint()),
+                    PageRequestImpl.of(1, PAGE_SIZE, Sort.by("metadata.name")))
+                .flatMap(page -> {
+                    if (page.getItems().isEmpty()) {
+                        if (status.getRetryRounds() < MAX_RETRY_ROUNDS
+                            && status.getFailedAttachments() != null
+                            && !status.getFailedAttachments().isEmpty()) {
+                            return retryFailures(name, migration, target, start)
+                                .thenReturn(false);
+                        }
+                        return updateStatus(name, s -> {
+                            s.setPhase(Migration.Phase.COMPLETED);
+                            s.setRemaining(0);
+                        }).doOnNext(m -> log.info("LskyPro migration {} completed: {}", name,
+                            m.getStatus())).thenReturn(true);
+                    }
+                    final var items = page.getItems();
+                    return Flux.fromIterable(items)
+                        .flatMap(attachment -> migrate(attachment, spec, target),
+                            spec.getConcurrency())
+                        .collectList()
+                        .flatMap(outcomes -> updateStatus(name, s -> {
+                            for (final var outcome : outcomes) {
+                                outcome.applyTo(s);
+                            }
+                            s.setCheckpoint(items.get(items.size() - 1).getMetadata().getName());
+                            s.setRemaining(Math.max(0, page.getTotal() - items.size()));
+                            s.setElapsedMillis(s.getElapsedMillis()
+                                + Duration.ofNanos(System.nanoTime() - start).toMillis());
+                        }))
+                        .doOnNext(this::logProgress)
+                        .thenReturn(false);
+                });
+        });
+    }
+
+    /**
+     * Migrate the recorded failures once more. Those that are gone or no longer belong to the
+     * source policy are dropped from the failures.
+     */
+    private Mono<Migration> retryFailures(String name, Migration migration, Target target,
+        long start) {
+        final var spec = migration.getSpec();
+        final var names = List.copyOf(migration.getStatus().getFailedAttachments());
+        log.info("LskyPro migration {}: retry {} failed attachments", name, names.size());
+        return Flux.fromIterable(names)
+            .flatMap(attachmentName -> client.fetch(Attachment.class, attachmentName)
+                    .filter(attachment -> isCandidate(attachment, spec.getSourcePolicyName()))
+                    .flatMap(attachment -> migrate(attachment, spec, target))
+                    .map(outcome -> Map.entry(attachmentName, outcome)),
+                spec.getConcurrency())
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+            .flatMap(outcomes -> updateStatus(name, s -> {
+                for (final var attachmentName : names) {
+                    Outcome.applyRetryTo(s, attachmentName, outcomes.get(attachmentName));
+                }
+                s.setRetryRounds(s.getRetryRounds() + 1);
+                s.setElapsedMillis(s.getElapsedMillis()
+                    + Duration.ofNanos(System.nanoTime() - start).toMillis());
+            }))
+            .doOnNext(this::logProgress);
+    }
+
+    /**
+     * Source attachments after the checkpoint, looked up by the indexed policy name rather than
+     * by scanning all attachments for every page.
+     */
+    static ListOptions listOptions(String sourcePolicyName, @Nullable String checkpoint) {
+        var query = Queries.and(Queries.equal("spec.policyName", sourcePolicyName),
+            Queries.isNull("metadata.deletionTimestamp"));
+        if (checkpoint != null) {
+            query = Queries.and(query, Queries.greaterThan("metadata.name", checkpoint));
+        }
+        return ListOptions.builder().fieldQuery(query).build();
+    }
+
+    private void logProgress(Migration migration) {
+        final var status = migration.getStatus();
+        final var seconds = Math.max(0.001, status.getElapsedMillis() / 1000.0);
+        log.info("LskyPro migration {}: {} migrated, {} skipped, {} failed, {} remaining, "
+                + "{} images/s, {} KiB/s", migration.getMetadata().getName(),
+            status.getMigrated(), status.getSkipped(), status.getFailed(),
+            status.getRemaining(), Math.round(status.getMigrated() / seconds),
+            Math.round(status.getBytes() / 1024.0 / seconds));
+    }
+
+    private Mono<Outcome> migrate(Attachment attachment, Migration.Spec spec, Target target) {
+        final var name = attachment.getMetadata().getName();
+        final var attachmentSpec = attachment.getSpec();
+        final var mediaType = parseMediaType(attachmentSpec.getMediaType());
+        if (mediaType == null || !"image".equals(mediaType.getType())) {
+            return Mono.just(Outcome.SKIPPED);
+        }
+        final var permalink = attachment.getStatus() == null ? null
+            : attachment.getStatus().getPermalink();
+        if (!StringUtils.hasText(permalink)) {
+            return Mono.just(Outcome.failed(name, "no permalink"));
+        }
+        final var source = StringUtils.hasText(spec.getBaseUrl())
+            ? URI.create(spec.getBaseUrl()).resolve(permalink) : URI.create(permalink);
+        final var props = target.policy().properties();
+        // every subscription downloads again, so the upload can be retried and failed over
+        final Flux<DataBuffer> content = Flux.defer(() -> downloader.webClient().get().uri(source)
+            .retrieve()
+            .bodyToFlux(DataBuffer.class));
+        return target.client().upload(content, attachmentSpec.getDisplayName(), mediaType,
+                props.getLskyStrategy(), props.getLskyAlbumId(), true)
+            .flatMap(resp -> rewrite(name, resp, target)
+                .onErrorResume(e -> target.client().delete(resp.key())
+                    .onErrorResume(deleteError -> Mono.empty())
+                    .then(Mono.error(e))))
+            .map(migrated -> Outcome.migrated(
+                migrated.getSpec().getSize() == null ? 0 : migrated.getSpec().getSize()))
+            .onErrorResume(e -> {
+                log.warn("Failed to migrate attachment {} from {}: {}", name, source,
+                    e.getMessage());
+                return Mono.just(Outcome.failed(name, e.getMessage()));
+            });
+    }
+
+    /**
+     * Point the attachment at the uploaded image.
+     */
+    private Mono<Attachment> rewrite(String name, UploadResponse resp, Target target) {
+        return Mono.defer(() -> client.get(Attachment.class, name)
+                .flatMap(attachment -> {
+                    var annotations = attachment.getMetadata().getAnnotations();
+                    if (annotations == null) {
+                        annotations = new HashMap<>();
+                        attachment.getMetadata().setAnnotations(annotations);
+                    }
+                    annotations.put(IMAGE_KEY, resp.key());
+                    annotations.put(IMAGE_LINK, resp.links().url());
+                    annotations.put(INSTANCE_ID, target.policy().instanceId());
+                    if (StringUtils.hasText(resp.links().thumbnailUrl())) {
+                        annotations.put(THUMBNAIL_LINK, resp.links().thumbnailUrl());
+                    }
+                    attachment.getSpec().setPolicyName(target.policyName());
+                    if (attachment.getStatus() == null) {
+                        attachment.setStatus(new Attachment.AttachmentStatus());
+                    }
+                    attachment.getStatus().setPermalink(resp.links().url());
+                    return client.update(attachment);
+                }))
+            .retryWhen(Retry.max(3).filter(OptimisticLockingFailureException.class::isInstance));
+    }
+
+    private Mono<Migration> updateStatus(String name, Consumer<Migration.Status> mutator) {
+        return Mono.defer(() -> client.get(Migration.class, name)
+                .flatMap(migration -> {
+                    if (migration.getStatus() == null) {
+                        migration.setStatus(new Migration.Status());
+                    }
+                    mutator.accept(migration.getStatus());
+                    migration.getStatus().setUpdatedAt(Instant.now());
+                    return client.update(migration);
+                }))
+            .retryWhen(Retry.max(3).filter(OptimisticLockingFailureException.class::isInstance));
+    }
+
+    private Mono<Target> resolveTarget(Migration.Spec spec) {
+        return client.fetch(Policy.class, spec.getTargetPolicyName())
+            .filter(policy -> policy.getSpec() != null
+                && "chenhe-lsky-pro".equals(policy.getSpec().getTemplateName()))
+            .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                "Target policy %s does not exist or is not a Lsky Pro policy.".formatted(
+                    spec.getTargetPolicyName()))))
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                    "ConfigMap of target policy %s does not exist.".formatted(
+                        spec.getTargetPolicyName()))))
+                .map(configMap -> {
+                    final var resolved = policyCache.resolve(configMap, policy);
+                    return new Target(policy.getMetadata().getName(), resolved,
+                        clientRegistry.getClient(configMap.getMetadata().getName(),
+                            resolved.properties(), resolved.instanceId()));
+                }));
+    }
+
+    private static boolean isCandidate(Attachment attachment, String sourcePolicyName) {
+        return attachment.getMetadata().getDeletionTimestamp() == null
+            && attachment.getSpec() != null
+            && sourcePolicyName.equals(attachment.getSpec().getPolicyName());
+    }
+
+    private static @Nullable MediaType parseMediaType(@Nullable String mediaType) {
+        if (!StringUtils.hasText(mediaType)) {
+            return null;
+        }
+        try {
+            return MediaType.parseMediaType(mediaType);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private record Target(String policyName, ResolvedPolicy policy,
+                          RoutingLskyProClient client) {
+    }
+
+    /**
+     * Result of migrating one attachment.
+     */
+    private record Outcome(boolean migrated, long bytes, @Nullable String failedAttachment,
+                           @Nullable String error) {
+        static final Outcome SKIPPED = new Outcome(false, 0, null, null);
+
+        static Outcome migrated(long bytes) {
+            return new Outcome(true, bytes, null, null);
+        }
+
+        static Outcome failed(String attachment, String error) {
+            return new Outcome(false, 0, attachment, error);
+        }
+
+        void applyTo(Migration.Status status) {
+            if (migrated) {
+                status.setMigrated(status.getMigrated() + 1);
+                status.setBytes(status.getBytes() + bytes);
+            } else if (failedAttachment != null) {
+                status.setFailed(status.getFailed() + 1);
+                status.setLastError(error);
+                final var failures = new ArrayList<>(status.getFailedAttachments() == null
+                    ? List.of() : status.getFailedAttachments());
+                failures.add(failedAttachment);
+                if (failures.size() > MAX_RECORDED_FAILURES) {
+                    failures.subList(0, failures.size() - MAX_RECORDED_FAILURES).clear();
+                }
+                status.setFailedAttachments(failures);
+            } else {
+                status.setSkipped(status.getSkipped() + 1);
+            }
+        }
+
+        /**
+         * @param outcome {@code null} if the attachment is gone or no longer in the source
+         *                policy.
+         */
+        static void applyRetryTo(Migration.Status status, String attachment,
+            @Nullable Outcome outcome) {
+            if (outcome != null && outcome.failedAttachment != null) {
+                status.setLastError(outcome.error);
+                return;
+            }
+            status.setFailed(Math.max(0, status.getFailed() - 1));
+            final var failures = new ArrayList<>(status.getFailedAttachments());
+            failures.remove(attachment);
+            status.setFailedAttachments(failures);
+            if (outcome != null && outcome.migrated) {
+                status.setMigrated(status.getMigrated() + 1);
+                status.setBytes(status.getBytes() + outcome.bytes);
+            } else if (outcome != null) {
+                status.setSkipped(status.getSkipped() + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import run.halo.app.plugin.ApiVersion;
+
+/**
+ * Upload many images to a Lsky Pro policy in one request, see {@link BatchUploader}.
+ * <p>
+ * Results are streamed as NDJSON, or as server-sent events if requested by {@code Accept}, as
+ * soon as each file finishes.
+ */
+@ApiVersion("lsky-pro.chenhe.me/v1")
+@RestController
+@RequiredArgsConstructor
+public class BatchUploadController {
+
+    private final BatchUploader uploader;
+
+    @PostMapping(value = "/policies/{name}/uploads",
+        consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+        produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE})
+    public Flux<BatchUploader.Result> upload(@PathVariable String name,
+        @RequestParam(required = false) @Nullable String groupName,
+        @RequestParam(defaultValue = "0") int concurrency,
+        @RequestBody Flux<Part> parts) {
+        return ReactiveSecurityContextHolder.getContext()
+            .map(context -> context.getAuthentication().getName())
+            .flatMapMany(ownerName -> uploader.upload(name, groupName, concurrency, parts,
+                ownerName));
+    }
+}
@@ -0,0 +1,107 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.core.extension.attachment.endpoint.AttachmentHandler;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.ReactiveExtensionClient;
+
+/**
+ * Uploads many files of one multipart request to a Lsky Pro policy, several at a time.
+ * <p>
+ * Parts are requested from the multipart body only as upload slots free up, so at most
+ * {@code concurrency} files are held (in memory or in temporary files, as decided by the
+ * multipart reader) at any time. Each file goes through {@link LskyProAttachmentHandler}
+ * like a regular upload, sharing its connection pool, bulkhead and deduplication.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BatchUploader {
+
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int MAX_CONCURRENCY = 16;
+
+    private final ReactiveExtensionClient client;
+    private final LskyProAttachmentHandler handler;
+
+    /**
+     * @param groupName   Attachment group of the created attachments. {@code null} for none.
+     * @param concurrency Max number of files uploaded at the same time, {@code 0} for the
+     *                    default.
+     * @param ownerName   Owner of the created attachments.
+     * @return Result of each file in the order they finish. A failed file does not fail the
+     * others.
+     */
+    public Flux<Result> upload(String policyName, @Nullable String groupName, int concurrency,
+        Flux<Part> parts, String ownerName) {
+        final var effectiveConcurrency = concurrency <= 0 ? DEFAULT_CONCURRENCY
+            : Math.min(concurrency, MAX_CONCURRENCY);
+        return resolveTarget(policyName)
+            .flatMapMany(target -> parts
+                .filter(FilePart.class::isInstance)
+                .cast(FilePart.class)
+                .index()
+                .flatMap(indexed -> upload(indexed.getT1(), indexed.getT2(), target, groupName,
+                    ownerName), effectiveConcurrency));
+    }
+
+    private Mono<Result> upload(long index, FilePart file, Target target,
+        @Nullable String groupName, String ownerName) {
+        return handler.upload(new Upload(file, target.policy(), target.configMap()))
+            .flatMap(attachment -> {
+                final var spec = attachment.getSpec();
+                spec.setOwnerName(ownerName);
+                spec.setPolicyName(target.policy().getMetadata().getName());
+                if (StringUtils.hasText(groupName)) {
+                    spec.setGroupName(groupName);
+                }
+                return client.create(attachment);
+            })
+            .map(created -> new Result(index, file.filename(), created, null))
+            .onErrorResume(e -> {
+                log.warn("Failed to upload {} of batch to LskyPro policy {}: {}",
+                    file.filename(), target.policy().getMetadata().getName(), e.getMessage());
+                return Mono.just(new Result(index, file.filename(), null,
+                    String.valueOf(e.getMessage())));
+            });
+    }
+
+    private Mono<Target> resolveTarget(String policyName) {
+        return client.fetch(Policy.class, policyName)
+            .filter(policy -> policy.getSpec() != null
+                && "chenhe-lsky-pro".equals(policy.getSpec().getTemplateName()))
+            .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                "Policy %s does not exist or is not a Lsky Pro policy.".formatted(policyName))))
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                    "ConfigMap of policy %s does not exist.".formatted(policyName))))
+                .map(configMap -> new Target(policy, configMap)));
+    }
+
+    private record Target(Policy policy, ConfigMap configMap) {
+    }
+
+    private record Upload(FilePart file, Policy policy, ConfigMap configMap)
+        implements AttachmentHandler.UploadContext {
+    }
+
+    /**
+     * @param index      0-based position of the file in the request.
+     * @param attachment The created attachment, {@code null} if failed.
+     * @param error      Why the upload failed, {@code null} if succeeded.
+     */
+    public record Result(long index, String filename, @Nullable Attachment attachment,
+                         @Nullable String error) {
+    }
+}
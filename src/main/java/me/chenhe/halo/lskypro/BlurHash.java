@@ -0,0 +1,118 @@
+package me.chenhe.halo.lskypro;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Encoder of <a href="https://blurha.sh">BlurHash</a>, a compact placeholder of an image that
+ * themes can render while the image is loading.
+ * <p>
+ * The image should already be tiny (e.g. 32px), the hash only keeps a few low frequencies anyway.
+ */
+final class BlurHash {
+
+    private static final String ALPHABET =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHash() {
+    }
+
+    /**
+     * @param componentsX Number of horizontal components, 1 to 9.
+     * @param componentsY Number of vertical components, 1 to 9.
+     */
+    static String encode(BufferedImage image, int componentsX, int componentsY) {
+        if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+            throw new IllegalArgumentException("Components must be between 1 and 9.");
+        }
+        final var width = image.getWidth();
+        final var height = image.getHeight();
+        final var pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        final var linear = new double[pixels.length * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            linear[i * 3] = toLinear((pixels[i] >> 16) & 0xFF);
+            linear[i * 3 + 1] = toLinear((pixels[i] >> 8) & 0xFF);
+            linear[i * 3 + 2] = toLinear(pixels[i] & 0xFF);
+        }
+
+        final var factors = new double[componentsX * componentsY][];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                final var normalisation = (i == 0 && j == 0) ? 1 : 2;
+                final var factor = new double[3];
+                for (int y = 0; y < height; y++) {
+                    final var cosY = Math.cos(Math.PI * j * y / height);
+                    for (int x = 0; x < width; x++) {
+                        final var basis = normalisation * Math.cos(Math.PI * i * x / width) * cosY;
+                        final var p = (y * width + x) * 3;
+                        factor[0] += basis * linear[p];
+                        factor[1] += basis * linear[p + 1];
+                        factor[2] += basis * linear[p + 2];
+                    }
+                }
+                final var scale = 1.0 / (width * height);
+                factor[0] *= scale;
+                factor[1] *= scale;
+                factor[2] *= scale;
+                factors[j * componentsX + i] = factor;
+            }
+        }
+
+        final var hash = new StringBuilder();
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+        var maximum = 1.0;
+        if (factors.length > 1) {
+            var actualMaximum = 0.0;
+            for (int i = 1; i < factors.length; i++) {
+                for (final var value : factors[i]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            final var quantisedMaximum =
+                (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximum = (quantisedMaximum + 1) / 166.0;
+            encode83(hash, quantisedMaximum, 1);
+        } else {
+            encode83(hash, 0, 1);
+        }
+        encode83(hash, encodeDc(factors[0]), 4);
+        for (int i = 1; i < factors.length; i++) {
+            encode83(hash, encodeAc(factors[i], maximum), 2);
+        }
+        return hash.toString();
+    }
+
+    private static int encodeDc(double[] value) {
+        return (toSrgb(value[0]) << 16) + (toSrgb(value[1]) << 8) + toSrgb(value[2]);
+    }
+
+    private static int encodeAc(double[] value, double maximum) {
+        final var r = quantiseAc(value[0], maximum);
+        final var g = quantiseAc(value[1], maximum);
+        final var b = quantiseAc(value[2], maximum);
+        return r * 19 * 19 + g * 19 + b;
+    }
+
+    private static int quantiseAc(double value, double maximum) {
+        final var v = Math.signum(value) * Math.pow(Math.abs(value / maximum), 0.5);
+        return (int) Math.max(0, Math.min(18, Math.floor(v * 9 + 9.5)));
+    }
+
+    private static void encode83(StringBuilder out, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            final var digit = (value / (int) Math.pow(83, length - i)) % 83;
+            out.append(ALPHABET.charAt(digit));
+        }
+    }
+
+    private static double toLinear(int value) {
+        final var v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int toSrgb(double value) {
+        final var v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308
+            ? (int) (v * 12.92 * 255 + 0.5)
+            : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+}
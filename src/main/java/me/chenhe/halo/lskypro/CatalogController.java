@@ -0,0 +1,59 @@
+package me.chenhe.halo.lskypro;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.ApiVersion;
+
+/**
+ * Strategies, albums and quota of the Lsky Pro account of a policy, see {@link LskyProCatalog}.
+ */
+@ApiVersion("lsky-pro.chenhe.me/v1")
+@RestController
+@RequiredArgsConstructor
+public class CatalogController {
+
+    private final ReactiveExtensionClient client;
+    private final PolicyPropertiesCache policyCache;
+    private final LskyProClientRegistry clientRegistry;
+    private final LskyProCatalog catalog;
+
+    /**
+     * The catalog of a saved policy, cached.
+     */
+    @GetMapping("/policies/{name}/catalog")
+    public Mono<LskyProCatalog.Catalog> get(@PathVariable String name) {
+        return client.fetch(Policy.class, name)
+            .filter(policy -> policy.getSpec() != null
+                && "chenhe-lsky-pro".equals(policy.getSpec().getTemplateName()))
+            .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                "Policy %s does not exist or is not a Lsky Pro policy.".formatted(name))))
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                    "ConfigMap of policy %s does not exist.".formatted(name))))
+                .flatMap(configMap -> {
+                    final var resolved = policyCache.resolve(configMap, policy);
+                    return catalog.get(clientRegistry.getClient(configMap.getMetadata().getName(),
+                        resolved.properties(), resolved.instanceId()));
+                }))
+            .onErrorMap(LskyProAttachmentHandler::handleError);
+    }
+
+    /**
+     * The catalog of settings not saved yet, e.g. while editing a policy. Never cached.
+     */
+    @PostMapping("/policies/catalog")
+    public Mono<LskyProCatalog.Catalog> load(@RequestBody LskyProProperties props) {
+        return catalog.load(clientRegistry.getClient(null,
+                LskyProAttachmentHandler.checkProperties(props), null))
+            .onErrorMap(LskyProAttachmentHandler::handleError);
+    }
+}
@@ -0,0 +1,150 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.client.RoutingLskyProClient;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.ReactiveExtensionClient;
+
+/**
+ * Periodically checks every endpoint of every Lsky Pro policy with a cheap request, see
+ * {@link me.chenhe.halo.lskypro.client.LskyProClient#probe()}. Policies without a token are
+ * probed with a request open to guests, so they are not reported down for lack of one.
+ * <p>
+ * The first round runs at plugin start, which also opens a pooled connection to each endpoint,
+ * so that the first upload after a restart does not pay for DNS, TCP and TLS setup. Results are
+ * fed into the {@link me.chenhe.halo.lskypro.client.EndpointStats} used for routing, so an
+ * unreachable mirror is avoided before an upload fails on it.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HealthProber {
+
+    static final Duration PROBE_INTERVAL = Duration.ofSeconds(60);
+    static final Duration PROBE_TIMEOUT = Duration.ofSeconds(10);
+
+    private final ReactiveExtensionClient client;
+    private final PolicyPropertiesCache policyCache;
+    private final LskyProClientRegistry clientRegistry;
+
+    private final Disposable.Swap loop = Disposables.swap();
+
+    /**
+     * Instance ID -> health of its endpoints, replaced after each round.
+     */
+    private volatile Map<String, List<Health>> health = Map.of();
+
+    public void start() {
+        loop.update(Flux.interval(Duration.ZERO, PROBE_INTERVAL)
+            .onBackpressureDrop()
+            .concatMap(tick -> probeAll()
+                .onErrorResume(e -> {
+                    log.warn("Failed to probe LskyPro instances: {}", e.getMessage());
+                    return Mono.empty();
+                }))
+            .subscribe());
+    }
+
+    public void stop() {
+        loop.dispose();
+    }
+
+    /**
+     * Health of each instance by instance ID, as of the last round.
+     */
+    public Map<String, List<Health>> getHealth() {
+        return health;
+    }
+
+    private Mono<Void> probeAll() {
+        return client.list(Policy.class, policy -> policy.getSpec() != null
+                && "chenhe-lsky-pro".equals(policy.getSpec().getTemplateName()), null)
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .map(configMap -> {
+                    final var resolved = policyCache.resolve(configMap, policy);
+                    return new Target(resolved.instanceId(),
+                        clientRegistry.getClient(configMap.getMetadata().getName(),
+                            resolved.properties(), resolved.instanceId()));
+                })
+                .onErrorResume(e -> {
+                    log.warn("Skip probing LskyPro policy {}: {}",
+                        policy.getMetadata().getName(), e.getMessage());
+                    return Mono.empty();
+                }))
+            // policies sharing an instance are probed once
+            .distinct(Target::instanceId)
+            .flatMap(target -> Flux.fromIterable(target.client().getEndpoints())
+                .flatMap(endpoint -> probe(target.instanceId(), endpoint))
+                .collectSortedList((a, b) -> a.url().compareTo(b.url()))
+                .map(results -> Map.entry(target.instanceId(), results)))
+            .collectMap(Map.Entry::getKey, Map.Entry::getValue, TreeMap::new)
+            .doOnNext(results -> health = Collections.unmodifiableMap(results))
+            .then();
+    }
+
+    private Mono<Health> probe(String instanceId, RoutingLskyProClient.Endpoint endpoint) {
+        final var previous = find(instanceId, endpoint.url());
+        return Mono.defer(() -> {
+            final var start = System.nanoTime();
+            return endpoint.client().probe()
+                .timeout(PROBE_TIMEOUT)
+                .then(Mono.fromSupplier(() -> {
+                    final var latency = Duration.ofNanos(System.nanoTime() - start);
+                    endpoint.stats().recordSuccess(latency);
+                    if (previous != null && !previous.up()) {
+                        log.info("LskyPro endpoint {} of instance {} is up again",
+                            endpoint.url(), instanceId);
+                    }
+                    return new Health(endpoint.url(), true, latency.toMillis(), null, 0,
+                        Instant.now());
+                }))
+                .onErrorResume(e -> {
+                    endpoint.stats().recordFailure(Duration.ofNanos(System.nanoTime() - start));
+                    if (previous == null || previous.up()) {
+                        log.warn("LskyPro endpoint {} of instance {} is down: {}",
+                            endpoint.url(), instanceId, e.getMessage());
+                    }
+                    return Mono.just(new Health(endpoint.url(), false, null,
+                        String.valueOf(e.getMessage()),
+                        previous == null ? 1 : previous.consecutiveFailures() + 1,
+                        Instant.now()));
+                });
+        });
+    }
+
+    private @Nullable Health find(String instanceId, String url) {
+        for (final var h : health.getOrDefault(instanceId, List.of())) {
+            if (h.url().equals(url)) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    private record Target(String instanceId, RoutingLskyProClient client) {
+    }
+
+    /**
+     * @param latencyMillis       Latency of the last probe, {@code null} if it failed.
+     * @param lastError           Why the last probe failed, {@code null} if it succeeded.
+     * @param consecutiveFailures Number of probes failed in a row.
+     */
+    public record Health(String url, boolean up, @Nullable Long latencyMillis,
+                         @Nullable String lastError, int consecutiveFailures,
+                         Instant checkedAt) {
+    }
+}
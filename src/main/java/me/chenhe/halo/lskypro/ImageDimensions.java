@@ -0,0 +1,131 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read the width and height of an image from its leading bytes, without decoding it.
+ * <p>
+ * Supports PNG, GIF, JPEG, WebP and BMP. The EXIF orientation of JPEG is applied, so the result
+ * is the size as displayed.
+ */
+final class ImageDimensions {
+
+    private ImageDimensions() {
+    }
+
+    /**
+     * @param prefix Leading bytes of the image, may be truncated.
+     * @return {@code null} if the format is not supported or the prefix is too short.
+     */
+    static @Nullable Dimensions read(byte[] prefix) {
+        final var mediaType = ImageSniffer.detect(prefix);
+        if (mediaType == null) {
+            return null;
+        }
+        return switch (mediaType.getSubtype()) {
+            case "png" -> prefix.length < 24 ? null
+                : of(readInt(prefix, 16, false), readInt(prefix, 20, false));
+            case "gif" -> prefix.length < 10 ? null
+                : of(readShort(prefix, 6, true), readShort(prefix, 8, true));
+            case "jpeg" -> readJpeg(prefix);
+            case "webp" -> readWebp(prefix);
+            case "bmp" -> prefix.length < 26 ? null
+                // height is negative for top-down bitmaps
+                : of(readInt(prefix, 18, true), Math.abs(readInt(prefix, 22, true)));
+            default -> null;
+        };
+    }
+
+    /**
+     * Walk the segments up to the first start-of-frame, picking up the orientation on the way.
+     */
+    private static @Nullable Dimensions readJpeg(byte[] data) {
+        var orientation = 1;
+        var offset = 2;
+        while (offset + 4 <= data.length) {
+            if ((data[offset] & 0xFF) != 0xFF) {
+                return null;
+            }
+            final var marker = data[offset + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            final var length = readShort(data, offset + 2, false);
+            if (length < 2) {
+                return null;
+            }
+            final var payload = offset + 4;
+            // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC)
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8
+                && marker != 0xCC) {
+                if (payload + 5 > data.length) {
+                    return null;
+                }
+                final var height = readShort(data, payload + 1, false);
+                final var width = readShort(data, payload + 3, false);
+                return orientation >= 5 ? of(height, width) : of(width, height);
+            }
+            if (marker == 0xE1 && payload + length - 2 <= data.length) {
+                final var exif = ImageTransformer.parseExifOrientation(
+                    Arrays.copyOfRange(data, payload, payload + length - 2));
+                if (exif != null) {
+                    orientation = exif;
+                }
+            }
+            if (marker == 0xDA) {
+                // start of scan without a frame header
+                return null;
+            }
+            offset = payload + length - 2;
+        }
+        return null;
+    }
+
+    /**
+     * Read the first chunk: the canvas size of VP8X, or the frame size of VP8 and VP8L.
+     */
+    private static @Nullable Dimensions readWebp(byte[] data) {
+        if (data.length < 30) {
+            return null;
+        }
+        final var chunk = new String(data, 12, 4, StandardCharsets.US_ASCII);
+        return switch (chunk) {
+            case "VP8X" -> of(1 + readInt24(data, 24), 1 + readInt24(data, 27));
+            case "VP8 " -> of(readShort(data, 26, true) & 0x3FFF,
+                readShort(data, 28, true) & 0x3FFF);
+            case "VP8L" -> {
+                final var bits = readInt(data, 21, true);
+                yield of(1 + (bits & 0x3FFF), 1 + ((bits >>> 14) & 0x3FFF));
+            }
+            default -> null;
+        };
+    }
+
+    private static @Nullable Dimensions of(int width, int height) {
+        return width > 0 && height > 0 ? new Dimensions(width, height) : null;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt24(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+            | ((data[offset + 2] & 0xFF) << 16);
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        final int hi = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        final int lo = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return (hi << 16) | lo;
+    }
+
+    record Dimensions(int width, int height) {
+    }
+}
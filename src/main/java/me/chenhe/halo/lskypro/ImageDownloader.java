@@ -0,0 +1,49 @@
+package me.chenhe.halo.lskypro;
+
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.client.LskyProTransport;
+import me.chenhe.halo.lskypro.client.TransportOptions;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * The HTTP client downloading images by URL, e.g. originals to migrate, render thumbnails of or
+ * enrich attachments with, and links probed by reconciliation. All of them share one connection
+ * pool with connect and response timeouts, rather than each creating its own unbounded one.
+ */
+@Slf4j
+@Component
+public class ImageDownloader {
+
+    static final TransportOptions OPTIONS = new TransportOptions(
+        Duration.ofSeconds(10),
+        Duration.ofSeconds(30),
+        Duration.ofSeconds(30),
+        32,
+        256,
+        Duration.ofSeconds(30),
+        Duration.ofSeconds(30),
+        TransportOptions.Protocol.HTTP_1_1,
+        false);
+
+    private final LskyProTransport transport =
+        LskyProTransport.create("lsky-pro-downloads", OPTIONS);
+
+    private final WebClient webClient = WebClient.builder()
+        .clientConnector(transport.connector())
+        .build();
+
+    public WebClient webClient() {
+        return webClient;
+    }
+
+    /**
+     * Close the connection pool.
+     */
+    public void dispose() {
+        transport.dispose()
+            .doOnSuccess(v -> log.debug("LskyPro download connection pool disposed"))
+            .subscribe();
+    }
+}
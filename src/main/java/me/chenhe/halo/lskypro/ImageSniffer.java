@@ -0,0 +1,254 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+
+/**
+ * Detect the image format from the leading bytes of the content, so that non-images can be
+ * rejected before streaming them to Lsky Pro, and images with odd file names are still accepted.
+ */
+final class ImageSniffer {
+
+    static final MediaType IMAGE_WEBP = MediaType.parseMediaType("image/webp");
+    static final MediaType IMAGE_AVIF = MediaType.parseMediaType("image/avif");
+    static final MediaType IMAGE_BMP = MediaType.parseMediaType("image/bmp");
+    static final MediaType IMAGE_SVG = MediaType.parseMediaType("image/svg+xml");
+
+    /**
+     * Formats that can be recognized by {@link #detect(DataBuffer)}.
+     */
+    static final Set<MediaType> SNIFFABLE = Set.of(MediaType.IMAGE_PNG, MediaType.IMAGE_JPEG,
+        MediaType.IMAGE_GIF, IMAGE_WEBP, IMAGE_AVIF, IMAGE_BMP, IMAGE_SVG);
+
+    /**
+     * Max number of bytes inspected, SVG may start with a long XML prolog or comments.
+     */
+    static final int MAX_PREFIX = 4096;
+
+    /**
+     * Offsets returned by {@link #findSvgRoot(String)} if no root element is found.
+     */
+    private static final int NOT_SVG = -1;
+    private static final int TRUNCATED = -2;
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] GIF87A = {'G', 'I', 'F', '8', '7', 'a'};
+    private static final byte[] GIF89A = {'G', 'I', 'F', '8', '9', 'a'};
+    private static final byte[] RIFF = {'R', 'I', 'F', 'F'};
+    private static final byte[] WEBP = {'W', 'E', 'B', 'P'};
+    private static final byte[] FTYP = {'f', 't', 'y', 'p'};
+    private static final byte[] AVIF = {'a', 'v', 'i', 'f'};
+    private static final byte[] AVIS = {'a', 'v', 'i', 's'};
+    private static final byte[] BMP = {'B', 'M'};
+
+    private ImageSniffer() {
+    }
+
+    /**
+     * Determine the media type of an upload from its first buffer, falling back to the file name
+     * for image formats that cannot be sniffed (e.g. TIFF, ICO), or if the first buffer is too
+     * short to hold the signature of the format named by the file.
+     *
+     * @return {@code null} if it is not an image.
+     */
+    static @Nullable MediaType getMediaType(DataBuffer first, @Nullable String filename) {
+        final var prefix = readPrefix(first);
+        final var sniffed = detect(prefix);
+        if (sniffed != null) {
+            return sniffed;
+        }
+        final var byName = filename == null ? null
+            : MediaTypeFactory.getMediaType(filename).orElse(null);
+        if (byName == null || !"image".equals(byName.getType())) {
+            return null;
+        }
+        if (!SNIFFABLE.contains(byName) || isTruncated(prefix, byName)) {
+            return byName;
+        }
+        return null;
+    }
+
+    /**
+     * Recognize the image format by its signature. The buffer is not consumed.
+     *
+     * @return {@code null} if no known signature matches.
+     */
+    static @Nullable MediaType detect(DataBuffer buffer) {
+        return detect(readPrefix(buffer));
+    }
+
+    private static byte[] readPrefix(DataBuffer buffer) {
+        final var prefix = new byte[Math.min(buffer.readableByteCount(), MAX_PREFIX)];
+        final var start = buffer.readPosition();
+        for (int i = 0; i < prefix.length; i++) {
+            prefix[i] = buffer.getByte(start + i);
+        }
+        return prefix;
+    }
+
+    /**
+     * Whether the prefix ends before the signature of the given format could be checked, while
+     * matching it as far as it goes. That is inconclusive rather than a mismatch.
+     */
+    static boolean isTruncated(byte[] prefix, MediaType type) {
+        if (MediaType.IMAGE_PNG.equals(type)) {
+            return prefix.length < PNG.length && matchesSoFar(prefix, 0, PNG);
+        }
+        if (MediaType.IMAGE_JPEG.equals(type)) {
+            return prefix.length < JPEG.length && matchesSoFar(prefix, 0, JPEG);
+        }
+        if (MediaType.IMAGE_GIF.equals(type)) {
+            return prefix.length < GIF89A.length
+                && (matchesSoFar(prefix, 0, GIF87A) || matchesSoFar(prefix, 0, GIF89A));
+        }
+        if (IMAGE_WEBP.equals(type)) {
+            return prefix.length < 12 && matchesSoFar(prefix, 0, RIFF)
+                && matchesSoFar(prefix, 8, WEBP);
+        }
+        if (IMAGE_AVIF.equals(type)) {
+            return prefix.length < 12 && matchesSoFar(prefix, 4, FTYP);
+        }
+        if (IMAGE_BMP.equals(type)) {
+            return prefix.length < 10 && matchesSoFar(prefix, 0, BMP);
+        }
+        if (IMAGE_SVG.equals(type)) {
+            return prefix.length < MAX_PREFIX
+                && findSvgRoot(new String(prefix, StandardCharsets.ISO_8859_1)) == TRUNCATED;
+        }
+        return false;
+    }
+
+    static @Nullable MediaType detect(byte[] prefix) {
+        if (startsWith(prefix, 0, PNG)) {
+            return MediaType.IMAGE_PNG;
+        }
+        if (startsWith(prefix, 0, JPEG)) {
+            return MediaType.IMAGE_JPEG;
+        }
+        if (startsWith(prefix, 0, GIF87A) || startsWith(prefix, 0, GIF89A)) {
+            return MediaType.IMAGE_GIF;
+        }
+        if (startsWith(prefix, 0, RIFF) && startsWith(prefix, 8, WEBP)) {
+            return IMAGE_WEBP;
+        }
+        if (startsWith(prefix, 4, FTYP) && isAvifBrand(prefix)) {
+            return IMAGE_AVIF;
+        }
+        // BMP has a short magic, so also check the reserved fields which must be zero
+        if (startsWith(prefix, 0, BMP) && prefix.length >= 10
+            && prefix[6] == 0 && prefix[7] == 0 && prefix[8] == 0 && prefix[9] == 0) {
+            return IMAGE_BMP;
+        }
+        if (isSvg(prefix)) {
+            return IMAGE_SVG;
+        }
+        return null;
+    }
+
+    /**
+     * Check the major brand and compatible brands of the leading {@code ftyp} box.
+     */
+    private static boolean isAvifBrand(byte[] prefix) {
+        if (prefix.length < 12) {
+            return false;
+        }
+        final var boxSize = ((prefix[0] & 0xFF) << 24) | ((prefix[1] & 0xFF) << 16)
+            | ((prefix[2] & 0xFF) << 8) | (prefix[3] & 0xFF);
+        final var end = Math.min(prefix.length, boxSize);
+        // major brand, minor version, then compatible brands
+        for (int offset = 8; offset + 4 <= end; offset += offset == 8 ? 8 : 4) {
+            if (startsWith(prefix, offset, AVIF) || startsWith(prefix, offset, AVIS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSvg(byte[] prefix) {
+        return findSvgRoot(new String(prefix, StandardCharsets.ISO_8859_1)) >= 0;
+    }
+
+    /**
+     * Find the root element of an SVG document, which must be {@code <svg}. Only the XML
+     * declaration, comments and an SVG doctype may come before it, so that HTML or other XML
+     * embedding an SVG is not taken for one.
+     *
+     * @return Offset of the root element, {@link #NOT_SVG} if the root is something else, or
+     * {@link #TRUNCATED} if the text ends before the root.
+     */
+    private static int findSvgRoot(String text) {
+        var offset = text.startsWith("\u00EF\u00BB\u00BF") ? 3 : 0; // UTF-8 BOM
+        while (true) {
+            while (offset < text.length() && Character.isWhitespace(text.charAt(offset))) {
+                offset++;
+            }
+            final int end;
+            if (text.startsWith("<?xml", offset)) {
+                end = endOf(text, "?>", offset);
+            } else if (text.startsWith("<!--", offset)) {
+                end = endOf(text, "-->", offset);
+            } else if (text.regionMatches(true, offset, "<!DOCTYPE svg", 0, 13)) {
+                // the internal subset may contain markup declarations
+                final var subset = text.indexOf('[', offset);
+                final var close = text.indexOf('>', offset);
+                end = subset >= 0 && (close < 0 || subset < close)
+                    ? endOf(text, "]>", subset) : endOf(text, ">", offset);
+            } else if (text.startsWith("<svg", offset)) {
+                if (offset + 4 == text.length()) {
+                    return TRUNCATED;
+                }
+                final var next = text.charAt(offset + 4);
+                return Character.isWhitespace(next) || next == '>' || next == '/'
+                    ? offset : NOT_SVG;
+            } else {
+                final var rest = text.substring(offset);
+                return rest.length() < 13 && ("<?xml".startsWith(rest) || "<!--".startsWith(rest)
+                    || "<svg".startsWith(rest)
+                    || "<!DOCTYPE svg".regionMatches(true, 0, rest, 0, rest.length()))
+                    ? TRUNCATED : NOT_SVG;
+            }
+            if (end < 0) {
+                return TRUNCATED;
+            }
+            offset = end;
+        }
+    }
+
+    /**
+     * @return Offset right after the first {@code terminator} from {@code offset}, {@code -1} if
+     * absent.
+     */
+    private static int endOf(String text, String terminator, int offset) {
+        final var index = text.indexOf(terminator, offset);
+        return index < 0 ? -1 : index + terminator.length();
+    }
+
+    /**
+     * Like {@link #startsWith}, but only compares the bytes present.
+     */
+    private static boolean matchesSoFar(byte[] data, int offset, byte[] signature) {
+        for (int i = 0; i < signature.length && offset + i < data.length; i++) {
+            if (data[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] signature) {
+        if (data.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (data[offset + i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
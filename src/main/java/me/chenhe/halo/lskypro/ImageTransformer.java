@@ -0,0 +1,1024 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Optionally downscales and re-encodes images before uploading.
+ * <p>
+ * The content is spooled to a temporary file first, so that only the image header has to be
+ * read to decide whether anything needs to be done. Large images are decoded with source
+ * subsampling, which bounds the memory needed to roughly the size of the target image rather
+ * than the original one.
+ * <p>
+ * Only JPEG and PNG are processed, other formats (e.g. animated GIF, WebP) are uploaded as is.
+ * Re-encoded images never keep metadata such as EXIF, but the EXIF orientation of JPEG is applied
+ * to the pixels. If EXIF must be stripped but re-encoding is not needed or does not help, the
+ * metadata is removed without touching the compressed image: segments of JPEG, chunks of PNG and
+ * WebP, and the items of AVIF and HEIF, which are blanked out in place.
+ */
+@Slf4j
+@Component
+public class ImageTransformer {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int DEFAULT_QUALITY = 85;
+
+    /**
+     * Do not decode images larger than this after subsampling, to bound memory usage. That is up
+     * to 64MB for the decoded image.
+     */
+    static final long MAX_DECODED_PIXELS = 16_000_000L;
+
+    /**
+     * Bounds the memory used by concurrent decodes to about a quarter of the heap, as each of
+     * them may need {@link #MAX_DECODED_PIXELS} of 4 bytes.
+     */
+    private static final Semaphore DECODE_PERMITS = new Semaphore((int) Math.max(1,
+        Runtime.getRuntime().maxMemory() / 4 / (MAX_DECODED_PIXELS * 4)));
+
+    private static final Set<String> SUPPORTED_FORMATS = Set.of("jpeg", "png");
+
+    private static final byte[] PNG_SIGNATURE =
+        {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * PNG chunks that may carry private metadata: EXIF, text and the modification time.
+     */
+    private static final Set<String> PNG_METADATA_CHUNKS =
+        Set.of("eXIf", "tEXt", "iTXt", "zTXt", "tIME");
+
+    /**
+     * Major brands of AVIF and HEIF images, see {@link #stripIsobmffMetadata}.
+     */
+    private static final Set<String> ISOBMFF_IMAGE_BRANDS =
+        Set.of("avif", "avis", "heic", "heix", "heim", "heis", "mif1", "msf1");
+
+    /**
+     * Max size of the {@code meta} box of AVIF and HEIF read into memory, it only holds item
+     * descriptions and properties.
+     */
+    private static final int MAX_META_BOX_SIZE = 1024 * 1024;
+
+    /**
+     * Transform the given content according to the policy, then pass the result to
+     * {@code consumer}. All temporary files are deleted once the returned {@link Mono} terminates
+     * or is cancelled.
+     *
+     * @param scheduler Where decoding and encoding run.
+     */
+    public <T> Mono<T> transform(Flux<DataBuffer> content, LskyProProperties properties,
+        Scheduler scheduler, Function<Transformed, Mono<T>> consumer) {
+        return Mono.usingWhen(
+            Mono.fromCallable(() -> Files.createTempFile("lsky-upload-", ".tmp"))
+                .subscribeOn(scheduler),
+            source -> DataBufferUtils.write(content, source)
+                .then(Mono.fromCallable(() -> process(source, properties))
+                    .subscribeOn(scheduler))
+                .flatMap(transformed -> consumer.apply(transformed)
+                    .doFinally(s -> {
+                        if (transformed.changed()) {
+                            deleteQuietly(transformed.file());
+                        }
+                    })),
+            source -> Mono.fromRunnable(() -> deleteQuietly(source))
+                .subscribeOn(scheduler)
+        );
+    }
+
+    Transformed process(Path source, LskyProProperties properties) throws IOException {
+        final var originalSize = Files.size(source);
+        final var unchanged = new Transformed(source, originalSize, originalSize, false);
+        try {
+            final var transformed = reencode(source, originalSize, properties);
+            if (transformed != null) {
+                return transformed;
+            }
+        } catch (IOException | RuntimeException e) {
+            // never fail the upload because of an optional optimization
+            log.warn("Failed to transform image, upload the original one: {}", e.getMessage());
+        }
+        if (!properties.isStripExif()) {
+            return unchanged;
+        }
+        // EXIF must not be uploaded even if re-encoding is skipped or fails
+        final var stripped = stripMetadata(source);
+        if (stripped == null) {
+            return unchanged;
+        }
+        final var strippedSize = Files.size(stripped);
+        log.debug("Stripped metadata of image ({} bytes to {} bytes)", originalSize,
+            strippedSize);
+        return new Transformed(stripped, originalSize, strippedSize, true);
+    }
+
+    /**
+     * Downscale and re-encode the image if needed.
+     *
+     * @return {@code null} if the original image should be uploaded, apart from stripping
+     * metadata.
+     */
+    private @Nullable Transformed reencode(Path source, long originalSize,
+        LskyProProperties properties) throws IOException {
+        try (final var input = ImageIO.createImageInputStream(source.toFile())) {
+            final var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final var format = reader.getFormatName().toLowerCase(Locale.ROOT);
+                if (!SUPPORTED_FORMATS.contains(format)) {
+                    log.debug("Skip transforming image of unsupported format {}", format);
+                    return null;
+                }
+                final var isJpeg = "jpeg".equals(format);
+                final var orientation = isJpeg ? readJpegOrientation(source) : 1;
+                final var transposed = orientation >= 5;
+                final int width = transposed ? reader.getHeight(0) : reader.getWidth(0);
+                final int height = transposed ? reader.getWidth(0) : reader.getHeight(0);
+
+                final var scale = getScale(width, height, properties);
+                final var recompress = isJpeg && properties.getTransformQuality() != null
+                    && originalSize >= getMinBytes(properties);
+                if (scale >= 1 && !recompress) {
+                    return null;
+                }
+
+                final var targetWidth = Math.max(1, (int) Math.round(width * scale));
+                final var targetHeight = Math.max(1, (int) Math.round(height * scale));
+                final var image = decode(reader, orientation, width, height, targetWidth,
+                    targetHeight, isJpeg);
+                if (image == null) {
+                    return null;
+                }
+                final var output = Files.createTempFile("lsky-transformed-", "." + format);
+                try {
+                    write(image, format, getQuality(properties), output);
+                    final var finalSize = Files.size(output);
+                    if (scale >= 1 && finalSize >= originalSize) {
+                        // re-encoding without resizing does not help
+                        deleteQuietly(output);
+                        return null;
+                    }
+                    log.debug("Transformed image from {}x{} ({} bytes) to {}x{} ({} bytes)",
+                        width, height, originalSize, targetWidth, targetHeight, finalSize);
+                    return new Transformed(output, originalSize, finalSize, true);
+                } catch (IOException | RuntimeException e) {
+                    deleteQuietly(output);
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Downscale the image to the given width for a thumbnail, keeping the aspect ratio and the
+     * format. Like {@link #process}, the image is decoded with source subsampling, so the memory
+     * needed is bounded by the size of the thumbnail rather than the original.
+     *
+     * @return Format written to {@code output}, {@code null} if the image is not supported or
+     * not wider than {@code width}, in which case the original should be used as is.
+     */
+    @Nullable String thumbnail(Path source, int width, Path output) throws IOException {
+        try (final var input = ImageIO.createImageInputStream(source.toFile())) {
+            final var readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                final var format = reader.getFormatName().toLowerCase(Locale.ROOT);
+                if (!SUPPORTED_FORMATS.contains(format)) {
+                    return null;
+                }
+                final var isJpeg = "jpeg".equals(format);
+                final var orientation = isJpeg ? readJpegOrientation(source) : 1;
+                final var transposed = orientation >= 5;
+                final int sourceWidth = transposed ? reader.getHeight(0) : reader.getWidth(0);
+                final int sourceHeight = transposed ? reader.getWidth(0) : reader.getHeight(0);
+                if (sourceWidth <= width) {
+                    return null;
+                }
+                final var targetHeight =
+                    Math.max(1, (int) Math.round((double) sourceHeight * width / sourceWidth));
+                final var image = decode(reader, orientation, sourceWidth, sourceHeight, width,
+                    targetHeight, isJpeg);
+                if (image == null) {
+                    return null;
+                }
+                write(image, format, DEFAULT_QUALITY / 100f, output);
+                return format;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decode the image with source subsampling, then render it to the target size.
+     *
+     * @param width  Width of the image after orientation.
+     * @param height Height of the image after orientation.
+     * @return {@code null} if the image is too large to decode even with subsampling.
+     */
+    private static @Nullable BufferedImage decode(ImageReader reader, int orientation, int width,
+        int height, int targetWidth, int targetHeight, boolean opaque) throws IOException {
+        final var subsampling = Math.max(1, (int) Math.min(
+            (double) width / targetWidth, (double) height / targetHeight));
+        if ((long) (width / subsampling) * (height / subsampling) > MAX_DECODED_PIXELS) {
+            log.warn("Skip transforming image of {}x{}, too large to decode", width, height);
+            return null;
+        }
+        final var param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        try {
+            DECODE_PERMITS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to decode");
+        }
+        try {
+            final var decoded = reader.read(0, param);
+            return render(decoded, orientation, targetWidth, targetHeight, opaque);
+        } finally {
+            DECODE_PERMITS.release();
+        }
+    }
+
+    /**
+     * @return The scale factor to fit the image into max dimensions, {@code 1} if it already
+     * fits.
+     */
+    static double getScale(int width, int height, LskyProProperties properties) {
+        var scale = 1d;
+        final var maxWidth = properties.getTransformMaxWidth();
+        final var maxHeight = properties.getTransformMaxHeight();
+        if (maxWidth != null && maxWidth > 0 && width > maxWidth) {
+            scale = Math.min(scale, (double) maxWidth / width);
+        }
+        if (maxHeight != null && maxHeight > 0 && height > maxHeight) {
+            scale = Math.min(scale, (double) maxHeight / height);
+        }
+        return scale;
+    }
+
+    private static long getMinBytes(LskyProProperties properties) {
+        final var minKb = properties.getTransformMinKb();
+        return minKb == null ? 0 : minKb * 1024L;
+    }
+
+    private static float getQuality(LskyProProperties properties) {
+        final var quality = properties.getTransformQuality() == null
+            ? DEFAULT_QUALITY : properties.getTransformQuality();
+        return Math.max(1, Math.min(100, quality)) / 100f;
+    }
+
+    /**
+     * Apply the EXIF orientation and scale to the target size.
+     *
+     * @param opaque Whether to drop the alpha channel, required by JPEG.
+     */
+    private static BufferedImage render(BufferedImage source, int orientation, int targetWidth,
+        int targetHeight, boolean opaque) {
+        final var transposed = orientation >= 5;
+        // size of the source after orientation
+        final double w = transposed ? source.getHeight() : source.getWidth();
+        final double h = transposed ? source.getWidth() : source.getHeight();
+
+        final var transform = new AffineTransform();
+        transform.scale(targetWidth / w, targetHeight / h);
+        transform.concatenate(getOrientationTransform(orientation, source.getWidth(),
+            source.getHeight()));
+
+        final var target = new BufferedImage(targetWidth, targetHeight,
+            opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * @see <a href="https://exiftool.org/TagNames/EXIF.html">Orientation tag</a>
+     */
+    private static AffineTransform getOrientationTransform(int orientation, int w, int h) {
+        final var t = new AffineTransform();
+        switch (orientation) {
+            case 2 -> {
+                t.scale(-1.0, 1.0);
+                t.translate(-w, 0);
+            }
+            case 3 -> {
+                t.translate(w, h);
+                t.rotate(Math.PI);
+            }
+            case 4 -> {
+                t.scale(1.0, -1.0);
+                t.translate(0, -h);
+            }
+            case 5 -> {
+                t.rotate(-Math.PI / 2);
+                t.scale(-1.0, 1.0);
+            }
+            case 6 -> {
+                t.translate(h, 0);
+                t.rotate(Math.PI / 2);
+            }
+            case 7 -> {
+                t.scale(-1.0, 1.0);
+                t.translate(-h, 0);
+                t.translate(0, w);
+                t.rotate(3 * Math.PI / 2);
+            }
+            case 8 -> {
+                t.translate(0, w);
+                t.rotate(3 * Math.PI / 2);
+            }
+            default -> {
+            }
+        }
+        return t;
+    }
+
+    private static void write(BufferedImage image, String format, float quality, Path output)
+        throws IOException {
+        final var writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer for " + format);
+        }
+        final var writer = writers.next();
+        try (final var out = ImageIO.createImageOutputStream(output.toFile())) {
+            writer.setOutput(out);
+            final var param = writer.getDefaultWriteParam();
+            if ("jpeg".equals(format)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Copy a JPEG without the segments that may carry private metadata: EXIF and XMP (APP1), IPTC
+     * (APP13) and comments. The compressed image is copied as is. The orientation is kept in a
+     * minimal EXIF segment, so that the image is still displayed upright.
+     *
+     * @return The stripped copy, {@code null} if the file is not a JPEG.
+     */
+    static @Nullable Path stripJpegMetadata(Path source) throws IOException {
+        final var orientation = readJpegOrientation(source);
+        final var output = Files.createTempFile("lsky-stripped-", ".jpeg");
+        try (final var in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(source)));
+             final var out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(output)))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                deleteQuietly(output);
+                return null;
+            }
+            out.writeShort(0xFFD8);
+            var orientationWritten = orientation == 1;
+            while (true) {
+                var marker = in.readUnsignedShort();
+                while (marker == 0xFFFF) {
+                    // fill byte
+                    marker = 0xFF00 | in.readUnsignedByte();
+                }
+                if ((marker & 0xFF00) != 0xFF00) {
+                    throw new IOException("Invalid JPEG marker " + Integer.toHexString(marker));
+                }
+                // after JFIF (APP0), which must come first
+                if (!orientationWritten && marker != 0xFFE0) {
+                    writeOrientation(out, orientation);
+                    orientationWritten = true;
+                }
+                if (marker == 0xFFDA || marker == 0xFFD9) {
+                    // start of scan or end of image, the rest is copied as is
+                    out.writeShort(marker);
+                    in.transferTo(out);
+                    break;
+                }
+                final var length = in.readUnsignedShort();
+                if (length < 2) {
+                    throw new IOException("Invalid JPEG segment length " + length);
+                }
+                if (marker == 0xFFE1 || marker == 0xFFED || marker == 0xFFFE) {
+                    in.skipNBytes(length - 2);
+                    continue;
+                }
+                out.writeShort(marker);
+                out.writeShort(length);
+                out.write(in.readNBytes(length - 2));
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(output);
+            throw e;
+        }
+        return output;
+    }
+
+    /**
+     * Copy the image without the metadata it may carry, according to its signature.
+     *
+     * @return The stripped copy, {@code null} if the format is not supported or the image has
+     * nothing to strip.
+     */
+    static @Nullable Path stripMetadata(Path source) throws IOException {
+        final byte[] header;
+        try (final var in = Files.newInputStream(source)) {
+            header = in.readNBytes(12);
+        }
+        if (header.length < 12) {
+            return null;
+        }
+        if ((header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8) {
+            return stripJpegMetadata(source);
+        }
+        if (Arrays.equals(header, 0, PNG_SIGNATURE.length, PNG_SIGNATURE, 0,
+            PNG_SIGNATURE.length)) {
+            return stripPngMetadata(source);
+        }
+        final var ascii = new String(header, StandardCharsets.ISO_8859_1);
+        if (ascii.startsWith("RIFF") && ascii.endsWith("WEBP")) {
+            return stripWebpMetadata(source);
+        }
+        if ("ftyp".equals(ascii.substring(4, 8))
+            && ISOBMFF_IMAGE_BRANDS.contains(ascii.substring(8, 12))) {
+            return stripIsobmffMetadata(source);
+        }
+        return null;
+    }
+
+    /**
+     * Copy a PNG without the chunks that may carry private metadata, see
+     * {@link #PNG_METADATA_CHUNKS}. Like JPEG, a non-default EXIF orientation is kept in a
+     * minimal {@code eXIf} chunk.
+     *
+     * @return The stripped copy, {@code null} if the file is not a PNG.
+     */
+    static @Nullable Path stripPngMetadata(Path source) throws IOException {
+        final var output = Files.createTempFile("lsky-stripped-", ".png");
+        try (final var in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(source)));
+             final var out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(output)))) {
+            final var signature = in.readNBytes(PNG_SIGNATURE.length);
+            if (!Arrays.equals(signature, PNG_SIGNATURE)) {
+                deleteQuietly(output);
+                return null;
+            }
+            out.write(signature);
+            while (true) {
+                final var length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("Invalid PNG chunk length " + length);
+                }
+                final var type = new String(in.readNBytes(4), StandardCharsets.ISO_8859_1);
+                if ("eXIf".equals(type)) {
+                    final var exif = new byte[6 + length];
+                    System.arraycopy("Exif\0\0".getBytes(StandardCharsets.ISO_8859_1), 0, exif,
+                        0, 6);
+                    in.readFully(exif, 6, length);
+                    in.skipNBytes(4);
+                    final var orientation = parseExifOrientation(exif);
+                    if (orientation != null && orientation != 1) {
+                        writePngChunk(out, "eXIf", tiffOrientation(orientation));
+                    }
+                    continue;
+                }
+                if (PNG_METADATA_CHUNKS.contains(type)) {
+                    // data and CRC
+                    in.skipNBytes(length + 4L);
+                    continue;
+                }
+                out.writeInt(length);
+                out.writeBytes(type);
+                copy(in, out, length + 4L);
+                if ("IEND".equals(type)) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(output);
+            throw e;
+        }
+        return output;
+    }
+
+    private static void writePngChunk(DataOutputStream out, String type, byte[] data)
+        throws IOException {
+        final var typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+        final var crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Copy a WebP without its {@code EXIF} and {@code XMP} chunks, clearing the corresponding
+     * flags of {@code VP8X}. WebP ignores the EXIF orientation, so it is not kept.
+     *
+     * @return The stripped copy, {@code null} if the file is not a WebP or has no metadata.
+     */
+    static @Nullable Path stripWebpMetadata(Path source) throws IOException {
+        try (final var in = FileChannel.open(source, StandardOpenOption.READ)) {
+            final var header = readAt(in, 0, 12).order(ByteOrder.LITTLE_ENDIAN);
+            final var end = Math.min(in.size(), 8 + Integer.toUnsignedLong(header.getInt(4)));
+            final var kept = new ArrayList<RiffChunk>();
+            var stripped = false;
+            var position = 12L;
+            while (position + 8 <= end) {
+                final var chunkHeader = readAt(in, position, 8).order(ByteOrder.LITTLE_ENDIAN);
+                final var type = fourCc(chunkHeader, 0);
+                final var size = Integer.toUnsignedLong(chunkHeader.getInt(4));
+                // chunks are padded to an even size
+                final var length = Math.min(8 + size + (size & 1), end - position);
+                if ("EXIF".equals(type) || "XMP ".equals(type)) {
+                    stripped = true;
+                } else {
+                    kept.add(new RiffChunk(type, position, length));
+                }
+                position += length;
+            }
+            if (!stripped) {
+                return null;
+            }
+            final var output = Files.createTempFile("lsky-stripped-", ".webp");
+            try (final var out = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                final var riffSize = 4 + kept.stream().mapToLong(RiffChunk::length).sum();
+                out.write(ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                    .put("RIFF".getBytes(StandardCharsets.ISO_8859_1))
+                    .putInt((int) riffSize)
+                    .put("WEBP".getBytes(StandardCharsets.ISO_8859_1))
+                    .flip());
+                for (final var chunk : kept) {
+                    if ("VP8X".equals(chunk.type()) && chunk.length() > 8) {
+                        final var vp8x = readAt(in, chunk.offset(), (int) chunk.length());
+                        // EXIF and XMP flags
+                        vp8x.put(8, (byte) (vp8x.get(8) & ~0x0C));
+                        writeFully(out, vp8x);
+                    } else {
+                        transferFully(in, chunk.offset(), chunk.length(), out);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(output);
+                throw e;
+            }
+            return output;
+        }
+    }
+
+    /**
+     * Copy an AVIF or HEIF image with its EXIF and XMP items blanked out. The items are located
+     * by absolute offsets in this format, so rather than removing them, which would mean
+     * rewriting every offset, their bytes are overwritten with zeros and the layout is kept.
+     *
+     * @return The stripped copy, {@code null} if the image has no metadata item.
+     */
+    static @Nullable Path stripIsobmffMetadata(Path source) throws IOException {
+        final List<long[]> ranges;
+        try (final var in = FileChannel.open(source, StandardOpenOption.READ)) {
+            ranges = findIsobmffMetadata(in);
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        final var output = Files.createTempFile("lsky-stripped-", ".avif");
+        try {
+            Files.copy(source, output, StandardCopyOption.REPLACE_EXISTING);
+            try (final var out = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                for (final var range : ranges) {
+                    var position = range[0];
+                    var remaining = range[1];
+                    while (remaining > 0) {
+                        final var zeros = ByteBuffer.allocate((int) Math.min(remaining,
+                            BUFFER_SIZE));
+                        remaining -= zeros.remaining();
+                        while (zeros.hasRemaining()) {
+                            position += out.write(zeros, position);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(output);
+            throw e;
+        }
+        return output;
+    }
+
+    /**
+     * Find the EXIF and XMP items in the top-level {@code meta} box.
+     *
+     * @return Offset and length of each extent of the items in the file.
+     */
+    private static List<long[]> findIsobmffMetadata(FileChannel in) throws IOException {
+        // top-level boxes, the meta box is small and read as a whole
+        ByteBuffer meta = null;
+        var metaOffset = 0L;
+        var position = 0L;
+        while (meta == null && position + 8 <= in.size()) {
+            final var header = readAt(in, position, (int) Math.min(16, in.size() - position));
+            var size = Integer.toUnsignedLong(header.getInt(0));
+            var headerSize = 8;
+            if (size == 1 && header.limit() == 16) {
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = in.size() - position;
+            }
+            if (size < headerSize) {
+                throw new IOException("Invalid box size " + size);
+            }
+            if ("meta".equals(fourCc(header, 4))) {
+                if (size > MAX_META_BOX_SIZE) {
+                    throw new IOException("Meta box too large: " + size);
+                }
+                metaOffset = position + headerSize;
+                meta = readAt(in, metaOffset, (int) size - headerSize);
+            }
+            position += size;
+        }
+        if (meta == null) {
+            return List.of();
+        }
+        try {
+            return findMetadataExtents(meta, metaOffset, in.size());
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid meta box", e);
+        }
+    }
+
+    private static List<long[]> findMetadataExtents(ByteBuffer meta, long metaOffset,
+        long fileSize) {
+        final var metadataItems = new HashSet<Long>();
+        ByteBuffer iloc = null;
+        var idatOffset = -1L;
+        // a full box, children follow version and flags
+        var position = 4;
+        while (position + 8 <= meta.limit()) {
+            final var size = Integer.toUnsignedLong(meta.getInt(position));
+            final var type = fourCc(meta, position + 4);
+            final var boxSize = size == 0 ? meta.limit() - position : size;
+            if (boxSize < 8 || position + boxSize > meta.limit()) {
+                throw new IndexOutOfBoundsException("Invalid box size " + size);
+            }
+            final var content = meta.slice(position + 8, (int) boxSize - 8);
+            switch (type) {
+                case "iinf" -> findMetadataItems(content, metadataItems);
+                case "iloc" -> iloc = content;
+                case "idat" -> idatOffset = metaOffset + position + 8;
+                default -> {
+                }
+            }
+            position += (int) boxSize;
+        }
+        if (iloc == null || metadataItems.isEmpty()) {
+            return List.of();
+        }
+        final var ranges = new ArrayList<long[]>();
+        final var version = iloc.get() & 0xFF;
+        iloc.position(4);
+        final var sizes = iloc.get() & 0xFF;
+        final var offsetSize = sizes >> 4;
+        final var lengthSize = sizes & 0x0F;
+        final var sizes2 = iloc.get() & 0xFF;
+        final var baseOffsetSize = sizes2 >> 4;
+        final var indexSize = version == 1 || version == 2 ? sizes2 & 0x0F : 0;
+        final var itemCount = version < 2 ? iloc.getShort() & 0xFFFF
+            : Integer.toUnsignedLong(iloc.getInt());
+        for (long i = 0; i < itemCount; i++) {
+            final var itemId = version < 2 ? iloc.getShort() & 0xFFFF
+                : Integer.toUnsignedLong(iloc.getInt());
+            final var constructionMethod =
+                version == 1 || version == 2 ? iloc.getShort() & 0x0F : 0;
+            // data reference index
+            iloc.getShort();
+            final var baseOffset = readSized(iloc, baseOffsetSize);
+            final var extentCount = iloc.getShort() & 0xFFFF;
+            for (int j = 0; j < extentCount; j++) {
+                readSized(iloc, indexSize);
+                final var offset = readSized(iloc, offsetSize);
+                final var length = readSized(iloc, lengthSize);
+                if (!metadataItems.contains((long) itemId) || length <= 0) {
+                    continue;
+                }
+                final long start;
+                if (constructionMethod == 0) {
+                    start = baseOffset + offset;
+                } else if (constructionMethod == 1 && idatOffset >= 0) {
+                    start = idatOffset + baseOffset + offset;
+                } else {
+                    continue;
+                }
+                if (start >= 0 && start + length <= fileSize) {
+                    ranges.add(new long[] {start, length});
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Collect the IDs of EXIF and XMP items from the content of an {@code iinf} box.
+     */
+    private static void findMetadataItems(ByteBuffer iinf, Set<Long> items) {
+        final var version = iinf.get(0) & 0xFF;
+        var position = version == 0 ? 6 : 8;
+        while (position + 8 <= iinf.limit()) {
+            final var size = Integer.toUnsignedLong(iinf.getInt(position));
+            if (size < 8 || position + size > iinf.limit()) {
+                throw new IndexOutOfBoundsException("Invalid box size " + size);
+            }
+            if ("infe".equals(fourCc(iinf, position + 4))) {
+                final var infe = iinf.slice(position + 8, (int) size - 8);
+                final var infeVersion = infe.get() & 0xFF;
+                infe.position(4);
+                if (infeVersion >= 2) {
+                    final long itemId = infeVersion == 2 ? infe.getShort() & 0xFFFF
+                        : Integer.toUnsignedLong(infe.getInt());
+                    // item protection index
+                    infe.getShort();
+                    final var itemType = fourCc(infe, infe.position());
+                    infe.position(infe.position() + 4);
+                    if ("Exif".equals(itemType)) {
+                        items.add(itemId);
+                    } else if ("mime".equals(itemType)) {
+                        // item name, then content type
+                        readCString(infe);
+                        if (readCString(infe).contains("rdf+xml")) {
+                            items.add(itemId);
+                        }
+                    }
+                }
+            }
+            position += (int) size;
+        }
+    }
+
+    private static String readCString(ByteBuffer buffer) {
+        final var bytes = new ByteArrayOutputStream();
+        while (buffer.hasRemaining()) {
+            final var b = buffer.get();
+            if (b == 0) {
+                break;
+            }
+            bytes.write(b);
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static long readSized(ByteBuffer buffer, int size) {
+        return switch (size) {
+            case 0 -> 0;
+            case 4 -> Integer.toUnsignedLong(buffer.getInt());
+            case 8 -> buffer.getLong();
+            default -> throw new IndexOutOfBoundsException("Invalid field size " + size);
+        };
+    }
+
+    private static String fourCc(ByteBuffer buffer, int offset) {
+        final var bytes = new byte[4];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read {@code length} bytes at the given position into a big-endian buffer.
+     */
+    private static ByteBuffer readAt(FileChannel in, long position, int length)
+        throws IOException {
+        final var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of image at " + position);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void transferFully(FileChannel in, long position, long count,
+        FileChannel out) throws IOException {
+        var transferred = 0L;
+        while (transferred < count) {
+            final var n = in.transferTo(position + transferred, count - transferred, out);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of image at " + position);
+            }
+            transferred += n;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long count) throws IOException {
+        final var buffer = new byte[(int) Math.min(count, 8192)];
+        var remaining = count;
+        while (remaining > 0) {
+            final var n = in.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (n < 0) {
+                throw new EOFException("Unexpected end of image");
+            }
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Write an EXIF segment with nothing but the orientation.
+     */
+    private static void writeOrientation(DataOutputStream out, int orientation)
+        throws IOException {
+        out.writeShort(0xFFE1);
+        out.writeShort(34);
+        out.writeBytes("Exif");
+        out.writeShort(0);
+        out.write(tiffOrientation(orientation));
+    }
+
+    /**
+     * A TIFF structure with nothing but the orientation, as the payload of EXIF.
+     */
+    private static byte[] tiffOrientation(int orientation) {
+        return ByteBuffer.allocate(26)
+            // big-endian TIFF header, the IFD follows right after it
+            .put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8)
+            // one entry: orientation, SHORT, count 1, value padded to 4 bytes
+            .putShort((short) 1)
+            .putShort((short) 0x0112).putShort((short) 3).putInt(1)
+            .putShort((short) orientation).putShort((short) 0)
+            // no next IFD
+            .putInt(0)
+            .array();
+    }
+
+    /**
+     * Read the EXIF orientation of a JPEG file by walking its segments up to APP1.
+     *
+     * @return Orientation in {@code [1, 8]}, {@code 1} if absent.
+     */
+    static int readJpegOrientation(Path file) {
+        try (final var in = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1;
+            }
+            while (true) {
+                final var marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA) {
+                    // not a marker, or start of scan
+                    return 1;
+                }
+                final var length = in.readUnsignedShort();
+                if (length < 2) {
+                    return 1;
+                }
+                if (marker == 0xFFE1) {
+                    final var data = new byte[length - 2];
+                    in.readFully(data);
+                    final var orientation = parseExifOrientation(data);
+                    if (orientation != null) {
+                        return orientation;
+                    }
+                } else {
+                    in.skipNBytes(length - 2);
+                }
+            }
+        } catch (IOException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * @param app1 Payload of APP1 segment.
+     * @return {@code null} if it is not an EXIF segment.
+     */
+    static @Nullable Integer parseExifOrientation(byte[] app1) {
+        if (app1.length < 14 || app1[0] != 'E' || app1[1] != 'x' || app1[2] != 'i'
+            || app1[3] != 'f') {
+            return null;
+        }
+        final var tiff = 6;
+        final var littleEndian = app1[tiff] == 'I';
+        final var ifd = tiff + readInt(app1, tiff + 4, littleEndian);
+        if (ifd < tiff || ifd + 2 > app1.length) {
+            return 1;
+        }
+        final var entries = readShort(app1, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            final var entry = ifd + 2 + i * 12;
+            if (entry + 12 > app1.length) {
+                break;
+            }
+            if (readShort(app1, entry, littleEndian) == 0x0112) {
+                final var orientation = readShort(app1, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        final int b0 = data[offset] & 0xFF;
+        final int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean littleEndian) {
+        final int hi = readShort(data, littleEndian ? offset + 2 : offset, littleEndian);
+        final int lo = readShort(data, littleEndian ? offset : offset + 2, littleEndian);
+        return (hi << 16) | lo;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete temporary file {}", file, e);
+        }
+    }
+
+    /**
+     * A chunk of a RIFF file, including its header and padding.
+     */
+    private record RiffChunk(String type, long offset, long length) {
+    }
+
+    /**
+     * @param file         The file to upload, either the original one or the transformed one.
+     * @param originalSize Size of the original image in bytes.
+     * @param finalSize    Size of the image to upload in bytes.
+     * @param changed      Whether the image is transformed.
+     */
+    public record Transformed(Path file, long originalSize, long finalSize, boolean changed) {
+
+        public Flux<DataBuffer> content() {
+            return DataBufferUtils.read(file, DefaultDataBufferFactory.sharedInstance,
+                BUFFER_SIZE);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package me.chenhe.halo.lskypro;
+
+/**
+ * A set of image keys stored as 64-bit fingerprints in an open-addressing {@code long[]} table,
+ * so that hundreds of thousands of keys take a few megabytes without any boxing.
+ * <p>
+ * Two different keys may share a fingerprint, in which case {@link #contains(String)} reports a
+ * key that was never added. With a million keys the chance is about one in thirty million, and
+ * callers only use it to prove that a key is <em>absent</em>, so a collision can hide an orphan
+ * but never make a live image look orphaned.
+ */
+final class KeyFingerprintSet {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Max fraction of occupied slots before the table grows.
+     */
+    static final double LOAD_FACTOR = 0.6;
+
+    /**
+     * Marks an empty slot. A key that fingerprints to it is stored as {@link #ZERO_SUBSTITUTE}.
+     */
+    private static final long EMPTY = 0L;
+    private static final long ZERO_SUBSTITUTE = 0x9E3779B97F4A7C15L;
+
+    private long[] table;
+    private int size;
+    private int resizeThreshold;
+
+    KeyFingerprintSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize Number of keys expected, to avoid resizing.
+     */
+    KeyFingerprintSet(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    /**
+     * @return Whether the key was not present before.
+     */
+    boolean add(String key) {
+        if (size >= resizeThreshold) {
+            resize(table.length * 2);
+        }
+        return insert(table, fingerprint(key));
+    }
+
+    boolean contains(String key) {
+        final var fingerprint = fingerprint(key);
+        final var mask = table.length - 1;
+        for (int i = mix(fingerprint) & mask; ; i = (i + 1) & mask) {
+            final var slot = table[i];
+            if (slot == EMPTY) {
+                return false;
+            }
+            if (slot == fingerprint) {
+                return true;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private boolean insert(long[] target, long fingerprint) {
+        final var mask = target.length - 1;
+        for (int i = mix(fingerprint) & mask; ; i = (i + 1) & mask) {
+            final var slot = target[i];
+            if (slot == EMPTY) {
+                target[i] = fingerprint;
+                size++;
+                return true;
+            }
+            if (slot == fingerprint) {
+                return false;
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        final var old = table;
+        allocate(capacity);
+        size = 0;
+        for (final var fingerprint : old) {
+            if (fingerprint != EMPTY) {
+                insert(table, fingerprint);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        final var needed = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR);
+        final var capacity = Long.highestOneBit(Math.max(needed - 1, 1)) << 1;
+        return (int) Math.min(capacity, 1 << 30);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units, followed by the MurmurHash3 finalizer to spread
+     * the short keys Lsky Pro generates over all bits.
+     */
+    static long fingerprint(String key) {
+        var hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? ZERO_SUBSTITUTE : hash;
+    }
+
+    /**
+     * Fold the fingerprint into a slot index, the table mask only keeps the low bits.
+     */
+    private static int mix(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "KeyFingerprintSet{size=" + size + ", capacity=" + table.length + "}";
+    }
+}
@@ -4,16 +4,28 @@ import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.BiFunction;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import me.chenhe.halo.lskypro.client.LskyProClient;
+import me.chenhe.halo.lskypro.PolicyPropertiesCache.ResolvedPolicy;
+import me.chenhe.halo.lskypro.client.BulkheadFullException;
+import me.chenhe.halo.lskypro.client.CircuitOpenException;
+import me.chenhe.halo.lskypro.client.Links;
 import me.chenhe.halo.lskypro.client.LskyProException;
+import me.chenhe.halo.lskypro.client.RateLimitedException;
+import me.chenhe.halo.lskypro.client.RoutingLskyProClient;
 import me.chenhe.halo.lskypro.client.UploadResponse;
 import org.pf4j.Extension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.MediaTypeFactory;
@@ -23,8 +35,8 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.server.ServerErrorException;
 import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 import run.halo.app.core.attachment.ThumbnailSize;
 import run.halo.app.core.extension.attachment.Attachment;
 import run.halo.app.core.extension.attachment.Policy;
@@ -35,31 +47,185 @@ import run.halo.app.infra.utils.JsonUtils;
 
 @Slf4j
 @Extension
+@RequiredArgsConstructor
 public class LskyProAttachmentHandler implements AttachmentHandler {
 
     public static final String IMAGE_KEY = "lskypro.plugin.halo.chenhe.me/image-key";
     public static final String IMAGE_LINK = "lskypro.plugin.halo.chenhe.me/image-link";
     public static final String INSTANCE_ID = "lskypro.plugin.halo.chenhe.me/instance-id";
+    public static final String THUMBNAIL_LINK = "lskypro.plugin.halo.chenhe.me/thumbnail-link";
+    /**
+     * SHA-1 of the uploaded content, only recorded if deduplication is enabled.
+     */
+    public static final String IMAGE_SHA1 = "lskypro.plugin.halo.chenhe.me/image-sha1";
+    /**
+     * Strategy and album the image is stored with, only recorded if deduplication is enabled, so
+     * that an image is only reused by uploads to the same place.
+     */
+    public static final String IMAGE_STORAGE = "lskypro.plugin.halo.chenhe.me/image-storage";
+    /**
+     * Size in bytes of the image before and after the pre-upload transformation, only recorded
+     * if transformation is enabled.
+     */
+    public static final String ORIGINAL_SIZE = "lskypro.plugin.halo.chenhe.me/original-size";
+    public static final String TRANSFORMED_SIZE =
+        "lskypro.plugin.halo.chenhe.me/transformed-size";
+    /**
+     * Size in pixels of the stored image and its BlurHash placeholder, recorded by
+     * {@link AttachmentEnricher} after upload. Either may be missing if it cannot be determined.
+     */
+    public static final String IMAGE_WIDTH = "lskypro.plugin.halo.chenhe.me/image-width";
+    public static final String IMAGE_HEIGHT = "lskypro.plugin.halo.chenhe.me/image-height";
+    public static final String BLURHASH = "lskypro.plugin.halo.chenhe.me/blurhash";
+    /**
+     * Present once {@link AttachmentEnricher} is done with the attachment, whether or not it
+     * succeeded.
+     */
+    public static final String ENRICHED = "lskypro.plugin.halo.chenhe.me/enriched";
 
+    private final LskyProClientRegistry clientRegistry;
+    private final PolicyPropertiesCache policyCache;
+    private final UploadDeduplicator deduplicator;
+    private final AsyncDeleteQueue deleteQueue;
+    private final ImageTransformer imageTransformer;
+    private final UploadSpooler uploadSpooler;
+    private final LskyProCatalog catalog;
+    private final LskyProMetrics metrics;
 
     @Override
     public Mono<Attachment> upload(UploadContext uploadContext) {
         return Mono.just(uploadContext)
-            .filter(ctx -> shouldHandle(ctx.policy(), ctx.file()))
-            .flatMap(ctx -> {
-                final var properties = getProperties(ctx.configMap());
-                final var instanceId = getInstanceId(properties, ctx.policy());
-                return upload(ctx, properties)
-                    .subscribeOn(Schedulers.boundedElastic())
-                    .onErrorMap(LskyProAttachmentHandler::handleError)
-                    .map(resp -> buildAttachment(resp, instanceId));
-            });
+            .filter(ctx -> shouldHandle(ctx.policy()))
+            .flatMap(ctx -> sniff(ctx.file(), (mediaType, content) -> {
+                final var resolved = policyCache.resolve(ctx.configMap(), ctx.policy());
+                if (resolved.properties().isDedupEnabled()) {
+                    return uploadDeduplicated(content, mediaType, ctx, resolved);
+                }
+                return uploadContent(content, mediaType, ctx, resolved, null, false);
+            }));
+    }
+
+    /**
+     * Inspect the first buffer of the file to reject non-images before anything is sent to Lsky
+     * Pro, then pass the whole content, including the inspected buffer, to {@code upload}.
+     */
+    private Mono<Attachment> sniff(FilePart file,
+        BiFunction<MediaType, Flux<DataBuffer>, Mono<Attachment>> upload) {
+        return file.content()
+            .<Attachment>switchOnFirst((signal, content) -> {
+                if (signal.hasError()) {
+                    return Mono.error(signal.getThrowable());
+                }
+                if (!signal.hasValue()) {
+                    metrics.uploadRejected("empty");
+                    return Mono.error(new ServerWebInputException("The file is empty."));
+                }
+                final var mediaType = ImageSniffer.getMediaType(signal.get(), file.filename());
+                if (mediaType == null) {
+                    log.warn("Reject attachment {} since its content is not an image",
+                        file.filename());
+                    metrics.uploadRejected("non-image");
+                    return Mono.error(new ServerWebInputException(
+                        "The file is not an image supported by Lsky Pro."));
+                }
+                log.debug("Detected media type {} of attachment {}", mediaType, file.filename());
+                return upload.apply(mediaType, content);
+            })
+            .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+            .singleOrEmpty();
+    }
+
+    /**
+     * Upload the file unless an image with the same content already exists.
+     * <p>
+     * The content is spooled while its SHA-1 is computed, so that it does not have to be held in
+     * memory until the lookup is done, and the upload can be retried.
+     */
+    private Mono<Attachment> uploadDeduplicated(Flux<DataBuffer> content, MediaType mediaType,
+        UploadContext ctx, ResolvedPolicy resolved) {
+        final var instanceId = resolved.instanceId();
+        final var storage = UploadDeduplicator.getStorage(resolved.properties());
+        final var filename = ctx.file().filename();
+        return deduplicator.digest(content, getSpoolThreshold(resolved.properties()),
+            clientRegistry.getBlockingScheduler(instanceId), digested -> deduplicator
+                .find(instanceId, storage, digested.sha1())
+                .map(existing -> {
+                    final var resp = new UploadResponse(existing.key, filename, filename, null,
+                        digested.sha1(), digested.size() / 1024f, mediaType.toString(),
+                        new Links(existing.url, existing.thumbnailUrl));
+                    final var attachment = buildAttachment(resp, instanceId, digested.sha1());
+                    attachment.getMetadata().getAnnotations().put(IMAGE_STORAGE, storage);
+                    return attachment;
+                })
+                .switchIfEmpty(Mono.defer(() ->
+                    uploadContent(digested.content(), mediaType, ctx, resolved, digested.sha1(),
+                        true)
+                        .flatMap(attachment -> {
+                            attachment.getMetadata().getAnnotations().put(IMAGE_STORAGE, storage);
+                            return deduplicator.register(instanceId, attachment)
+                                .thenReturn(attachment);
+                        })
+                )));
+    }
+
+    /**
+     * Upload the content, transforming or spooling it first if enabled.
+     *
+     * @param sha1       SHA-1 of the content. {@code null} if deduplication is disabled.
+     * @param replayable Whether the content can be subscribed to more than once, in which case
+     *                   it is not spooled again.
+     */
+    private Mono<Attachment> uploadContent(Flux<DataBuffer> content, MediaType mediaType,
+        UploadContext ctx, ResolvedPolicy resolved, @Nullable String sha1, boolean replayable) {
+        final var instanceId = resolved.instanceId();
+        final var props = resolved.properties();
+        if (props.isTransformEnabled()) {
+            return uploadTransformed(content, mediaType, ctx, resolved, sha1);
+        }
+        if (props.isSpoolEnabled() && !replayable) {
+            return uploadSpooler.spool(content, getSpoolThreshold(props),
+                    clientRegistry.getBlockingScheduler(instanceId), spooled ->
+                    metrics.timeUpload(instanceId,
+                        upload(spooled.content(), mediaType, ctx, resolved, true)))
+                .onErrorMap(LskyProAttachmentHandler::handleError)
+                .map(resp -> buildAttachment(resp, instanceId, sha1));
+        }
+        return metrics.timeUpload(instanceId,
+                upload(content, mediaType, ctx, resolved, replayable))
+            .onErrorMap(LskyProAttachmentHandler::handleError)
+            .map(resp -> buildAttachment(resp, instanceId, sha1));
+    }
+
+    private static int getSpoolThreshold(LskyProProperties props) {
+        return props.getSpoolMemoryThresholdKb() == null
+            ? UploadSpooler.DEFAULT_MEMORY_THRESHOLD
+            : Math.max(0, props.getSpoolMemoryThresholdKb()) * 1024;
+    }
+
+    /**
+     * Transform the content, then upload the result which is replayable from the temporary file.
+     */
+    private Mono<Attachment> uploadTransformed(Flux<DataBuffer> content, MediaType mediaType,
+        UploadContext ctx, ResolvedPolicy resolved, @Nullable String sha1) {
+        final var instanceId = resolved.instanceId();
+        return imageTransformer.transform(content, resolved.properties(),
+                clientRegistry.getBlockingScheduler(instanceId), transformed ->
+                metrics.timeUpload(instanceId,
+                        upload(transformed.content(), mediaType, ctx, resolved, true))
+                    .map(resp -> {
+                        final var attachment = buildAttachment(resp, instanceId, sha1);
+                        final var annotations = attachment.getMetadata().getAnnotations();
+                        annotations.put(ORIGINAL_SIZE, String.valueOf(transformed.originalSize()));
+                        annotations.put(TRANSFORMED_SIZE, String.valueOf(transformed.finalSize()));
+                        return attachment;
+                    }))
+            .onErrorMap(LskyProAttachmentHandler::handleError);
     }
 
     @Override
     public Mono<Attachment> delete(DeleteContext deleteContext) {
         return Mono.just(deleteContext)
-            .filter((ctx) -> shouldHandle(ctx.policy(), null))
+            .filter((ctx) -> shouldHandle(ctx.policy()))
             .flatMap((ctx) -> {
                 final var key = getImageKey(ctx.attachment());
                 if (key.isEmpty()) {
@@ -69,8 +235,8 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
                     return Mono.just(ctx);
                 }
 
-                final var properties = getProperties(ctx.configMap());
-                final var instanceId = getInstanceId(properties, ctx.policy());
+                final var resolved = policyCache.resolve(ctx.configMap(), ctx.policy());
+                final var instanceId = resolved.instanceId();
                 final var imageInstanceId = getInstanceId(ctx.attachment());
                 if (imageInstanceId.isEmpty() || !imageInstanceId.get().equals(instanceId)) {
                     log.warn(
@@ -79,10 +245,24 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
                     return Mono.just(ctx);
                 }
 
-                return delete(key.get(), properties)
-                    .then(Mono.just(ctx))
-                    .doOnSuccess(v -> log.debug("Attachment {} deleted from LskyPro.",
-                        ctx.attachment().getMetadata().getName()));
+                return deduplicator.release(instanceId, ctx.attachment())
+                    .flatMap(stillReferenced -> {
+                        if (stillReferenced) {
+                            log.debug("Image of attachment {} is still referenced, "
+                                + "skip deleting from LskyPro.", ctx.attachment().getMetadata()
+                                .getName());
+                            return Mono.just(ctx);
+                        }
+                        if (resolved.properties().isAsyncDeleteEnabled()) {
+                            return deleteQueue.enqueue(key.get(), instanceId, ctx.policy())
+                                .thenReturn(ctx);
+                        }
+                        return metrics.timeDelete(instanceId,
+                                delete(key.get(), ctx.configMap(), resolved))
+                            .then(Mono.just(ctx))
+                            .doOnSuccess(v -> log.debug("Attachment {} deleted from LskyPro.",
+                                ctx.attachment().getMetadata().getName()));
+                    });
             })
             .onErrorMap(LskyProAttachmentHandler::handleError)
             .map(DeleteContext::attachment);
@@ -91,48 +271,121 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
     @Override
     public Mono<URI> getSharedURL(Attachment attachment, Policy policy, ConfigMap configMap,
         Duration ttl) {
-        return getPermalink(attachment, policy, configMap);
+        if (!shouldHandle(policy)) {
+            return Mono.empty();
+        }
+
+        final var urlRewriter = policyCache.resolve(configMap, policy).urlRewriter();
+        return Mono.justOrEmpty(getLink(attachment).map(link -> urlRewriter.share(link, ttl)));
     }
 
     @Override
     public Mono<URI> getPermalink(Attachment attachment, Policy policy, ConfigMap configMap) {
-        if (!shouldHandle(policy, null)) {
+        if (!shouldHandle(policy)) {
             return Mono.empty();
         }
 
-        return Optional.ofNullable(attachment.getStatus())
-            .map(Attachment.AttachmentStatus::getPermalink)
-            .or(() -> getImageLink(attachment))
-            .map(s -> Mono.just(URI.create(s)))
-            .orElseGet(Mono::empty);
+        final var urlRewriter = policyCache.resolve(configMap, policy).urlRewriter();
+        return Mono.justOrEmpty(getLink(attachment).map(urlRewriter::rewrite));
     }
 
+    /**
+     * Lsky Pro generates only one thumbnail with a predefined (small) size, so it is used as
+     * the smallest thumbnail and larger ones fall back to the original image, unless the policy
+     * lets {@link ThumbnailProxy} render all sizes.
+     * <p>
+     * Attachments uploaded before the thumbnail link was recorded use the original image for
+     * all sizes.
+     */
     @Override
     public Mono<Map<ThumbnailSize, URI>> getThumbnailLinks(Attachment attachment, Policy policy,
         ConfigMap configMap) {
-        return Mono.just(Map.of());
+        if (!shouldHandle(policy)) {
+            return Mono.empty();
+        }
+        final var link = getLink(attachment);
+        if (link.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        final var resolved = policyCache.resolve(configMap, policy);
+        final var links = new EnumMap<ThumbnailSize, URI>(ThumbnailSize.class);
+        if (resolved.properties().isThumbnailProxy()) {
+            for (final var size : ThumbnailSize.values()) {
+                links.put(size, ThumbnailProxy.getLink(attachment.getMetadata().getName(), size));
+            }
+            return Mono.just(links);
+        }
+        final var urlRewriter = resolved.urlRewriter();
+        final var original = urlRewriter.rewrite(link.get());
+        final var thumbnail =
+            getThumbnailLink(attachment).map(urlRewriter::rewrite).orElse(original);
+        for (final var size : ThumbnailSize.values()) {
+            links.put(size, size == ThumbnailSize.S ? thumbnail : original);
+        }
+        return Mono.just(links);
+    }
+
+    Mono<Void> delete(String key, ConfigMap configMap, ResolvedPolicy policy) {
+        return Mono.defer(() -> Mono.just(getClient(configMap, policy)))
+            .flatMap((lskyProClient -> lskyProClient.delete(key)))
+            // already removed in Lsky Pro, e.g. a dangling attachment found by reconciliation
+            .onErrorResume(LskyProException.class, e -> e.statusCode.value() == 404
+                ? Mono.empty() : Mono.error(e));
+    }
+
+    /**
+     * Upload once the bulkhead of the instance admits it.
+     * <p>
+     * Uploads that would fail for sure are rejected right away if the {@link LskyProCatalog} of
+     * the instance is cached, e.g. a strategy that no longer exists or a full account.
+     *
+     * @param replayable Whether {@code content} can be subscribed more than once.
+     */
+    Mono<UploadResponse> upload(Flux<DataBuffer> content, @Nullable MediaType mediaType,
+        UploadContext uploadContext, ResolvedPolicy policy, boolean replayable) {
+        final var props = policy.properties();
+        final var countedContent = metrics.countUploadBytes(policy.instanceId(), content);
+        return Mono.defer(() -> {
+            final var lskyProClient = getClient(uploadContext.configMap(), policy);
+            final var cached = catalog.peek(lskyProClient);
+            final var problem = cached == null ? null : cached.check(props);
+            if (problem != null) {
+                metrics.uploadRejected("catalog");
+                return Mono.error(new ServerWebInputException(problem));
+            }
+            return clientRegistry.getBulkhead(policy.instanceId()).protect(
+                lskyProClient.upload(countedContent, uploadContext.file().filename(), mediaType,
+                    props.getLskyStrategy(), props.getLskyAlbumId(), replayable));
+        });
     }
 
-    Mono<Void> delete(String key, LskyProProperties properties) {
-        return Mono.defer(() ->
-                Mono.just(new LskyProClient(properties.getLskyUrl(), properties.getLskyToken()))
-            )
-            .flatMap((lskyProClient -> lskyProClient.delete(key)));
+    private RoutingLskyProClient getClient(ConfigMap configMap, ResolvedPolicy policy) {
+        return clientRegistry.getClient(configMap.getMetadata().getName(), policy.properties(),
+            policy.instanceId());
     }
 
-    Mono<UploadResponse> upload(UploadContext uploadContext, LskyProProperties props) {
-        return Mono.defer(() ->
-                Mono.just(new LskyProClient(props.getLskyUrl(), props.getLskyToken()))
-            )
-            .flatMap((lskyProClient ->
-                lskyProClient.upload(uploadContext.file().content(),
-                    uploadContext.file().filename(), null, props.getLskyStrategy(),
-                    props.getLskyAlbumId())
-            ));
+    /**
+     * Get the link of the original image, as returned by Lsky Pro.
+     * <p>
+     * The annotation is preferred over {@code status.permalink}, since Halo stores the result of
+     * {@link #getPermalink} there, which may already be rewritten to the CDN.
+     */
+    static Optional<String> getLink(Attachment attachment) {
+        return getImageLink(attachment)
+            .or(() -> Optional.ofNullable(attachment.getStatus())
+                .map(Attachment.AttachmentStatus::getPermalink));
     }
 
-    Optional<String> getImageLink(Attachment attachment) {
-        return Optional.ofNullable(attachment.getMetadata().getAnnotations().get(IMAGE_LINK));
+    Optional<String> getThumbnailLink(Attachment attachment) {
+        return Optional.ofNullable(attachment.getMetadata().getAnnotations())
+            .map(annotations -> annotations.get(THUMBNAIL_LINK))
+            .filter(StringUtils::hasText);
+    }
+
+    static Optional<String> getImageLink(Attachment attachment) {
+        return Optional.ofNullable(attachment.getMetadata().getAnnotations())
+            .map(annotations -> annotations.get(IMAGE_LINK))
+            .filter(StringUtils::hasText);
     }
 
     Optional<String> getImageKey(Attachment attachment) {
@@ -143,7 +396,8 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
         return Optional.ofNullable(attachment.getMetadata().getAnnotations().get(INSTANCE_ID));
     }
 
-    private @Nullable MediaType getUploadedImageMediaType(final UploadResponse uploadResponse) {
+    @Nullable
+    MediaType getUploadedImageMediaType(final UploadResponse uploadResponse) {
         // The lsky pro returns media type of the raw uploaded file, which may different from the
         // persistent one after image processing.
         // So, try to infer the real type from file name. e.g. a.png -> image/png
@@ -173,7 +427,11 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
         return inferredMediaType != null ? inferredMediaType : returnedMediaType;
     }
 
-    Attachment buildAttachment(UploadResponse uploadResponse, @Nonnull String instanceId) {
+    /**
+     * @param sha1 SHA-1 of the uploaded content. {@code null} if deduplication is disabled.
+     */
+    Attachment buildAttachment(UploadResponse uploadResponse, @Nonnull String instanceId,
+        @Nullable String sha1) {
         Assert.hasText(instanceId, "instanceId cannot be empty");
         Assert.notNull(uploadResponse.links(), "links cannot be null");
         Assert.hasText(uploadResponse.links().url(), "url cannot be empty");
@@ -185,15 +443,23 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
 
         final var metadata = new Metadata();
         metadata.setGenerateName(UUID.randomUUID().toString());
-        metadata.setAnnotations(Map.of(
-            IMAGE_KEY, uploadResponse.key(),
-            IMAGE_LINK, url,
-            INSTANCE_ID, instanceId
-        ));
+        final var annotations = new HashMap<String, String>();
+        annotations.put(IMAGE_KEY, uploadResponse.key());
+        annotations.put(IMAGE_LINK, url);
+        annotations.put(INSTANCE_ID, instanceId);
+        if (StringUtils.hasText(uploadResponse.links().thumbnailUrl())) {
+            annotations.put(THUMBNAIL_LINK, uploadResponse.links().thumbnailUrl());
+        }
+        if (sha1 != null) {
+            annotations.put(IMAGE_SHA1, sha1);
+            // labels are indexed, so that references can be looked up without a full scan
+            metadata.setLabels(new HashMap<>(Map.of(IMAGE_SHA1, sha1)));
+        }
+        metadata.setAnnotations(annotations);
 
         var spec = new Attachment.AttachmentSpec();
         // Due to the limitations of LskyPro, it is the original size rather than the actual size
-        // after image processing.
+        // after image processing. AttachmentEnricher corrects it later.
         spec.setSize((long) (uploadResponse.size() * 1024L));
         spec.setDisplayName(displayName);
         if (mediaType != null) {
@@ -212,7 +478,20 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
     }
 
     static Throwable handleError(Throwable t) {
-        if (t instanceof LskyProException e) {
+        if (t instanceof CircuitOpenException e) {
+            return new ServerWebInputException(
+                "Lsky Pro instance %s is temporarily unavailable due to repeated failures, "
+                    .formatted(e.instanceId)
+                    + "please retry after %d seconds.".formatted(
+                    Math.max(1, e.retryAfter.toSeconds())));
+        } else if (t instanceof BulkheadFullException e) {
+            return new ServerWebInputException(
+                "Too many uploads to Lsky Pro instance %s at once, please retry later.".formatted(
+                    e.instanceId));
+        } else if (t instanceof RateLimitedException) {
+            return new ServerWebInputException(
+                "Too many requests to Lsky Pro, please retry later.");
+        } else if (t instanceof LskyProException e) {
             if (e.statusCode.value() == 401) {
                 return new ServerWebInputException(
                     "Lsky Pro authentication failed, please check your API token.");
@@ -234,34 +513,18 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
 
     /**
      * Whether the current request should be handled by this plugin.
+     * <p>
+     * Whether an uploaded file is an image is decided later from its content, see
+     * {@link ImageSniffer}.
      */
-    boolean shouldHandle(Policy policy, @Nullable FilePart filePart) {
+    boolean shouldHandle(Policy policy) {
         // check policy
         if (policy == null || policy.getSpec() == null ||
             policy.getSpec().getTemplateName() == null) {
             return false;
         }
         String templateName = policy.getSpec().getTemplateName();
-        if (!"chenhe-lsky-pro".equals(templateName)) {
-            return false;
-        }
-
-        // check media type
-        if (filePart == null) {
-            // not an upload request, no need to check the media type
-            return true;
-        }
-        final var mediaType = MediaTypeFactory.getMediaType(filePart.filename());
-        if (mediaType.isEmpty()) {
-            log.warn("Ignore attachment request {} due to empty media type", filePart.filename());
-            return false;
-        }
-        if (!"image".equals(mediaType.get().getType())) {
-            log.warn("Ignore attachment request {} due to non-image media type: {}",
-                filePart.filename(), mediaType.get());
-            return false;
-        }
-        return true;
+        return "chenhe-lsky-pro".equals(templateName);
     }
 
     /**
@@ -276,7 +539,7 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
      * @return Non-empty instance id of current policy.
      */
     @Nonnull
-    String getInstanceId(LskyProProperties properties, Policy policy) {
+    static String getInstanceId(LskyProProperties properties, Policy policy) {
         if (StringUtils.hasText(properties.getInstanceId())) {
             return properties.getInstanceId();
         }
@@ -295,8 +558,37 @@ public class LskyProAttachmentHandler implements AttachmentHandler {
         }
     }
 
-    LskyProProperties getProperties(ConfigMap configMap) {
+    static LskyProProperties getProperties(ConfigMap configMap) {
         var settingJson = configMap.getData().getOrDefault("default", "{}");
-        return JsonUtils.jsonToObject(settingJson, LskyProProperties.class);
+        return checkProperties(JsonUtils.jsonToObject(settingJson, LskyProProperties.class));
+    }
+
+    /**
+     * Reject settings that no client can be created for, i.e. without a valid server URL.
+     *
+     * @return The given properties.
+     */
+    static LskyProProperties checkProperties(LskyProProperties properties) {
+        final var urls = properties.getEndpointUrls();
+        if (properties.getLskyUrl() == null || urls.isEmpty()) {
+            throw new ServerWebInputException(
+                "The Lsky Pro URL is missing in the policy configuration.");
+        }
+        for (final var url : urls) {
+            final URI uri;
+            try {
+                uri = new URI(url);
+            } catch (URISyntaxException e) {
+                throw new ServerWebInputException(
+                    "Invalid Lsky Pro URL in the policy configuration: " + url);
+            }
+            if (uri.getHost() == null || !("http".equalsIgnoreCase(uri.getScheme())
+                || "https".equalsIgnoreCase(uri.getScheme()))) {
+                throw new ServerWebInputException(
+                    "Invalid Lsky Pro URL in the policy configuration, "
+                        + "an http(s) URL is expected: " + url);
+            }
+        }
+        return properties;
     }
 }
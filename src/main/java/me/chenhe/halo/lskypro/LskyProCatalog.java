@@ -0,0 +1,176 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.client.Album;
+import me.chenhe.halo.lskypro.client.LskyProException;
+import me.chenhe.halo.lskypro.client.Profile;
+import me.chenhe.halo.lskypro.client.RoutingLskyProClient;
+import me.chenhe.halo.lskypro.client.Strategy;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Strategies, albums and quota of Lsky Pro accounts, cached for a few minutes per client.
+ * <p>
+ * Clients are shared by all policies with the same settings, see
+ * {@link LskyProClientRegistry}, so a changed URL or token gets a new entry. Concurrent requests
+ * for a missing or expired entry share one refresh, and failures are cached briefly so that an
+ * unreachable server is not asked again and again.
+ */
+@Slf4j
+@Component
+public class LskyProCatalog {
+
+    static final Duration TTL = Duration.ofMinutes(5);
+    static final Duration ERROR_TTL = Duration.ofSeconds(30);
+    static final int MAX_ENTRIES = 64;
+
+    /**
+     * Albums beyond this many pages are not listed.
+     */
+    static final int MAX_ALBUM_PAGES = 20;
+
+    private final Map<RoutingLskyProClient, Entry> entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RoutingLskyProClient, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    /**
+     * Get the catalog of the account behind the given client, loading it if not cached.
+     */
+    public Mono<Catalog> get(RoutingLskyProClient client) {
+        return getEntry(client).catalog();
+    }
+
+    /**
+     * The cached catalog without any remote call, or {@code null} if absent or expired, in which
+     * case a refresh is started in the background.
+     */
+    public @Nullable Catalog peek(RoutingLskyProClient client) {
+        final var entry = getEntry(client);
+        final var latest = entry.latest;
+        if (latest != null && latest.fetchedAt().plus(TTL).isAfter(Instant.now())) {
+            return latest;
+        }
+        entry.catalog().subscribe(c -> {
+        }, e -> log.debug("Failed to refresh LskyPro catalog: {}", e.getMessage()));
+        return null;
+    }
+
+    /**
+     * Load the catalog without caching it, e.g. for settings not saved yet.
+     * <p>
+     * Without a token, albums and the profile are unknown, and strategies are only listed if the
+     * server shows them to guests.
+     */
+    public Mono<Catalog> load(RoutingLskyProClient client) {
+        if (!client.hasToken()) {
+            return client.listStrategies()
+                .onErrorResume(LskyProCatalog::isUnauthorized, e -> Mono.just(List.of()))
+                .map(strategies -> new Catalog(strategies, List.of(), false, null,
+                    Instant.now()));
+        }
+        return Mono.zip(client.listStrategies(), loadAlbums(client), client.getProfile())
+            .map(t -> {
+                final var pages = t.getT2();
+                final var albums = pages.stream()
+                    .flatMap(page -> page.data() == null
+                        ? Stream.<Album>empty() : page.data().stream())
+                    .toList();
+                final var albumsComplete =
+                    !pages.isEmpty() && !pages.get(pages.size() - 1).hasNext();
+                return new Catalog(t.getT1(), albums, albumsComplete, t.getT3(), Instant.now());
+            });
+    }
+
+    private Mono<List<Album.Page>> loadAlbums(RoutingLskyProClient client) {
+        return client.listAlbums(1)
+            .expand(page -> page.hasNext() && page.current_page() < MAX_ALBUM_PAGES
+                ? client.listAlbums(page.current_page() + 1) : Mono.empty())
+            .collectList()
+            // albums are not available in every edition, they are just unknown then
+            .onErrorResume(e -> e instanceof LskyProException lskyProException
+                && lskyProException.statusCode.value() == 404, e -> Mono.just(List.of()));
+    }
+
+    private static boolean isUnauthorized(Throwable e) {
+        return e instanceof LskyProException lskyProException
+            && (lskyProException.statusCode.value() == 401
+            || lskyProException.statusCode.value() == 403);
+    }
+
+    private Entry getEntry(RoutingLskyProClient client) {
+        synchronized (entries) {
+            return entries.computeIfAbsent(client, Entry::new);
+        }
+    }
+
+    private final class Entry {
+        private final Mono<Catalog> catalog;
+        private volatile @Nullable Catalog latest;
+
+        Entry(RoutingLskyProClient client) {
+            this.catalog = load(client)
+                .doOnNext(loaded -> latest = loaded)
+                .cache(loaded -> TTL, e -> ERROR_TTL, () -> Duration.ZERO);
+        }
+
+        Mono<Catalog> catalog() {
+            return catalog;
+        }
+    }
+
+    /**
+     * @param albums         Albums of the user, at most {@link #MAX_ALBUM_PAGES} pages.
+     * @param albumsComplete Whether {@code albums} are all albums of the user.
+     * @param profile        {@code null} without a token.
+     */
+    public record Catalog(List<Strategy> strategies, List<Album> albums, boolean albumsComplete,
+                          @Nullable Profile profile, Instant fetchedAt) {
+
+        public boolean hasStrategy(int id) {
+            return strategies.stream().anyMatch(s -> s.id() == id);
+        }
+
+        public boolean hasAlbum(int id) {
+            return albums.stream().anyMatch(a -> a.id() == id);
+        }
+
+        /**
+         * Check the strategy and album of the given settings, and that the account has capacity
+         * left.
+         *
+         * @return Why uploads would fail, {@code null} if they should not.
+         */
+        public @Nullable String check(LskyProProperties properties) {
+            final var strategy = properties.getLskyStrategy();
+            if (strategy != null && !strategies.isEmpty() && !hasStrategy(strategy)) {
+                return "Strategy %d does not exist in Lsky Pro, available: %s.".formatted(
+                    strategy, strategies.stream()
+                        .map(s -> s.id() + " (" + s.name() + ")")
+                        .collect(Collectors.joining(", ")));
+            }
+            final var album = properties.getLskyAlbumId();
+            // albums beyond the listed pages are unknown rather than missing
+            if (album != null && albumsComplete && !hasAlbum(album)) {
+                return "Album %d does not exist in Lsky Pro.".formatted(album);
+            }
+            if (profile != null && profile.capacity() > 0 && profile.remainingCapacity() <= 0) {
+                return "The storage capacity of Lsky Pro account %s is used up.".formatted(
+                    profile.name());
+            }
+            return null;
+        }
+    }
+}
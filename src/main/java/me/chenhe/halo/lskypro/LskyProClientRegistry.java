@@ -0,0 +1,280 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.LskyProProperties.UploadScheduler;
+import me.chenhe.halo.lskypro.client.Bulkhead;
+import me.chenhe.halo.lskypro.client.CircuitBreaker;
+import me.chenhe.halo.lskypro.client.EndpointStats;
+import me.chenhe.halo.lskypro.client.LskyProClient;
+import me.chenhe.halo.lskypro.client.LskyProTransport;
+import me.chenhe.halo.lskypro.client.RateLimiter;
+import me.chenhe.halo.lskypro.client.RetryOptions;
+import me.chenhe.halo.lskypro.client.RoutingLskyProClient;
+import me.chenhe.halo.lskypro.client.TransportOptions;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Holds one {@link RoutingLskyProClient} per Lsky Pro instance (servers + token). Clients with
+ * the same transport settings share a keep-alive connection pool.
+ * <p>
+ * Clients are bound to the name of the policy {@link run.halo.app.extension.ConfigMap} they were
+ * created for, so that they can be evicted once the ConfigMap changes or is deleted.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LskyProClientRegistry {
+
+    static final int DEFAULT_MAX_RETRIES = 2;
+    static final Duration DEFAULT_RETRY_BACKOFF = Duration.ofMillis(500);
+    static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    static final Duration CIRCUIT_OPEN_DURATION = Duration.ofSeconds(30);
+    static final Duration DEFAULT_RATE_LIMIT_MAX_WAIT = Duration.ofSeconds(10);
+    static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 8;
+    static final int DEFAULT_UPLOAD_QUEUE_SIZE = 32;
+    static final Duration DEFAULT_UPLOAD_QUEUE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final LskyProMetrics metrics;
+
+    private final Map<ClientKey, RoutingLskyProClient> clients = new ConcurrentHashMap<>();
+
+    /**
+     * Transport settings -> connection pool, shared by all clients with the same settings. Kept
+     * until the plugin stops since closing a pool would abort requests still using it, idle
+     * connections are evicted anyway.
+     */
+    private final Map<TransportOptions, LskyProTransport> transports = new ConcurrentHashMap<>();
+
+    /**
+     * Circuit breaker name -> circuit breaker. Kept across client evictions, since the health of
+     * an instance has nothing to do with policy changes. The name is the instance ID, suffixed
+     * with the endpoint URL if the instance has mirrors.
+     */
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Endpoint URL -> recent latency and error rate, kept across client evictions as well.
+     */
+    private final Map<String, EndpointStats> endpointStats = new ConcurrentHashMap<>();
+
+    /**
+     * Instance ID -> rate limiter, shared by all endpoints of the instance. Reconfigured in place
+     * when the policy changes.
+     */
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Instance ID -> upload bulkhead, reconfigured in place like the rate limiter.
+     */
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Instance ID -> scheduler for the blocking steps of uploads. Absent if the instance uses
+     * the shared {@link Schedulers#boundedElastic()}.
+     */
+    private final Map<String, InstanceScheduler> schedulers = new ConcurrentHashMap<>();
+
+    /**
+     * ConfigMap name -> the key of client it currently uses.
+     */
+    private final Map<String, ClientKey> bindings = new ConcurrentHashMap<>();
+
+    /**
+     * Get a client for the given policy settings, reusing an existing one if possible.
+     *
+     * @param configMapName The name of policy ConfigMap that the properties come from.
+     *                      {@code null} if the properties are not persisted (e.g. validation),
+     *                      in which case the client still shares the connection pool but is not
+     *                      cached.
+     * @param instanceId    The instance ID of the policy. {@code null} to disable circuit
+     *                      breaker and rate limiter.
+     */
+    public RoutingLskyProClient getClient(@Nullable String configMapName,
+        LskyProProperties properties, @Nullable String instanceId) {
+        if (instanceId != null) {
+            configureRateLimiter(instanceId, properties);
+            configureBulkhead(instanceId, properties);
+            configureScheduler(instanceId, properties);
+        }
+        final var key = new ClientKey(properties.getEndpointUrls(), properties.getLskyToken(),
+            instanceId, getRetryOptions(properties), properties.getTransportOptions());
+        if (configMapName == null) {
+            return createClient(key);
+        }
+        final var previous = bindings.put(configMapName, key);
+        if (previous != null && !previous.equals(key)) {
+            removeIfUnbound(previous);
+        }
+        return clients.computeIfAbsent(key, this::createClient);
+    }
+
+    /**
+     * Drop the client used by the given policy ConfigMap, if no other policy shares it.
+     */
+    public void evict(String configMapName) {
+        final var key = bindings.remove(configMapName);
+        if (key != null) {
+            removeIfUnbound(key);
+            log.debug("Evicted LskyPro client for ConfigMap {}", configMapName);
+        }
+    }
+
+    /**
+     * Release all clients and close all connection pools.
+     */
+    public void dispose() {
+        bindings.clear();
+        clients.clear();
+        schedulers.values().forEach(s -> s.scheduler().dispose());
+        schedulers.clear();
+        transports.values().forEach(transport -> transport.dispose()
+            .doOnSuccess(v -> log.debug("LskyPro connection pool disposed"))
+            .subscribe());
+        transports.clear();
+    }
+
+    private void removeIfUnbound(ClientKey key) {
+        if (!bindings.containsValue(key)) {
+            clients.remove(key);
+        }
+    }
+
+    /**
+     * Get the circuit breaker of the given name, creating one if absent.
+     */
+    public CircuitBreaker getCircuitBreaker(String name) {
+        return circuitBreakers.computeIfAbsent(name, id ->
+            new CircuitBreaker(id, CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_DURATION));
+    }
+
+    /**
+     * Get the upload bulkhead of the given instance, creating one if absent. It is configured
+     * by {@link #getClient}.
+     */
+    public Bulkhead getBulkhead(String instanceId) {
+        return bulkheads.computeIfAbsent(instanceId, id -> {
+            final var bulkhead = new Bulkhead(id);
+            metrics.bindBulkhead(id, bulkhead);
+            return bulkhead;
+        });
+    }
+
+    public Map<String, Bulkhead.Status> getBulkheadStatus() {
+        final var status = new TreeMap<String, Bulkhead.Status>();
+        bulkheads.forEach((id, bulkhead) -> status.put(id, bulkhead.getStatus()));
+        return status;
+    }
+
+    /**
+     * The scheduler to run blocking steps of uploads to the given instance on, e.g. writing
+     * temporary files or decoding images.
+     */
+    public Scheduler getBlockingScheduler(String instanceId) {
+        final var scheduler = schedulers.get(instanceId);
+        return scheduler == null ? Schedulers.boundedElastic() : scheduler.scheduler();
+    }
+
+    private void configureBulkhead(String instanceId, LskyProProperties properties) {
+        final var queueTimeout = properties.getUploadQueueTimeoutSeconds() == null
+            ? DEFAULT_UPLOAD_QUEUE_TIMEOUT
+            : Duration.ofSeconds(Math.max(0, properties.getUploadQueueTimeoutSeconds()));
+        getBulkhead(instanceId).configure(getMaxConcurrentUploads(properties),
+            Objects.requireNonNullElse(properties.getUploadQueueSize(),
+                DEFAULT_UPLOAD_QUEUE_SIZE),
+            queueTimeout);
+    }
+
+    private void configureScheduler(String instanceId, LskyProProperties properties) {
+        final var mode = Objects.requireNonNullElse(properties.getUploadScheduler(),
+            UploadScheduler.SHARED);
+        final var threads = getMaxConcurrentUploads(properties);
+        schedulers.compute(instanceId, (id, current) -> {
+            if (current != null && current.mode() == mode && current.threads() == threads) {
+                return current;
+            }
+            if (current != null) {
+                // let uploads running on it finish
+                current.scheduler().disposeGracefully().subscribe();
+            }
+            return switch (mode) {
+                case SHARED -> null;
+                case DEDICATED -> new InstanceScheduler(mode, threads,
+                    Schedulers.newBoundedElastic(threads, Integer.MAX_VALUE, "lsky-pro-" + id));
+                case VIRTUAL -> new InstanceScheduler(mode, threads,
+                    Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(),
+                        "lsky-pro-virtual-" + id));
+            };
+        });
+    }
+
+    private static int getMaxConcurrentUploads(LskyProProperties properties) {
+        return properties.getMaxConcurrentUploads() == null
+            ? DEFAULT_MAX_CONCURRENT_UPLOADS : Math.max(1, properties.getMaxConcurrentUploads());
+    }
+
+    private void configureRateLimiter(String instanceId, LskyProProperties properties) {
+        final var maxWait = properties.getRateLimitMaxWaitSeconds() == null
+            ? DEFAULT_RATE_LIMIT_MAX_WAIT
+            : Duration.ofSeconds(Math.max(0, properties.getRateLimitMaxWaitSeconds()));
+        rateLimiters.computeIfAbsent(instanceId, RateLimiter::new).configure(
+            Objects.requireNonNullElse(properties.getRateLimitPerMinute(), 0),
+            Objects.requireNonNullElse(properties.getRateLimitBurst(), 0),
+            maxWait);
+    }
+
+    private RoutingLskyProClient createClient(ClientKey key) {
+        return new RoutingLskyProClient(key.urls().stream()
+            .map(url -> new RoutingLskyProClient.Endpoint(url, createEndpointClient(key, url),
+                endpointStats.computeIfAbsent(url, u -> new EndpointStats())))
+            .toList());
+    }
+
+    private LskyProClient createEndpointClient(ClientKey key, String url) {
+        final var connector = transports.computeIfAbsent(key.transport(),
+            options -> LskyProTransport.create("lsky-pro-" + transports.size(), options))
+            .connector();
+        final var instanceId = key.instanceId();
+        if (instanceId == null) {
+            return new LskyProClient(url, key.token(), connector, key.retryOptions(), null,
+                null, builder -> builder.filter(metrics.clientFilter("none")));
+        }
+        // each mirror has its own circuit, so that an unhealthy one can be failed over
+        final var circuitName = key.urls().size() == 1 ? instanceId : instanceId + "@" + url;
+        return new LskyProClient(url, key.token(), connector, key.retryOptions(),
+            getCircuitBreaker(circuitName), rateLimiters.computeIfAbsent(instanceId,
+            RateLimiter::new), builder -> builder.filter(metrics.clientFilter(instanceId)));
+    }
+
+    static RetryOptions getRetryOptions(LskyProProperties properties) {
+        final var maxRetries = properties.getMaxRetries() == null
+            ? DEFAULT_MAX_RETRIES : Math.max(0, properties.getMaxRetries());
+        final var backoff = properties.getRetryBackoffMillis() == null
+            ? DEFAULT_RETRY_BACKOFF
+            : Duration.ofMillis(Math.max(0, properties.getRetryBackoffMillis()));
+        return new RetryOptions(maxRetries, backoff);
+    }
+
+    private record InstanceScheduler(UploadScheduler mode, int threads, Scheduler scheduler) {
+    }
+
+    private record ClientKey(List<String> urls, @Nullable String token,
+                             @Nullable String instanceId, RetryOptions retryOptions,
+                             TransportOptions transport) {
+        ClientKey {
+            // checked when the policy configuration is resolved
+            Assert.notEmpty(urls, "Lsky Pro URL of the policy configuration is missing");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package me.chenhe.halo.lskypro;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import me.chenhe.halo.lskypro.client.Bulkhead;
+import me.chenhe.halo.lskypro.client.BulkheadFullException;
+import me.chenhe.halo.lskypro.client.LskyProException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Micrometer instrumentation of this plugin.
+ * <p>
+ * Meters are registered with the host's {@link MeterRegistry} if it is visible to the plugin,
+ * otherwise with the global registry which Spring Boot feeds into the host registry by default.
+ */
+@Component
+public class LskyProMetrics {
+
+    static final String PREFIX = "lskypro.";
+    static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+
+    private final MeterRegistry registry;
+
+    /**
+     * The monitored components are looked up lazily, since they in turn record metrics here.
+     */
+    public LskyProMetrics(ObjectProvider<MeterRegistry> registryProvider,
+        ObjectProvider<PolicyPropertiesCache> policyCache,
+        ObjectProvider<AsyncDeleteQueue> deleteQueue) {
+        this.registry = registryProvider.getIfAvailable(() -> Metrics.globalRegistry);
+
+        FunctionCounter.builder(PREFIX + "policy.cache", policyCache,
+                c -> c.getObject().getHits())
+            .tag("result", "hit")
+            .register(registry);
+        FunctionCounter.builder(PREFIX + "policy.cache", policyCache,
+                c -> c.getObject().getMisses())
+            .tag("result", "miss")
+            .register(registry);
+        Gauge.builder(PREFIX + "delete.queue.pending", deleteQueue,
+                q -> q.getObject().getStatus().pending())
+            .description("Number of images waiting to be deleted asynchronously")
+            .register(registry);
+        FunctionCounter.builder(PREFIX + "delete.queue.deleted", deleteQueue,
+                q -> q.getObject().getStatus().deleted())
+            .register(registry);
+        FunctionCounter.builder(PREFIX + "delete.queue.failures", deleteQueue,
+                q -> q.getObject().getStatus().failedAttempts())
+            .register(registry);
+    }
+
+    /**
+     * Remove all meters of this plugin from the registry.
+     */
+    public void dispose() {
+        registry.getMeters().stream()
+            .filter(meter -> meter.getId().getName().startsWith(PREFIX))
+            .toList()
+            .forEach(registry::remove);
+    }
+
+    /**
+     * Record the latency and outcome of an upload handled by the attachment handler.
+     */
+    public <T> Mono<T> timeUpload(String instanceId, Mono<T> upload) {
+        return time(PREFIX + "upload", instanceId, upload);
+    }
+
+    /**
+     * Record the latency and outcome of a delete handled by the attachment handler.
+     */
+    public <T> Mono<T> timeDelete(String instanceId, Mono<T> delete) {
+        return time(PREFIX + "delete", instanceId, delete);
+    }
+
+    public <T> Mono<T> timeValidation(Mono<T> validation) {
+        return time(PREFIX + "validation", "none", validation);
+    }
+
+    /**
+     * Count the bytes of the given content as it is streamed.
+     */
+    public Flux<DataBuffer> countUploadBytes(String instanceId, Flux<DataBuffer> content) {
+        return Flux.defer(() -> {
+            final var bytes = new AtomicLong();
+            return content
+                .doOnNext(buffer -> bytes.addAndGet(buffer.readableByteCount()))
+                .doOnComplete(() -> DistributionSummary.builder(PREFIX + "upload.size")
+                    .baseUnit("bytes")
+                    .tag("instance", instanceId)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry)
+                    .record(bytes.get()));
+        });
+    }
+
+    /**
+     * An upload request rejected before being sent to Lsky Pro.
+     */
+    public void uploadRejected(String reason) {
+        registry.counter(PREFIX + "upload.rejected", "reason", reason).increment();
+    }
+
+    /**
+     * Expose the occupancy, wait time and rejections of the upload bulkhead of an instance.
+     */
+    public void bindBulkhead(String instanceId, Bulkhead bulkhead) {
+        Gauge.builder(PREFIX + "upload.bulkhead.active", bulkhead, Bulkhead::getActive)
+            .tag("instance", instanceId)
+            .description("Number of uploads in flight")
+            .register(registry);
+        Gauge.builder(PREFIX + "upload.bulkhead.queued", bulkhead, Bulkhead::getQueued)
+            .tag("instance", instanceId)
+            .description("Number of uploads waiting for a slot")
+            .register(registry);
+        FunctionTimer.builder(PREFIX + "upload.bulkhead.wait", bulkhead,
+                Bulkhead::getAdmitted, Bulkhead::getWaitSeconds, TimeUnit.SECONDS)
+            .tag("instance", instanceId)
+            .description("Time uploads waited for a slot")
+            .register(registry);
+        FunctionCounter.builder(PREFIX + "upload.bulkhead.rejected", bulkhead,
+                Bulkhead::getRejectedFull)
+            .tag("instance", instanceId)
+            .tag("reason", "full")
+            .register(registry);
+        FunctionCounter.builder(PREFIX + "upload.bulkhead.rejected", bulkhead,
+                Bulkhead::getRejectedTimeout)
+            .tag("instance", instanceId)
+            .tag("reason", "timeout")
+            .register(registry);
+    }
+
+    /**
+     * A filter recording every HTTP request sent to the given instance, tagged by response
+     * status.
+     */
+    public ExchangeFilterFunction clientFilter(String instanceId) {
+        return (request, next) -> Mono.defer(() -> {
+            final var sample = Timer.start(registry);
+            final var method = request.method().name();
+            return next.exchange(request)
+                .doOnNext(resp -> sample.stop(clientTimer(instanceId, method,
+                    String.valueOf(resp.statusCode().value()))))
+                .doOnError(e -> sample.stop(clientTimer(instanceId, method, "IO_ERROR")));
+        });
+    }
+
+    private Timer clientTimer(String instanceId, String method, String status) {
+        return Timer.builder(PREFIX + "client.requests")
+            .tag("instance", instanceId)
+            .tag("method", method)
+            .tag("status", status)
+            .publishPercentiles(PERCENTILES)
+            .register(registry);
+    }
+
+    private <T> Mono<T> time(String name, String instanceId, Mono<T> source) {
+        return Mono.defer(() -> {
+            final var sample = Timer.start(registry);
+            return source
+                .doOnSuccess(v -> sample.stop(timer(name, instanceId, "success")))
+                .doOnError(e -> sample.stop(timer(name, instanceId, getOutcome(e))))
+                .doOnCancel(() -> sample.stop(timer(name, instanceId, "cancelled")));
+        });
+    }
+
+    private Timer timer(String name, String instanceId, String outcome) {
+        return Timer.builder(name)
+            .tag("instance", instanceId)
+            .tag("outcome", outcome)
+            .publishPercentiles(PERCENTILES)
+            .register(registry);
+    }
+
+    /**
+     * Group errors by their cause, e.g. {@code 401}, {@code 5xx}.
+     */
+    static String getOutcome(Throwable t) {
+        var cause = t;
+        while (cause != null) {
+            if (cause instanceof BulkheadFullException) {
+                return "bulkhead";
+            }
+            if (cause instanceof LskyProException e) {
+                final var status = e.statusCode.value();
+                return status >= 500 ? "5xx" : String.valueOf(status);
+            }
+            cause = cause.getCause();
+        }
+        return "error";
+    }
+}
@@ -1,21 +1,65 @@
 package me.chenhe.halo.lskypro;
 
+import me.chenhe.halo.lskypro.extension.Migration;
+import me.chenhe.halo.lskypro.extension.PendingDelete;
+import me.chenhe.halo.lskypro.extension.Reconciliation;
 import org.springframework.stereotype.Component;
+import run.halo.app.extension.SchemeManager;
 import run.halo.app.plugin.BasePlugin;
 import run.halo.app.plugin.PluginContext;
 
 @Component
 public class LskyProPlugin extends BasePlugin {
 
-    public LskyProPlugin(PluginContext pluginContext) {
+    private final SchemeManager schemeManager;
+    private final LskyProClientRegistry clientRegistry;
+    private final AsyncDeleteQueue deleteQueue;
+    private final AttachmentMigrator migrator;
+    private final OrphanReconciler reconciler;
+    private final ThumbnailProxy thumbnailProxy;
+    private final HealthProber healthProber;
+    private final LskyProMetrics metrics;
+    private final ImageDownloader downloader;
+
+    public LskyProPlugin(PluginContext pluginContext, SchemeManager schemeManager,
+        LskyProClientRegistry clientRegistry, AsyncDeleteQueue deleteQueue,
+        AttachmentMigrator migrator, OrphanReconciler reconciler, ThumbnailProxy thumbnailProxy,
+        HealthProber healthProber, LskyProMetrics metrics, ImageDownloader downloader) {
         super(pluginContext);
+        this.schemeManager = schemeManager;
+        this.clientRegistry = clientRegistry;
+        this.deleteQueue = deleteQueue;
+        this.migrator = migrator;
+        this.reconciler = reconciler;
+        this.thumbnailProxy = thumbnailProxy;
+        this.healthProber = healthProber;
+        this.metrics = metrics;
+        this.downloader = downloader;
     }
 
     @Override
     public void start() {
+        schemeManager.register(PendingDelete.class);
+        schemeManager.register(Migration.class);
+        schemeManager.register(Reconciliation.class);
+        deleteQueue.start();
+        migrator.start();
+        reconciler.start();
+        thumbnailProxy.start();
+        healthProber.start();
     }
 
     @Override
     public void stop() {
+        healthProber.stop();
+        reconciler.stop();
+        migrator.stop();
+        deleteQueue.stop();
+        schemeManager.unregister(schemeManager.get(Reconciliation.class));
+        schemeManager.unregister(schemeManager.get(Migration.class));
+        schemeManager.unregister(schemeManager.get(PendingDelete.class));
+        clientRegistry.dispose();
+        metrics.dispose();
+        downloader.dispose();
     }
 }
@@ -1,7 +1,13 @@
 package me.chenhe.halo.lskypro;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
 import lombok.Data;
+import me.chenhe.halo.lskypro.client.TransportOptions;
 import org.springframework.util.StringUtils;
 
 /**
@@ -17,6 +23,12 @@ public class LskyProProperties {
      */
     private String lskyUrl;
 
+    /**
+     * Mirrors of {@link #lskyUrl} sharing the same storage, one per line. Same format as
+     * {@link #lskyUrl}.
+     */
+    private @Nullable String lskyMirrorUrls;
+
     /**
      * Without leading {@code Bearer}.
      */
@@ -31,21 +43,236 @@ public class LskyProProperties {
      */
     private @Nullable String instanceId;
 
+    /**
+     * Whether to reuse an existing image with the same content instead of uploading again.
+     */
+    private boolean dedupEnabled;
+
+    /**
+     * Whether to delete images from Lsky Pro in the background rather than inline.
+     */
+    private boolean asyncDeleteEnabled;
+
+    /**
+     * Max number of retries of transient failures. {@code null} to use the default.
+     */
+    private @Nullable Integer maxRetries;
+
+    /**
+     * Backoff before the first retry in milliseconds. {@code null} to use the default.
+     */
+    private @Nullable Integer retryBackoffMillis;
+
+    /**
+     * Max number of requests per minute sent to the instance. {@code null} or {@code 0} for
+     * unlimited, the rate limit headers returned by the server are respected anyway.
+     */
+    private @Nullable Integer rateLimitPerMinute;
+
+    /**
+     * Max number of requests sent at once. {@code null} to use {@link #rateLimitPerMinute}.
+     */
+    private @Nullable Integer rateLimitBurst;
+
+    /**
+     * Max seconds a request may wait for the rate limiter before failing.
+     */
+    private @Nullable Integer rateLimitMaxWaitSeconds;
+
+    /**
+     * Whether to downscale or re-encode images before uploading.
+     */
+    private boolean transformEnabled;
+
+    /**
+     * Images wider than this are downscaled. {@code null} for unlimited.
+     */
+    private @Nullable Integer transformMaxWidth;
+
+    /**
+     * Images higher than this are downscaled. {@code null} for unlimited.
+     */
+    private @Nullable Integer transformMaxHeight;
+
+    /**
+     * JPEG quality in {@code [1, 100]}. {@code null} to use the default and not to re-encode
+     * images that need no downscaling.
+     */
+    private @Nullable Integer transformQuality;
+
+    /**
+     * Whether to re-encode JPEG images that need no downscaling, just to strip EXIF.
+     */
+    private boolean stripExif;
+
+    /**
+     * Images smaller than this (in KB) are not re-encoded unless they need downscaling.
+     */
+    private @Nullable Integer transformMinKb;
+
+    /**
+     * Whether to collect uploads before sending them, so that failed uploads can be retried.
+     */
+    private boolean spoolEnabled;
+
+    /**
+     * Uploads larger than this (in KB) are spooled to a temporary file rather than kept in
+     * memory. {@code null} to use the default.
+     */
+    private @Nullable Integer spoolMemoryThresholdKb;
+
+    /**
+     * Max number of uploads in flight to the instance. {@code null} to use the default.
+     */
+    private @Nullable Integer maxConcurrentUploads;
+
+    /**
+     * Max number of uploads waiting for a slot when {@link #maxConcurrentUploads} is reached.
+     * {@code null} to use the default.
+     */
+    private @Nullable Integer uploadQueueSize;
+
+    /**
+     * Max seconds an upload may wait for a slot before failing.
+     */
+    private @Nullable Integer uploadQueueTimeoutSeconds;
+
+    /**
+     * Where blocking steps of uploads run. {@code null} for {@link UploadScheduler#SHARED}.
+     */
+    private @Nullable UploadScheduler uploadScheduler;
+
+    public enum UploadScheduler {
+        /**
+         * The bounded elastic scheduler shared by Halo and all plugins.
+         */
+        SHARED,
+        /**
+         * Threads of this instance only, as many as {@link #maxConcurrentUploads}.
+         */
+        DEDICATED,
+        /**
+         * A virtual thread per task.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * Transport settings below, {@code null} to use the defaults of {@link TransportOptions}.
+     */
+    private @Nullable Integer connectTimeoutSeconds;
+
+    private @Nullable Integer responseTimeoutSeconds;
+
+    private @Nullable Integer writeTimeoutSeconds;
+
+    private @Nullable Integer maxConnections;
+
+    private @Nullable Integer pendingAcquireMaxCount;
+
+    private @Nullable Integer pendingAcquireTimeoutSeconds;
+
+    private @Nullable Integer maxIdleTimeSeconds;
+
+    private @Nullable TransportOptions.Protocol httpProtocol;
+
+    private boolean responseCompression;
+
+    /**
+     * Transport settings with defaults applied.
+     */
+    @JsonIgnore
+    public TransportOptions getTransportOptions() {
+        final var defaults = TransportOptions.DEFAULT;
+        return new TransportOptions(
+            seconds(connectTimeoutSeconds, defaults.connectTimeout()),
+            seconds(responseTimeoutSeconds, defaults.responseTimeout()),
+            seconds(writeTimeoutSeconds, defaults.writeTimeout()),
+            maxConnections == null ? defaults.maxConnections() : Math.max(1, maxConnections),
+            pendingAcquireMaxCount == null
+                ? defaults.pendingAcquireMaxCount() : Math.max(0, pendingAcquireMaxCount),
+            seconds(pendingAcquireTimeoutSeconds, defaults.pendingAcquireTimeout()),
+            seconds(maxIdleTimeSeconds, defaults.maxIdleTime()),
+            Objects.requireNonNullElse(httpProtocol, defaults.protocol()),
+            responseCompression);
+    }
+
+    /**
+     * {@code 0} is not allowed for timeouts, it would fail every request.
+     */
+    private static Duration seconds(@Nullable Integer value, Duration defaultValue) {
+        return value == null || value <= 0 ? defaultValue : Duration.ofSeconds(value);
+    }
+
+    /**
+     * Host (optionally with scheme and port) replacing the one of image links, e.g.
+     * {@code https://cdn.example.com}. {@code null} to keep the original host.
+     */
+    private @Nullable String cdnHost;
+
+    /**
+     * Prepended to the path of image links.
+     */
+    private @Nullable String cdnPathPrefix;
+
+    /**
+     * Secret to sign shared URLs with. {@code null} not to sign.
+     */
+    private @Nullable String cdnSignKey;
+
+    /**
+     * Query parameter carrying the expiry of signed URLs. {@code null} for {@code expires}.
+     */
+    private @Nullable String cdnSignExpiresParam;
+
+    /**
+     * Query parameter carrying the signature. {@code null} for {@code sign}.
+     */
+    private @Nullable String cdnSignParam;
+
+    /**
+     * Whether to serve thumbnails of all sizes from this plugin, see {@link ThumbnailProxy}.
+     * Otherwise only the one generated by Lsky Pro is used.
+     */
+    private boolean thumbnailProxy;
+
     @SuppressWarnings("unused")
     public void setLskyUrl(String lskyUrl) {
+        this.lskyUrl = normalizeUrl(lskyUrl);
+    }
+
+    /**
+     * {@link #lskyUrl} followed by the mirrors, without duplicates.
+     */
+    @JsonIgnore
+    public List<String> getEndpointUrls() {
+        final var urls = new LinkedHashSet<String>();
+        if (lskyUrl != null) {
+            urls.add(lskyUrl);
+        }
+        if (lskyMirrorUrls != null) {
+            lskyMirrorUrls.lines()
+                .map(LskyProProperties::normalizeUrl)
+                .filter(Objects::nonNull)
+                .forEach(urls::add);
+        }
+        return List.copyOf(urls);
+    }
+
+    private static @Nullable String normalizeUrl(@Nullable String url) {
         final var fileSeparator = "/";
         final var apiSuffix = "/api/v1";
-        if (!StringUtils.hasText(lskyUrl)) {
-            this.lskyUrl = null;
-            return;
+        if (!StringUtils.hasText(url)) {
+            return null;
         }
-        if (lskyUrl.endsWith(fileSeparator)) {
-            lskyUrl = lskyUrl.substring(0, lskyUrl.length() - 1);
+        url = url.trim();
+        while (url.endsWith(fileSeparator)) {
+            url = url.substring(0, url.length() - 1);
         }
-        if (lskyUrl.endsWith(apiSuffix)) {
-            lskyUrl = lskyUrl.substring(0, lskyUrl.length() - apiSuffix.length());
+        if (url.endsWith(apiSuffix)) {
+            url = url.substring(0, url.length() - apiSuffix.length());
         }
-        this.lskyUrl = lskyUrl;
+        return StringUtils.hasText(url) ? url : null;
     }
 
     @SuppressWarnings("unused")
@@ -57,7 +284,7 @@ public class LskyProProperties {
         lskyToken = lskyToken.trim();
         final String prefix = "Bearer";
         if (lskyToken.startsWith(prefix)) {
-            lskyToken = lskyToken.substring(prefix.length());
+            lskyToken = lskyToken.substring(prefix.length()).trim();
         }
         this.lskyToken = StringUtils.hasText(lskyToken) ? lskyToken : null;
     }
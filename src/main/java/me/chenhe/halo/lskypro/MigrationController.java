@@ -0,0 +1,58 @@
+package me.chenhe.halo.lskypro;
+
+import lombok.RequiredArgsConstructor;
+import me.chenhe.halo.lskypro.extension.Migration;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.ApiVersion;
+
+/**
+ * Migrate existing attachments into a Lsky Pro policy, see {@link AttachmentMigrator}.
+ */
+@ApiVersion("lsky-pro.chenhe.me/v1")
+@RestController
+@RequiredArgsConstructor
+public class MigrationController {
+
+    private final AttachmentMigrator migrator;
+    private final ReactiveExtensionClient client;
+
+    /**
+     * Start migrating. Relative permalinks of the source attachments are resolved against
+     * {@code baseUrl}, which defaults to the URL of this request.
+     */
+    @PostMapping("/migrations")
+    public Mono<Migration> create(@RequestBody Migration.Spec spec, ServerHttpRequest request) {
+        if (!StringUtils.hasText(spec.getBaseUrl())) {
+            spec.setBaseUrl(UriComponentsBuilder.fromUri(request.getURI())
+                .replacePath("/")
+                .replaceQuery(null)
+                .build()
+                .toUriString());
+        }
+        return migrator.create(spec);
+    }
+
+    @GetMapping("/migrations/{name}")
+    public Mono<Migration> get(@PathVariable String name) {
+        return client.get(Migration.class, name);
+    }
+
+    @PostMapping("/migrations/{name}/pause")
+    public Mono<Migration> pause(@PathVariable String name) {
+        return migrator.pause(name);
+    }
+
+    @PostMapping("/migrations/{name}/resume")
+    public Mono<Migration> resume(@PathVariable String name) {
+        return migrator.resume(name);
+    }
+}
@@ -0,0 +1,422 @@
+package me.chenhe.halo.lskypro;
+
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_KEY;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_LINK;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.INSTANCE_ID;
+
+import jakarta.annotation.Nullable;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.PolicyPropertiesCache.ResolvedPolicy;
+import me.chenhe.halo.lskypro.client.LskyProException;
+import me.chenhe.halo.lskypro.client.RoutingLskyProClient;
+import me.chenhe.halo.lskypro.extension.Reconciliation;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.Metadata;
+import run.halo.app.extension.ReactiveExtensionClient;
+
+/**
+ * Finds, and optionally deletes, orphans between Halo attachments and Lsky Pro images.
+ * <p>
+ * Keys referenced by any attachment are collected first, then the image list of the policy's
+ * account (or album) is paged through, then attachments are streamed again to find the ones whose
+ * image was not listed. Keys are kept as fingerprints in a {@link KeyFingerprintSet}, which can
+ * only err on the side of keeping things.
+ * <p>
+ * Candidates are double-checked before they are reported: attachments created since the run
+ * started rescue their images, and a dangling attachment only counts if its link returns 404.
+ * Requests to Lsky Pro are paced to {@link Reconciliation.Spec#getRequestsPerSecond()}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OrphanReconciler {
+
+    static final double DEFAULT_REQUESTS_PER_SECOND = 2;
+    static final double MAX_REQUESTS_PER_SECOND = 20;
+
+    /**
+     * Max number of candidates in each direction. More than that usually means the account or
+     * album is shared with other applications, so nothing is deleted.
+     */
+    static final int MAX_CANDIDATES = 10_000;
+
+    /**
+     * Max number of orphans listed in the status.
+     */
+    static final int MAX_REPORTED = 200;
+
+    /**
+     * Save progress after this many pages of images.
+     */
+    static final int FLUSH_EVERY_PAGES = 20;
+
+    /**
+     * Max time to wait for an image link to answer. An image that does not answer in time is
+     * not considered gone.
+     */
+    static final Duration PROBE_TIMEOUT = Duration.ofSeconds(15);
+
+    private final ReactiveExtensionClient client;
+    private final LskyProClientRegistry clientRegistry;
+    private final PolicyPropertiesCache policyCache;
+    private final ImageDownloader downloader;
+
+    /**
+     * Reconciliation name -> the running job.
+     */
+    private final Map<String, Disposable> running = new ConcurrentHashMap<>();
+
+    public Mono<Reconciliation> create(Reconciliation.Spec spec) {
+        if (!StringUtils.hasText(spec.getPolicyName())) {
+            return Mono.error(new ServerWebInputException("Policy is required."));
+        }
+        spec.setRequestsPerSecond(spec.getRequestsPerSecond() <= 0 ? DEFAULT_REQUESTS_PER_SECOND
+            : Math.min(spec.getRequestsPerSecond(), MAX_REQUESTS_PER_SECOND));
+        final var metadata = new Metadata();
+        metadata.setGenerateName("lsky-reconciliation-");
+        final var reconciliation = new Reconciliation();
+        reconciliation.setMetadata(metadata);
+        reconciliation.setSpec(spec);
+        reconciliation.getStatus().setPhase(Reconciliation.Phase.RUNNING);
+        reconciliation.getStatus().setStartedAt(Instant.now());
+        return resolveTarget(spec.getPolicyName())
+            .then(client.create(reconciliation))
+            .doOnNext(created -> launch(created.getMetadata().getName()));
+    }
+
+    public Mono<Reconciliation> cancel(String name) {
+        final var job = running.remove(name);
+        if (job != null) {
+            job.dispose();
+        }
+        return updateStatus(name, status -> {
+            if (status.getPhase() == Reconciliation.Phase.RUNNING) {
+                status.setPhase(Reconciliation.Phase.CANCELLED);
+                status.setCompletedAt(Instant.now());
+            }
+        });
+    }
+
+    /**
+     * Jobs are not resumed: whatever was found may be stale by now, so a running one left over
+     * from the last run is marked as failed.
+     */
+    public void start() {
+        client.list(Reconciliation.class, r -> r.getStatus() != null
+                && r.getStatus().getPhase() == Reconciliation.Phase.RUNNING, null)
+            .flatMap(r -> updateStatus(r.getMetadata().getName(), status -> {
+                status.setPhase(Reconciliation.Phase.FAILED);
+                status.setLastError("Interrupted by restart");
+                status.setCompletedAt(Instant.now());
+            }))
+            .subscribe();
+    }
+
+    public void stop() {
+        running.values().forEach(Disposable::dispose);
+        running.clear();
+    }
+
+    private synchronized void launch(String name) {
+        log.info("LskyPro reconciliation {} started", name);
+        final var job = Disposables.swap();
+        running.put(name, job);
+        job.update(run(name)
+            .doFinally(s -> running.remove(name, job))
+            .subscribe());
+    }
+
+    private Mono<Void> run(String name) {
+        return client.get(Reconciliation.class, name)
+            .flatMap(reconciliation -> {
+                final var spec = reconciliation.getSpec();
+                return resolveTarget(spec.getPolicyName())
+                    .flatMap(target -> reconcile(name, spec,
+                        reconciliation.getStatus().getStartedAt(), target));
+            })
+            .onErrorResume(e -> {
+                log.warn("LskyPro reconciliation {} failed", name, e);
+                return updateStatus(name, status -> {
+                    status.setPhase(Reconciliation.Phase.FAILED);
+                    status.setLastError(e.getMessage());
+                    status.setCompletedAt(Instant.now());
+                }).then();
+            });
+    }
+
+    private Mono<Void> reconcile(String name, Reconciliation.Spec spec, Instant startedAt,
+        Target target) {
+        final var interval = Duration.ofNanos((long) (1e9 / spec.getRequestsPerSecond()));
+        final var scan = new Scan();
+        return collectReferencedKeys(scan)
+            .flatMap(referenced -> scanImages(name, target, interval, referenced, scan))
+            .flatMap(listed -> findDanglingCandidates(spec.getPolicyName(), target, startedAt,
+                listed, scan))
+            .then(Mono.defer(() -> spec.isDeleteOrphanImages()
+                ? deleteOrphanImages(target, interval, scan) : Mono.empty()))
+            .then(Mono.defer(() -> confirmDangling(interval, scan)))
+            .then(Mono.defer(() -> spec.isDeleteDanglingAttachments()
+                ? deleteDanglingAttachments(interval, scan) : Mono.empty()))
+            .then(Mono.defer(() -> updateStatus(name, status -> {
+                scan.applyTo(status);
+                status.setPhase(Reconciliation.Phase.COMPLETED);
+                status.setCompletedAt(Instant.now());
+            })))
+            .doOnNext(r -> log.info("LskyPro reconciliation {} completed: {}", name,
+                r.getStatus()))
+            .then();
+    }
+
+    /**
+     * Keys of all Lsky Pro images referenced by attachments, of any policy or instance, so that
+     * an image shared by two policies on the same account is never considered orphan.
+     */
+    private Mono<KeyFingerprintSet> collectReferencedKeys(Scan scan) {
+        return client.list(Attachment.class, a -> getImageKey(a) != null, null)
+            .reduceWith(KeyFingerprintSet::new, (referenced, attachment) -> {
+                scan.attachmentsScanned++;
+                referenced.add(getImageKey(attachment));
+                return referenced;
+            });
+    }
+
+    /**
+     * Page through the images in Lsky Pro and record the ones nobody references.
+     *
+     * @return Keys of all listed images.
+     */
+    private Mono<KeyFingerprintSet> scanImages(String name, Target target, Duration interval,
+        KeyFingerprintSet referenced, Scan scan) {
+        final var lsky = target.client();
+        final var albumId = target.policy().properties().getLskyAlbumId();
+        return lsky.listImages(1, albumId)
+            .expand(page -> page.hasNext()
+                ? Mono.delay(interval).then(lsky.listImages(page.current_page() + 1, albumId))
+                : Mono.empty())
+            .concatMap(page -> page.current_page() % FLUSH_EVERY_PAGES == 0
+                ? updateStatus(name, scan::applyTo).thenReturn(page) : Mono.just(page))
+            .reduceWith(KeyFingerprintSet::new, (listed, page) -> {
+                if (page.data() == null) {
+                    return listed;
+                }
+                for (final var image : page.data()) {
+                    scan.imagesScanned++;
+                    listed.add(image.key());
+                    if (!referenced.contains(image.key())) {
+                        scan.orphanImages++;
+                        if (scan.orphanKeys.size() < MAX_CANDIDATES) {
+                            scan.orphanKeys.add(image.key());
+                        }
+                    }
+                }
+                return listed;
+            })
+            .doOnNext(listed -> log.debug("LskyPro reconciliation {}: {} images listed, {} "
+                + "orphan candidates", name, scan.imagesScanned, scan.orphanImages));
+    }
+
+    /**
+     * Stream attachments again: the ones of this policy whose image was not listed are
+     * candidates, and the ones created since the run started rescue their images from being
+     * considered orphan.
+     */
+    private Mono<Void> findDanglingCandidates(String policyName, Target target,
+        Instant startedAt, KeyFingerprintSet listed, Scan scan) {
+        final var recentKeys = new HashSet<String>();
+        final var instanceId = target.policy().instanceId();
+        return client.list(Attachment.class, a -> getImageKey(a) != null, null)
+            .doOnNext(attachment -> {
+                final var key = getImageKey(attachment);
+                final var created = attachment.getMetadata().getCreationTimestamp();
+                if (created == null || !created.isBefore(startedAt)) {
+                    recentKeys.add(key);
+                    return;
+                }
+                if (attachment.getMetadata().getDeletionTimestamp() == null
+                    && attachment.getSpec() != null
+                    && policyName.equals(attachment.getSpec().getPolicyName())
+                    && instanceId.equals(attachment.getMetadata().getAnnotations()
+                    .get(INSTANCE_ID))
+                    && !listed.contains(key)) {
+                    if (scan.danglingCandidates.size() < MAX_CANDIDATES) {
+                        scan.danglingCandidates.add(attachment);
+                    } else {
+                        scan.tooManyDangling = true;
+                    }
+                }
+            })
+            .then(Mono.fromRunnable(() -> {
+                final var before = scan.orphanKeys.size();
+                scan.orphanKeys.removeIf(recentKeys::contains);
+                scan.orphanImages -= before - scan.orphanKeys.size();
+            }));
+    }
+
+    private Mono<Void> deleteOrphanImages(Target target, Duration interval, Scan scan) {
+        if (scan.orphanImages > scan.orphanKeys.size()) {
+            scan.lastError = "Too many orphan images (%d), nothing deleted. Is the Lsky Pro "
+                .formatted(scan.orphanImages) + "account or album shared with others?";
+            return Mono.empty();
+        }
+        return Flux.fromIterable(scan.orphanKeys)
+            .concatMap(key -> Mono.delay(interval)
+                .then(target.client().delete(key))
+                .onErrorResume(LskyProException.class, e -> e.statusCode.value() == 404
+                    ? Mono.empty() : Mono.error(e))
+                .then(Mono.fromRunnable(() -> scan.deletedImages++))
+                .onErrorResume(e -> {
+                    log.warn("Failed to delete orphan image {} from LskyPro: {}", key,
+                        e.getMessage());
+                    scan.lastError = e.getMessage();
+                    return Mono.empty();
+                }))
+            .then();
+    }
+
+    /**
+     * Keep only the candidates whose image link is gone, the image list may miss images deleted
+     * while it was being paged through.
+     */
+    private Mono<Void> confirmDangling(Duration interval, Scan scan) {
+        return Flux.fromIterable(scan.danglingCandidates)
+            .concatMap(attachment -> Mono.delay(interval)
+                .then(isGone(attachment.getMetadata().getAnnotations().get(IMAGE_LINK)))
+                .filter(Boolean::booleanValue)
+                .map(gone -> attachment))
+            .collectList()
+            .doOnNext(dangling -> scan.dangling = dangling)
+            .then();
+    }
+
+    private Mono<Void> deleteDanglingAttachments(Duration interval, Scan scan) {
+        if (scan.tooManyDangling) {
+            scan.lastError = "Too many dangling attachments, nothing deleted. Has the album of "
+                + "the policy changed?";
+            return Mono.empty();
+        }
+        // the handler tries to delete the image as well, so this is paced too
+        return Flux.fromIterable(scan.dangling)
+            .concatMap(attachment -> Mono.delay(interval)
+                .then(client.delete(attachment))
+                .doOnNext(deleted -> scan.deletedAttachments++)
+                .onErrorResume(e -> {
+                    log.warn("Failed to delete dangling attachment {}: {}",
+                        attachment.getMetadata().getName(), e.getMessage());
+                    scan.lastError = e.getMessage();
+                    return Mono.empty();
+                }))
+            .then();
+    }
+
+    private Mono<Boolean> isGone(@Nullable String link) {
+        if (!StringUtils.hasText(link)) {
+            return Mono.just(false);
+        }
+        return Mono.defer(() -> downloader.webClient().head()
+                .uri(URI.create(link))
+                .exchangeToMono(resp -> Mono.just(resp.statusCode().value() == 404
+                    || resp.statusCode().value() == 410)))
+            // a hung link must not stall the job
+            .timeout(PROBE_TIMEOUT)
+            .onErrorReturn(false);
+    }
+
+    private Mono<Reconciliation> updateStatus(String name,
+        Consumer<Reconciliation.Status> mutator) {
+        return Mono.defer(() -> client.get(Reconciliation.class, name)
+                .flatMap(reconciliation -> {
+                    if (reconciliation.getStatus() == null) {
+                        reconciliation.setStatus(new Reconciliation.Status());
+                    }
+                    mutator.accept(reconciliation.getStatus());
+                    return client.update(reconciliation);
+                }))
+            .retryWhen(Retry.max(3).filter(OptimisticLockingFailureException.class::isInstance));
+    }
+
+    private Mono<Target> resolveTarget(String policyName) {
+        return client.fetch(Policy.class, policyName)
+            .filter(policy -> policy.getSpec() != null
+                && "chenhe-lsky-pro".equals(policy.getSpec().getTemplateName()))
+            .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                "Policy %s does not exist or is not a Lsky Pro policy.".formatted(policyName))))
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .switchIfEmpty(Mono.error(() -> new ServerWebInputException(
+                    "ConfigMap of policy %s does not exist.".formatted(policyName))))
+                .map(configMap -> {
+                    final var resolved = policyCache.resolve(configMap, policy);
+                    return new Target(resolved,
+                        clientRegistry.getClient(configMap.getMetadata().getName(),
+                            resolved.properties(), resolved.instanceId()));
+                }));
+    }
+
+    private static @Nullable String getImageKey(Attachment attachment) {
+        final var annotations = attachment.getMetadata().getAnnotations();
+        if (annotations == null) {
+            return null;
+        }
+        final var key = annotations.get(IMAGE_KEY);
+        return StringUtils.hasText(key) ? key : null;
+    }
+
+    private record Target(ResolvedPolicy policy, RoutingLskyProClient client) {
+    }
+
+    /**
+     * Findings of one run. Only touched by one stage at a time.
+     */
+    private static class Scan {
+        long attachmentsScanned;
+        long imagesScanned;
+        long orphanImages;
+        final List<String> orphanKeys = new ArrayList<>();
+        final List<Attachment> danglingCandidates = new ArrayList<>();
+        boolean tooManyDangling;
+        @Nullable List<Attachment> dangling;
+        long deletedImages;
+        long deletedAttachments;
+        @Nullable String lastError;
+
+        void applyTo(Reconciliation.Status status) {
+            status.setAttachmentsScanned(attachmentsScanned);
+            status.setImagesScanned(imagesScanned);
+            status.setOrphanImages(orphanImages);
+            status.setOrphanImageKeys(List.copyOf(
+                orphanKeys.subList(0, Math.min(orphanKeys.size(), MAX_REPORTED))));
+            if (dangling != null) {
+                status.setDanglingAttachments(dangling.size());
+                status.setDanglingAttachmentNames(dangling.stream()
+                    .limit(MAX_REPORTED)
+                    .map(a -> a.getMetadata().getName())
+                    .toList());
+            }
+            status.setDeletedImages(deletedImages);
+            status.setDeletedAttachments(deletedAttachments);
+            if (lastError != null) {
+                status.setLastError(lastError);
+            }
+        }
+    }
+}
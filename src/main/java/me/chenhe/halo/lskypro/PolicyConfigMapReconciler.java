@@ -0,0 +1,36 @@
+package me.chenhe.halo.lskypro;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.controller.Controller;
+import run.halo.app.extension.controller.ControllerBuilder;
+import run.halo.app.extension.controller.Reconciler;
+
+/**
+ * Drops everything derived from a policy ConfigMap once it is changed or deleted.
+ * <p>
+ * Every ConfigMap in the system triggers this reconciler, but evicting an unknown name is a
+ * no-op, so there is no need to figure out whether it belongs to a Lsky Pro policy.
+ */
+@Component
+@RequiredArgsConstructor
+public class PolicyConfigMapReconciler implements Reconciler<Reconciler.Request> {
+
+    private final LskyProClientRegistry clientRegistry;
+    private final PolicyPropertiesCache policyCache;
+
+    @Override
+    public Result reconcile(Request request) {
+        clientRegistry.evict(request.name());
+        policyCache.evict(request.name());
+        return Result.doNotRetry();
+    }
+
+    @Override
+    public Controller setupWith(ControllerBuilder builder) {
+        return builder
+            .extension(new ConfigMap())
+            .build();
+    }
+}
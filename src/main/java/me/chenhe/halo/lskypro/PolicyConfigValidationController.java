@@ -1,17 +1,17 @@
 package me.chenhe.halo.lskypro;
 
+import java.io.IOException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import me.chenhe.halo.lskypro.client.LskyProClient;
 import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebInputException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import run.halo.app.infra.utils.PathUtils;
@@ -27,24 +27,51 @@ public class PolicyConfigValidationController {
      */
     private static final String FILE_NAME = "validation.png";
 
+    private final LskyProClientRegistry clientRegistry;
+    private final LskyProMetrics metrics;
+    private final LskyProCatalog catalog;
+
+    /**
+     * Content of the image, loaded from the class path only once.
+     */
+    private final Mono<byte[]> image = Mono.fromCallable(this::loadImage).cache();
+
     @PostMapping("/policies/validation")
     public Mono<Void> validatePolicyConfig(@RequestBody LskyProProperties props) {
-        final var content = readImage();
-        final var client = new LskyProClient(props.getLskyUrl(), props.getLskyToken());
-        return client.upload(content, FILE_NAME, null, props.getLskyStrategy(),
-                props.getLskyAlbumId())
-            .doOnNext(r -> log.info("Validate LskyPro policy config: upload successful: {}", r))
-            .flatMap((uploadResp) -> client.delete(uploadResp.key()))
+        final var client = clientRegistry.getClient(null,
+            LskyProAttachmentHandler.checkProperties(props), null);
+        // a wrong strategy or album is explained better by the catalog than by a failed upload
+        final var checkCatalog = catalog.load(client)
+            .flatMap(loaded -> {
+                final var problem = loaded.check(props);
+                return problem == null ? Mono.<Void>empty()
+                    : Mono.error(new ServerWebInputException(problem));
+            });
+        // validate every mirror rather than the routed one
+        final var roundTrip = Flux.fromIterable(client.getEndpoints())
+            .concatMap(endpoint -> endpoint.client().upload(readImage(), FILE_NAME, null,
+                    props.getLskyStrategy(), props.getLskyAlbumId())
+                .doOnNext(r -> log.info(
+                    "Validate LskyPro policy config: upload to {} successful: {}",
+                    endpoint.url(), r))
+                .flatMap((uploadResp) -> endpoint.client().delete(uploadResp.key())))
+            .then();
+        return metrics.timeValidation(checkCatalog.then(roundTrip))
             .onErrorMap(LskyProAttachmentHandler::handleError)
             .then(Mono.empty());
     }
 
     private Flux<DataBuffer> readImage() {
+        // wrapped for every subscription, since a buffer is released once written
+        return image.<DataBuffer>map(DefaultDataBufferFactory.sharedInstance::wrap).flux();
+    }
+
+    private byte[] loadImage() throws IOException {
         DefaultResourceLoader resourceLoader = new DefaultResourceLoader(this.getClass()
             .getClassLoader());
         String path = PathUtils.combinePath(FILE_NAME);
         String simplifyPath = StringUtils.cleanPath(path);
         Resource resource = resourceLoader.getResource(simplifyPath);
-        return DataBufferUtils.read(resource, new DefaultDataBufferFactory(), 1024);
+        return resource.getContentAsByteArray();
     }
 }
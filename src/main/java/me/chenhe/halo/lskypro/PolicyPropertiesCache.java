@@ -0,0 +1,106 @@
+package me.chenhe.halo.lskypro;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.springframework.stereotype.Component;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+
+/**
+ * A small LRU cache of parsed policy settings, keyed by ConfigMap name and version.
+ * <p>
+ * Since a ConfigMap gets a new {@code metadata.version} on every update, a cached entry never
+ * becomes stale; old versions are simply pushed out by new ones.
+ */
+@Component
+public class PolicyPropertiesCache {
+
+    static final int MAX_ENTRIES = 64;
+
+    private final Map<CacheKey, ResolvedPolicy> entries =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, ResolvedPolicy> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Get the properties and instance ID of the given policy, parsing them only once per
+     * ConfigMap version.
+     */
+    public ResolvedPolicy resolve(ConfigMap configMap, Policy policy) {
+        return get(configMap, cm -> {
+            final var properties = LskyProAttachmentHandler.getProperties(cm);
+            return new ResolvedPolicy(properties,
+                LskyProAttachmentHandler.getInstanceId(properties, policy),
+                UrlRewriter.compile(properties));
+        });
+    }
+
+    /**
+     * Get the resolved policy of the given ConfigMap, computing it by {@code loader} on miss.
+     * <p>
+     * ConfigMaps without a version (i.e. not persisted yet) are never cached.
+     */
+    public ResolvedPolicy get(ConfigMap configMap, Function<ConfigMap, ResolvedPolicy> loader) {
+        final var metadata = configMap.getMetadata();
+        if (metadata == null || metadata.getName() == null || metadata.getVersion() == null) {
+            misses.increment();
+            return loader.apply(configMap);
+        }
+        final var key = new CacheKey(metadata.getName(), metadata.getVersion());
+        synchronized (entries) {
+            final var cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        // do not hold the lock while loading, a duplicated computation is harmless
+        final var loaded = loader.apply(configMap);
+        synchronized (entries) {
+            entries.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Drop all versions of the given ConfigMap.
+     */
+    public void evict(String configMapName) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.name().equals(configMapName));
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private record CacheKey(String name, long version) {
+    }
+
+    /**
+     * The parsed settings of a policy together with values derived from them.
+     *
+     * @param properties  Properties normalized while parsing, i.e. URLs and token trimmed,
+     *                    trailing {@code /} and {@code /api/v1} stripped, so that equivalent
+     *                    settings share a client. Shared by all callers, must not be modified.
+     * @param instanceId  Non-empty instance ID of the policy.
+     * @param urlRewriter Compiled CDN rules, caching the links it rewrote.
+     */
+    public record ResolvedPolicy(LskyProProperties properties, String instanceId,
+                                 UrlRewriter urlRewriter) {
+    }
+}
@@ -0,0 +1,39 @@
+package me.chenhe.halo.lskypro;
+
+import lombok.RequiredArgsConstructor;
+import me.chenhe.halo.lskypro.extension.Reconciliation;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.plugin.ApiVersion;
+
+/**
+ * Find orphans between attachments and Lsky Pro images, see {@link OrphanReconciler}.
+ */
+@ApiVersion("lsky-pro.chenhe.me/v1")
+@RestController
+@RequiredArgsConstructor
+public class ReconciliationController {
+
+    private final OrphanReconciler reconciler;
+    private final ReactiveExtensionClient client;
+
+    @PostMapping("/reconciliations")
+    public Mono<Reconciliation> create(@RequestBody Reconciliation.Spec spec) {
+        return reconciler.create(spec);
+    }
+
+    @GetMapping("/reconciliations/{name}")
+    public Mono<Reconciliation> get(@PathVariable String name) {
+        return client.get(Reconciliation.class, name);
+    }
+
+    @PostMapping("/reconciliations/{name}/cancel")
+    public Mono<Reconciliation> cancel(@PathVariable String name) {
+        return reconciler.cancel(name);
+    }
+}
@@ -0,0 +1,44 @@
+package me.chenhe.halo.lskypro;
+
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import me.chenhe.halo.lskypro.client.Bulkhead;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import run.halo.app.plugin.ApiVersion;
+
+/**
+ * Exposes runtime state of the plugin for troubleshooting.
+ */
+@ApiVersion("lsky-pro.chenhe.me/v1")
+@RestController
+@RequiredArgsConstructor
+public class StatusController {
+
+    private final AsyncDeleteQueue deleteQueue;
+    private final LskyProClientRegistry clientRegistry;
+    private final HealthProber healthProber;
+
+    @GetMapping("/status/delete-queue")
+    public Mono<AsyncDeleteQueue.Status> deleteQueueStatus() {
+        return Mono.fromSupplier(deleteQueue::getStatus);
+    }
+
+    /**
+     * Upload bulkhead of each instance, by instance ID.
+     */
+    @GetMapping("/status/bulkheads")
+    public Mono<Map<String, Bulkhead.Status>> bulkheadStatus() {
+        return Mono.fromSupplier(clientRegistry::getBulkheadStatus);
+    }
+
+    /**
+     * Result of the last health probe of each endpoint, by instance ID.
+     */
+    @GetMapping("/status/health")
+    public Mono<Map<String, List<HealthProber.Health>>> health() {
+        return Mono.fromSupplier(healthProber::getHealth);
+    }
+}
@@ -0,0 +1,182 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thumbnails on disk, evicting the least recently used ones once their total size exceeds a
+ * limit.
+ * <p>
+ * Each file is named after its key followed by the extension of its format. The index is kept
+ * in memory and rebuilt from the directory on {@link #load()}, ordered by modification time
+ * since access times are not recorded.
+ */
+@Slf4j
+final class ThumbnailCache {
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * Key -> entry, in access order.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    ThumbnailCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Index the thumbnails left by a previous run, dropping the oldest ones over the limit.
+     */
+    void load() throws IOException {
+        Files.createDirectories(directory);
+        final var found = new ArrayList<Entry>();
+        try (final var files = Files.list(directory)) {
+            for (final var file : (Iterable<Path>) files::iterator) {
+                final var fileName = file.getFileName().toString();
+                if (fileName.startsWith(".")) {
+                    // left by an interrupted rendering
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                final var dot = fileName.lastIndexOf('.');
+                if (dot < 0 || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                found.add(new Entry(fileName.substring(0, dot), file,
+                    fileName.substring(dot + 1), Files.size(file),
+                    Files.getLastModifiedTime(file).toInstant()));
+            }
+        }
+        found.sort(Comparator.comparing(Entry::lastModified));
+        final List<Entry> evicted;
+        synchronized (entries) {
+            for (final var entry : found) {
+                final var previous = entries.put(entry.key(), entry);
+                totalBytes += entry.size() - (previous == null ? 0 : previous.size());
+            }
+            evicted = evict();
+        }
+        deleteQuietly(evicted);
+        log.debug("Loaded {} thumbnails of {} bytes from {}", found.size(), totalBytes,
+            directory);
+    }
+
+    /**
+     * @return {@code null} if absent or the file has been removed externally.
+     */
+    @Nullable
+    Entry get(String key) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || Files.isRegularFile(entry.file())) {
+            return entry;
+        }
+        remove(entry);
+        return null;
+    }
+
+    /**
+     * A file to render into, on the same file system so that {@link #put} can move it
+     * atomically. Ignored by {@link #load()}.
+     */
+    Path createTempFile() throws IOException {
+        // may be called before load()
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, ".", ".part");
+    }
+
+    /**
+     * Move the given file into the cache.
+     *
+     * @param extension Extension of the format, e.g. {@code png}.
+     */
+    Entry put(String key, Path file, String extension) throws IOException {
+        final var target = directory.resolve(key + "." + extension);
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        final var entry = new Entry(key, target, extension, Files.size(target),
+            Files.getLastModifiedTime(target).toInstant());
+        final List<Entry> evicted;
+        synchronized (entries) {
+            final var previous = entries.put(key, entry);
+            totalBytes += entry.size() - (previous == null ? 0 : previous.size());
+            evicted = evict();
+        }
+        deleteQuietly(evicted);
+        return entry;
+    }
+
+    private void remove(Entry entry) {
+        synchronized (entries) {
+            if (entries.remove(entry.key(), entry)) {
+                totalBytes -= entry.size();
+            }
+        }
+    }
+
+    /**
+     * Must hold the lock. Files are deleted by the caller once the lock is released.
+     */
+    private List<Entry> evict() {
+        final var evicted = new ArrayList<Entry>();
+        final var it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            final var eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.size();
+            evicted.add(eldest);
+        }
+        return evicted;
+    }
+
+    private static void deleteQuietly(List<Entry> evicted) {
+        for (final var entry : evicted) {
+            try {
+                Files.deleteIfExists(entry.file());
+            } catch (IOException e) {
+                log.warn("Failed to delete cached thumbnail {}", entry.file(), e);
+            }
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long totalBytes() {
+        synchronized (entries) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * @param extension    Extension of the format, e.g. {@code png}.
+     * @param lastModified When the thumbnail was rendered.
+     */
+    record Entry(String key, Path file, String extension, long size, Instant lastModified) {
+
+        /**
+         * Strong ETag, since the key identifies the source image and the rendering.
+         */
+        String etag() {
+            return "\"" + key + "\"";
+        }
+    }
+}
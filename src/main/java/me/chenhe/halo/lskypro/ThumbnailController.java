@@ -0,0 +1,67 @@
+package me.chenhe.halo.lskypro;
+
+import java.time.Duration;
+import java.util.Locale;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.attachment.ThumbnailSize;
+import run.halo.app.plugin.ApiVersion;
+
+/**
+ * Serves thumbnails rendered by {@link ThumbnailProxy}. Anonymous access is granted by
+ * {@code role-template-lskypro-thumbnails.yaml}, since thumbnails are embedded in pages.
+ * <p>
+ * Conditional requests are answered with {@code 304} based on the ETag and Last-Modified
+ * headers.
+ */
+@ApiVersion("lsky-pro.chenhe.me/v1")
+@RestController
+@RequiredArgsConstructor
+public class ThumbnailController {
+
+    static final Duration MAX_AGE = Duration.ofDays(1);
+
+    private final ThumbnailProxy thumbnailProxy;
+
+    @GetMapping("/thumbnails/{name}")
+    public Mono<ResponseEntity<Resource>> get(@PathVariable String name,
+        @RequestParam(defaultValue = "M") String size) {
+        final ThumbnailSize thumbnailSize;
+        try {
+            thumbnailSize = ThumbnailSize.valueOf(size.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ServerWebInputException("Unknown thumbnail size: " + size));
+        }
+        return thumbnailProxy.get(name, thumbnailSize)
+            .map(thumbnail -> {
+                final var file = thumbnail.file();
+                if (file == null) {
+                    return ResponseEntity.status(HttpStatus.FOUND)
+                        .location(thumbnail.original())
+                        .cacheControl(CacheControl.maxAge(MAX_AGE).cachePublic())
+                        .<Resource>build();
+                }
+                return ResponseEntity.ok()
+                    .contentType(MediaTypeFactory.getMediaType("thumbnail." + file.extension())
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM))
+                    .contentLength(file.size())
+                    .eTag(file.etag())
+                    .lastModified(file.lastModified())
+                    .cacheControl(CacheControl.maxAge(MAX_AGE).cachePublic())
+                    .<Resource>body(new FileSystemResource(file.file()));
+            })
+            .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+}
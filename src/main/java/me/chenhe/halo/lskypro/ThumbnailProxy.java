@@ -0,0 +1,271 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import me.chenhe.halo.lskypro.PolicyPropertiesCache.ResolvedPolicy;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import run.halo.app.core.attachment.ThumbnailSize;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.ReactiveExtensionClient;
+
+/**
+ * Renders thumbnails of Lsky Pro images on demand, for policies with
+ * {@link LskyProProperties#isThumbnailProxy()} enabled.
+ * <p>
+ * The original image is downloaded once to a temporary file, then downscaled with source
+ * subsampling and kept in a {@link ThumbnailCache} on disk. Concurrent requests for the same
+ * thumbnail share one rendering. Images that cannot or need not be downscaled (e.g. GIF, or
+ * narrower than the thumbnail) are served by redirecting to the original, and so are requests
+ * beyond {@link #MAX_RENDERING} concurrent renderings.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ThumbnailProxy {
+
+    static final String PATH = "/apis/lsky-pro.chenhe.me/v1/thumbnails/";
+    static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Originals larger than this are redirected to rather than downloaded.
+     */
+    static final long MAX_SOURCE_BYTES = 50L * 1024 * 1024;
+
+    static final int MAX_PASSTHROUGH = 4096;
+
+    /**
+     * Max number of thumbnails rendered at once. The endpoint is public, so further requests are
+     * redirected to the original rather than queued.
+     */
+    static final int MAX_RENDERING = 4;
+
+    /**
+     * Max time to download an original, in addition to the timeouts of {@link ImageDownloader}.
+     */
+    static final Duration DOWNLOAD_TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * Part of the cache key. Bump it when the rendering changes, so that thumbnails rendered by
+     * an older version are not served.
+     */
+    static final int RENDER_VERSION = 1;
+
+    private final ReactiveExtensionClient client;
+    private final PolicyPropertiesCache policyCache;
+    private final LskyProClientRegistry clientRegistry;
+    private final ImageTransformer imageTransformer;
+    private final ImageDownloader downloader;
+
+    private final AtomicInteger renderCount = new AtomicInteger();
+
+    private final ThumbnailCache cache = new ThumbnailCache(
+        Path.of(System.getProperty("java.io.tmpdir"), "halo-lsky-pro", "thumbnails"),
+        MAX_CACHE_BYTES);
+
+    /**
+     * Cache keys of images served as is, so that they are not downloaded again.
+     */
+    private final Map<String, Boolean> passthrough = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_PASSTHROUGH;
+        }
+    };
+
+    /**
+     * Cache key -> the rendering in progress.
+     */
+    private final Map<String, Mono<Thumbnail>> rendering = new ConcurrentHashMap<>();
+
+    /**
+     * Index thumbnails left by the previous run in the background.
+     */
+    public void start() {
+        Mono.fromCallable(() -> {
+                cache.load();
+                return cache.size();
+            })
+            .subscribeOn(Schedulers.boundedElastic())
+            .subscribe(size -> log.info("Found {} cached LskyPro thumbnails", size),
+                e -> log.warn("Failed to load cached LskyPro thumbnails", e));
+    }
+
+    /**
+     * The URL of the given thumbnail served by this proxy, relative to the site.
+     */
+    static URI getLink(String attachmentName, ThumbnailSize size) {
+        return URI.create(PATH + UriUtils.encodePathSegment(attachmentName,
+            StandardCharsets.UTF_8) + "?size=" + size.name());
+    }
+
+    /**
+     * @return Empty if the attachment does not exist or its policy does not enable the proxy.
+     */
+    Mono<Thumbnail> get(String attachmentName, ThumbnailSize size) {
+        return client.fetch(Attachment.class, attachmentName)
+            .filter(attachment -> attachment.getSpec() != null
+                && StringUtils.hasText(attachment.getSpec().getPolicyName()))
+            .flatMap(attachment -> resolvePolicy(attachment.getSpec().getPolicyName())
+                .filter(policy -> policy.properties().isThumbnailProxy())
+                .flatMap(policy -> Mono.justOrEmpty(LskyProAttachmentHandler.getLink(attachment))
+                    .flatMap(link -> get(link, size, policy))));
+    }
+
+    private Mono<ResolvedPolicy> resolvePolicy(String policyName) {
+        return client.fetch(Policy.class, policyName)
+            .filter(policy -> policy.getSpec() != null
+                && "chenhe-lsky-pro".equals(policy.getSpec().getTemplateName()))
+            .flatMap(policy -> client.fetch(ConfigMap.class, policy.getSpec().getConfigMapName())
+                .map(configMap -> policyCache.resolve(configMap, policy)));
+    }
+
+    private Mono<Thumbnail> get(String link, ThumbnailSize size, ResolvedPolicy policy) {
+        final var key = getCacheKey(link, size);
+        final var cached = cache.get(key);
+        if (cached != null) {
+            return Mono.just(Thumbnail.of(cached));
+        }
+        final boolean served;
+        synchronized (passthrough) {
+            served = passthrough.containsKey(key);
+        }
+        if (served) {
+            return Mono.just(Thumbnail.redirect(policy.urlRewriter().rewrite(link)));
+        }
+        final var inProgress = rendering.get(key);
+        if (inProgress != null) {
+            return inProgress;
+        }
+        if (renderCount.incrementAndGet() > MAX_RENDERING) {
+            renderCount.decrementAndGet();
+            log.debug("Too many thumbnails rendering, redirect {} to the original", link);
+            return Mono.just(Thumbnail.redirect(policy.urlRewriter().rewrite(link)));
+        }
+        final var created = new AtomicBoolean();
+        final var result = rendering.computeIfAbsent(key, k -> {
+            created.set(true);
+            return render(k, link, size, policy)
+                .doFinally(s -> {
+                    rendering.remove(k);
+                    renderCount.decrementAndGet();
+                })
+                .cache();
+        });
+        if (!created.get()) {
+            // another request started the same rendering meanwhile
+            renderCount.decrementAndGet();
+        }
+        return result;
+    }
+
+    private Mono<Thumbnail> render(String key, String link, ThumbnailSize size,
+        ResolvedPolicy policy) {
+        final var scheduler = clientRegistry.getBlockingScheduler(policy.instanceId());
+        final var original = policy.urlRewriter().rewrite(link);
+        return Mono.usingWhen(
+                Mono.fromCallable(cache::createTempFile).subscribeOn(scheduler),
+                source -> DataBufferUtils.write(
+                        DataBufferUtils.takeUntilByteCount(downloader.webClient().get()
+                            .uri(URI.create(link))
+                            .retrieve()
+                            .bodyToFlux(DataBuffer.class), MAX_SOURCE_BYTES + 1), source)
+                    .timeout(DOWNLOAD_TIMEOUT)
+                    .then(Mono.fromCallable(() -> renderFile(key, source, size))
+                        .subscribeOn(scheduler)),
+                source -> Mono.fromRunnable(() -> deleteQuietly(source)).subscribeOn(scheduler))
+            .map(Thumbnail::of)
+            .switchIfEmpty(Mono.fromSupplier(() -> {
+                synchronized (passthrough) {
+                    passthrough.put(key, Boolean.TRUE);
+                }
+                return Thumbnail.redirect(original);
+            }))
+            .onErrorResume(e -> {
+                // try again next time
+                log.warn("Failed to render thumbnail of {}: {}", link, e.getMessage());
+                return Mono.just(Thumbnail.redirect(original));
+            });
+    }
+
+    /**
+     * @return {@code null} if the original should be served as is.
+     */
+    private @Nullable ThumbnailCache.Entry renderFile(String key, Path source, ThumbnailSize size)
+        throws IOException {
+        if (Files.size(source) > MAX_SOURCE_BYTES) {
+            return null;
+        }
+        final var output = cache.createTempFile();
+        try {
+            final var format = imageTransformer.thumbnail(source, size.getWidth(), output);
+            if (format == null) {
+                deleteQuietly(output);
+                return null;
+            }
+            return cache.put(key, output, "jpeg".equals(format) ? "jpg" : format);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(output);
+            throw e;
+        }
+    }
+
+    /**
+     * Identifies the source image and the rendering, so a thumbnail never has to be
+     * invalidated: a changed image gets a new key.
+     */
+    static String getCacheKey(String link, ThumbnailSize size) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            digest.update((link + "\n" + size.name() + "\n" + RENDER_VERSION)
+                .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete temporary file {}", file, e);
+        }
+    }
+
+    /**
+     * Either a rendered thumbnail or the original image to redirect to.
+     */
+    record Thumbnail(@Nullable ThumbnailCache.Entry file, @Nullable URI original) {
+
+        static Thumbnail of(ThumbnailCache.Entry file) {
+            return new Thumbnail(file, null);
+        }
+
+        static Thumbnail redirect(URI original) {
+            return new Thumbnail(null, original);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package me.chenhe.halo.lskypro;
+
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_KEY;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_LINK;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_SHA1;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_STORAGE;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.INSTANCE_ID;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.THUMBNAIL_LINK;
+
+import jakarta.annotation.Nullable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.extension.ListOptions;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.controller.Controller;
+import run.halo.app.extension.controller.ControllerBuilder;
+import run.halo.app.extension.controller.Reconciler;
+
+/**
+ * Content-addressed upload deduplication.
+ * <p>
+ * For each instance, an index of images is built lazily from the attachments that carry
+ * {@link LskyProAttachmentHandler#IMAGE_SHA1}. An image is only reused by uploads of the same
+ * content to the same strategy and album. Several attachments may point at the same Lsky Pro
+ * image, so each image keeps the names of the attachments referencing it, and is only deleted
+ * from Lsky Pro once the last of them is gone.
+ * <p>
+ * References are taken once attachments are actually created, as observed by this reconciler,
+ * rather than when an upload is answered, since Halo may still fail to create the attachment.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UploadDeduplicator implements Reconciler<Reconciler.Request> {
+
+    static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final ReactiveExtensionClient client;
+    private final UploadSpooler spooler;
+
+    /**
+     * instance ID -> index. Each index is loaded once and then kept up to date.
+     */
+    private final Map<String, Mono<Index>> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes loaded so far, which the reconciler keeps up to date without loading others.
+     */
+    private final Map<String, Index> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * The strategy and album uploads with the given settings are stored with.
+     */
+    static String getStorage(LskyProProperties properties) {
+        return Objects.toString(properties.getLskyStrategy(), "-") + "/"
+            + Objects.toString(properties.getLskyAlbumId(), "-");
+    }
+
+    /**
+     * Compute the SHA-1 of the given content while spooling it, then pass both to
+     * {@code consumer}. The content is released once the returned {@link Mono} terminates.
+     *
+     * @param memoryThreshold Max size in bytes kept in memory, see {@link UploadSpooler}.
+     */
+    public <T> Mono<T> digest(Flux<DataBuffer> content, int memoryThreshold, Scheduler scheduler,
+        Function<DigestedContent, Mono<T>> consumer) {
+        return Mono.defer(() -> {
+            final var digest = newDigest();
+            return spooler.spool(content.doOnNext(buffer -> {
+                try (var iterator = buffer.readableByteBuffers()) {
+                    while (iterator.hasNext()) {
+                        digest.update(iterator.next());
+                    }
+                }
+            }), memoryThreshold, scheduler, spooled -> consumer.apply(new DigestedContent(
+                HexFormat.of().formatHex(digest.digest()), spooled)));
+        });
+    }
+
+    /**
+     * Find an existing image with the same content, stored with the same strategy and album. No
+     * reference is taken, that happens once the attachment is created.
+     *
+     * @param storage See {@link #getStorage(LskyProProperties)}.
+     * @return The existing image, or empty if there is none.
+     */
+    public Mono<Entry> find(String instanceId, String storage, String sha1) {
+        return getIndex(instanceId)
+            .mapNotNull(index -> index.byContent.get(contentKey(storage, sha1)))
+            .doOnNext(entry -> log.debug("Reuse existing image {} for sha1 {}", entry.key, sha1));
+    }
+
+    /**
+     * Record the freshly uploaded image of the given attachment, so that later uploads of the
+     * same content can reuse it.
+     */
+    public Mono<Void> register(String instanceId, Attachment attachment) {
+        return getIndex(instanceId)
+            .doOnNext(index -> index.add(attachment, false))
+            .then();
+    }
+
+    /**
+     * Drop the reference of the given attachment.
+     *
+     * @return Whether the image is still referenced by other attachments, in which case it must
+     * not be deleted from Lsky Pro. Always {@code false} for attachments uploaded without
+     * deduplication.
+     */
+    public Mono<Boolean> release(String instanceId, Attachment attachment) {
+        final var sha1 = getSha1(attachment);
+        final var key = getAnnotation(attachment, IMAGE_KEY);
+        if (sha1 == null || key == null) {
+            return Mono.just(false);
+        }
+        final var name = attachment.getMetadata().getName();
+        return getIndex(instanceId).flatMap(index -> {
+            final var entry = index.byKey.get(key);
+            if (entry != null) {
+                entry.attachments.remove(name);
+                if (!entry.attachments.isEmpty()) {
+                    return Mono.just(true);
+                }
+            }
+            // attachments created since the index was loaded may not be reconciled yet
+            return listReferences(instanceId, sha1, key, name)
+                .collectList()
+                .map(others -> {
+                    if (others.isEmpty()) {
+                        index.remove(key);
+                        return false;
+                    }
+                    others.forEach(other -> index.add(other, true));
+                    return true;
+                });
+        });
+    }
+
+    @Override
+    public Result reconcile(Request request) {
+        client.fetch(Attachment.class, request.name())
+            .filter(UploadDeduplicator::isReference)
+            .blockOptional(TIMEOUT)
+            .ifPresent(attachment -> {
+                final var index = loaded.get(getAnnotation(attachment, INSTANCE_ID));
+                if (index != null) {
+                    index.add(attachment, true);
+                }
+            });
+        return Result.doNotRetry();
+    }
+
+    @Override
+    public Controller setupWith(ControllerBuilder builder) {
+        return builder
+            .extension(new Attachment())
+            .build();
+    }
+
+    private Flux<Attachment> listReferences(String instanceId, String sha1, String key,
+        String excludedName) {
+        final var options = ListOptions.builder()
+            .labelSelector().eq(IMAGE_SHA1, sha1).end()
+            .build();
+        return client.listAll(Attachment.class, options, Sort.unsorted())
+            .filter(attachment -> !excludedName.equals(attachment.getMetadata().getName())
+                && isReference(attachment)
+                && instanceId.equals(getAnnotation(attachment, INSTANCE_ID))
+                && key.equals(getAnnotation(attachment, IMAGE_KEY)));
+    }
+
+    private Mono<Index> getIndex(String instanceId) {
+        return indexes.computeIfAbsent(instanceId, id -> loadIndex(id)
+            .doOnNext(index -> loaded.put(id, index))
+            .doOnError(e -> indexes.remove(id))
+            .cache());
+    }
+
+    private Mono<Index> loadIndex(String instanceId) {
+        // attachments uploaded by older versions are not labelled, so scan all of them once
+        return client.list(Attachment.class, attachment -> isReference(attachment)
+                    && instanceId.equals(getAnnotation(attachment, INSTANCE_ID)),
+                null)
+            .collect(Index::new, (index, attachment) -> index.add(attachment, true))
+            .doOnNext(index -> log.debug("Loaded deduplication index of instance {}: {} images",
+                instanceId, index.byKey.size()));
+    }
+
+    private static boolean isReference(Attachment attachment) {
+        return attachment.getMetadata().getDeletionTimestamp() == null
+            && getSha1(attachment) != null
+            && getAnnotation(attachment, IMAGE_KEY) != null;
+    }
+
+    private static String contentKey(String storage, String sha1) {
+        return storage + ":" + sha1;
+    }
+
+    private static @Nullable String getSha1(Attachment attachment) {
+        return getAnnotation(attachment, IMAGE_SHA1);
+    }
+
+    private static @Nullable String getAnnotation(Attachment attachment, String key) {
+        final var annotations = attachment.getMetadata().getAnnotations();
+        return annotations == null ? null : annotations.get(key);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+    }
+
+    /**
+     * Images of one instance.
+     */
+    static final class Index {
+        /**
+         * Image key -> image.
+         */
+        final Map<String, Entry> byKey = new ConcurrentHashMap<>();
+
+        /**
+         * Storage and SHA-1 -> image. Images uploaded before the storage was recorded are absent,
+         * they are never reused.
+         */
+        final Map<String, Entry> byContent = new ConcurrentHashMap<>();
+
+        /**
+         * @param reference Whether the attachment exists and references the image.
+         */
+        void add(Attachment attachment, boolean reference) {
+            final var key = getAnnotation(attachment, IMAGE_KEY);
+            final var entry = byKey.computeIfAbsent(key, k -> new Entry(k,
+                getAnnotation(attachment, IMAGE_LINK), getAnnotation(attachment, THUMBNAIL_LINK)));
+            final var storage = getAnnotation(attachment, IMAGE_STORAGE);
+            if (storage != null) {
+                entry.contentKey = contentKey(storage, getSha1(attachment));
+                byContent.putIfAbsent(entry.contentKey, entry);
+            }
+            if (reference) {
+                entry.attachments.add(attachment.getMetadata().getName());
+            }
+        }
+
+        void remove(String key) {
+            final var entry = byKey.remove(key);
+            if (entry != null && entry.contentKey != null) {
+                byContent.remove(entry.contentKey, entry);
+            }
+        }
+    }
+
+    /**
+     * An image stored in Lsky Pro that may be shared by several attachments.
+     */
+    public static final class Entry {
+        final String key;
+        final String url;
+        final @Nullable String thumbnailUrl;
+
+        /**
+         * Names of the attachments referencing this image.
+         */
+        final Set<String> attachments = ConcurrentHashMap.newKeySet();
+
+        volatile @Nullable String contentKey;
+
+        Entry(String key, String url, @Nullable String thumbnailUrl) {
+            this.key = key;
+            this.url = url;
+            this.thumbnailUrl = thumbnailUrl;
+        }
+    }
+
+    /**
+     * The spooled content of an upload together with its SHA-1.
+     */
+    public record DigestedContent(String sha1, UploadSpooler.Spooled spooled) {
+
+        public long size() {
+            return spooled.size();
+        }
+
+        /**
+         * The content, which can be consumed any number of times while the spool is alive.
+         */
+        public Flux<DataBuffer> content() {
+            return spooled.content();
+        }
+    }
+}
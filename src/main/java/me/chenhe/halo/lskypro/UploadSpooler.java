@@ -0,0 +1,196 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Make the one-shot upload stream replayable, so that a failed upload can be retried without
+ * asking the client to send the file again.
+ * <p>
+ * Content up to a threshold is kept in memory, larger content is written to a temporary file
+ * while it is being received and then read back on each replay.
+ */
+@Slf4j
+@Component
+public class UploadSpooler {
+
+    static final int DEFAULT_MEMORY_THRESHOLD = 512 * 1024;
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Collect the given content, then pass it to {@code consumer}. Buffers and temporary files
+     * are released once the returned {@link Mono} terminates or is cancelled.
+     *
+     * @param memoryThreshold Max size in bytes kept in memory, larger content is spooled to
+     *                        disk.
+     * @param scheduler       Where the temporary file is written and deleted.
+     */
+    public <T> Mono<T> spool(Flux<DataBuffer> content, int memoryThreshold, Scheduler scheduler,
+        Function<Spooled, Mono<T>> consumer) {
+        return Mono.usingWhen(
+            Mono.fromSupplier(() -> new Spool(memoryThreshold)),
+            spool -> content
+                .publishOn(scheduler)
+                // the spool owns written buffers, so they must not reach then(), which would
+                // release them as discarded
+                .map(spool::write)
+                .then(Mono.fromCallable(spool::finish))
+                .flatMap(consumer),
+            spool -> Mono.fromRunnable(spool::release)
+                .subscribeOn(scheduler),
+            (spool, e) -> Mono.fromRunnable(spool::release)
+                .subscribeOn(scheduler),
+            spool -> Mono.fromRunnable(spool::release)
+                .subscribeOn(scheduler)
+        ).doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * Content collected so far. Synchronized since it may be released on cancellation while a
+     * buffer is being written.
+     */
+    static class Spool {
+        private final int memoryThreshold;
+        private final List<DataBuffer> buffers = new ArrayList<>();
+        private long size;
+        private @Nullable Path file;
+        private @Nullable FileChannel channel;
+        private boolean released;
+
+        Spool(int memoryThreshold) {
+            this.memoryThreshold = memoryThreshold;
+        }
+
+        /**
+         * Take over the given buffer.
+         *
+         * @return Size spooled so far.
+         */
+        synchronized long write(DataBuffer buffer) {
+            if (released) {
+                DataBufferUtils.release(buffer);
+                return size;
+            }
+            size += buffer.readableByteCount();
+            if (channel == null && size <= memoryThreshold) {
+                buffers.add(buffer);
+                return size;
+            }
+            try {
+                if (channel == null) {
+                    file = Files.createTempFile("lsky-spool-", ".tmp");
+                    channel = FileChannel.open(file, StandardOpenOption.WRITE);
+                    log.debug("Spool upload larger than {} bytes to {}", memoryThreshold, file);
+                    while (!buffers.isEmpty()) {
+                        final var buffered = buffers.remove(0);
+                        try {
+                            writeToChannel(buffered);
+                        } finally {
+                            DataBufferUtils.release(buffered);
+                        }
+                    }
+                }
+                writeToChannel(buffer);
+                return size;
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to spool upload to " + file, e);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        }
+
+        private void writeToChannel(DataBuffer buffer) throws IOException {
+            try (var iterator = buffer.readableByteBuffers()) {
+                while (iterator.hasNext()) {
+                    final var byteBuffer = iterator.next();
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                }
+            }
+        }
+
+        synchronized Spooled finish() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                return new Spooled(size, null, file);
+            }
+            // copied into one array, so that replays can share it without any reference
+            // counting, and the received buffers are released right away
+            final var bytes = new byte[(int) size];
+            var offset = 0;
+            for (final var buffer : buffers) {
+                final var length = buffer.readableByteCount();
+                buffer.toByteBuffer(buffer.readPosition(), ByteBuffer.wrap(bytes), offset, length);
+                offset += length;
+                DataBufferUtils.release(buffer);
+            }
+            buffers.clear();
+            return new Spooled(size, bytes, null);
+        }
+
+        synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            buffers.forEach(DataBufferUtils::release);
+            buffers.clear();
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to delete spool file {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Replayable content, either in memory or in a file.
+     *
+     * @param size  Size in bytes.
+     * @param bytes The content if it is kept in memory.
+     * @param file  The content if it is spooled to disk.
+     */
+    public record Spooled(long size, @Nullable byte[] bytes, @Nullable Path file) {
+
+        /**
+         * The content, which can be consumed any number of times as long as the spool is alive.
+         * Buffers emitted here must be released by the consumer as usual.
+         */
+        public Flux<DataBuffer> content() {
+            if (file != null) {
+                return DataBufferUtils.readByteChannel(
+                    () -> FileChannel.open(file, StandardOpenOption.READ),
+                    DefaultDataBufferFactory.sharedInstance, READ_BUFFER_SIZE);
+            }
+            // a read-only view for every replay, so that each one starts from the beginning
+            return Flux.range(0, (bytes.length + READ_BUFFER_SIZE - 1) / READ_BUFFER_SIZE)
+                .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(bytes,
+                        i * READ_BUFFER_SIZE,
+                        Math.min(READ_BUFFER_SIZE, bytes.length - i * READ_BUFFER_SIZE))
+                    .asReadOnlyBuffer()));
+        }
+    }
+}
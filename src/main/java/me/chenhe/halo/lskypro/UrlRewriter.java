@@ -0,0 +1,194 @@
+package me.chenhe.halo.lskypro;
+
+import jakarta.annotation.Nullable;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Rewrites image links stored in attachments so that they are served by a CDN: the scheme, host
+ * and port are swapped and a path prefix is prepended. Shared URLs can additionally be signed
+ * with an expiry, so that the CDN can reject them once the {@code ttl} is over.
+ * <p>
+ * Compiled once per policy version, see {@link PolicyPropertiesCache.ResolvedPolicy}. Stored
+ * attachments are never changed, so rules can be changed or removed at any time.
+ */
+@Slf4j
+final class UrlRewriter {
+
+    static final int MAX_CACHED = 1024;
+
+    /**
+     * Expiries of signed URLs are rounded up to this, so that a URL shared several times within a
+     * short period is the same and can be cached by the CDN and here.
+     */
+    static final long EXPIRY_GRANULARITY_SECONDS = 60;
+
+    static final String SIGN_ALGORITHM = "HmacSHA256";
+    static final String DEFAULT_EXPIRES_PARAM = "expires";
+    static final String DEFAULT_SIGN_PARAM = "sign";
+
+    private final @Nullable String scheme;
+    private final @Nullable String host;
+    private final int port;
+    private final String pathPrefix;
+    private final @Nullable SecretKeySpec signKey;
+    private final String expiresParam;
+    private final String signParam;
+
+    /**
+     * Link (optionally followed by the expiry) -> rewritten URI.
+     */
+    private final Map<String, URI> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, URI> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private UrlRewriter(@Nullable String scheme, @Nullable String host, int port,
+        String pathPrefix, @Nullable SecretKeySpec signKey, String expiresParam,
+        String signParam) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.pathPrefix = pathPrefix;
+        this.signKey = signKey;
+        this.expiresParam = expiresParam;
+        this.signParam = signParam;
+    }
+
+    /**
+     * An invalid {@code cdnHost} disables the host swap rather than failing, so that a typo does
+     * not break uploads of the policy.
+     */
+    static UrlRewriter compile(LskyProProperties properties) {
+        String scheme = null;
+        String host = null;
+        int port = -1;
+        if (StringUtils.hasText(properties.getCdnHost())) {
+            var cdnHost = properties.getCdnHost().trim();
+            if (!cdnHost.contains("://")) {
+                // keep the scheme of the link
+                cdnHost = "//" + cdnHost;
+            }
+            try {
+                final var uri = URI.create(cdnHost);
+                scheme = uri.getScheme();
+                host = uri.getHost();
+                port = uri.getPort();
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignore invalid CDN host {}: {}", cdnHost, e.getMessage());
+            }
+        }
+        var pathPrefix = StringUtils.hasText(properties.getCdnPathPrefix())
+            ? properties.getCdnPathPrefix().trim() : "";
+        if (!pathPrefix.isEmpty() && !pathPrefix.startsWith("/")) {
+            pathPrefix = "/" + pathPrefix;
+        }
+        if (pathPrefix.endsWith("/")) {
+            pathPrefix = pathPrefix.substring(0, pathPrefix.length() - 1);
+        }
+        pathPrefix = UriUtils.encodePath(pathPrefix, StandardCharsets.UTF_8);
+        final var signKey = StringUtils.hasText(properties.getCdnSignKey())
+            ? new SecretKeySpec(properties.getCdnSignKey().getBytes(StandardCharsets.UTF_8),
+            SIGN_ALGORITHM) : null;
+        return new UrlRewriter(scheme, host, port, pathPrefix, signKey,
+            StringUtils.hasText(properties.getCdnSignExpiresParam())
+                ? properties.getCdnSignExpiresParam().trim() : DEFAULT_EXPIRES_PARAM,
+            StringUtils.hasText(properties.getCdnSignParam())
+                ? properties.getCdnSignParam().trim() : DEFAULT_SIGN_PARAM);
+    }
+
+    /**
+     * The permanent URL of the given link, never signed since it is embedded in posts.
+     */
+    URI rewrite(String link) {
+        synchronized (cache) {
+            final var cached = cache.get(link);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final var rewritten = doRewrite(link);
+        synchronized (cache) {
+            cache.put(link, rewritten);
+        }
+        return rewritten;
+    }
+
+    /**
+     * A URL of the given link that is valid for at least {@code ttl}. Same as
+     * {@link #rewrite(String)} if signing is not configured.
+     */
+    URI share(String link, @Nullable Duration ttl) {
+        if (signKey == null || ttl == null) {
+            return rewrite(link);
+        }
+        final var now = Instant.now().getEpochSecond();
+        final var expires = Math.ceilDiv(now + Math.max(0, ttl.toSeconds()),
+            EXPIRY_GRANULARITY_SECONDS) * EXPIRY_GRANULARITY_SECONDS;
+        final var cacheKey = link + "\n" + expires;
+        synchronized (cache) {
+            final var cached = cache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final var base = rewrite(link);
+        final var signed = UriComponentsBuilder.fromUri(base)
+            .queryParam(expiresParam, expires)
+            .queryParam(signParam, sign(base.getRawPath(), expires))
+            .build(true)
+            .toUri();
+        synchronized (cache) {
+            cache.put(cacheKey, signed);
+        }
+        return signed;
+    }
+
+    private URI doRewrite(String link) {
+        final var uri = URI.create(link);
+        if (host == null && pathPrefix.isEmpty()) {
+            return uri;
+        }
+        final var builder = UriComponentsBuilder.fromUri(uri);
+        if (host != null) {
+            builder.host(host).port(port);
+            if (scheme != null) {
+                builder.scheme(scheme);
+            }
+        }
+        if (!pathPrefix.isEmpty()) {
+            builder.replacePath(pathPrefix + (uri.getRawPath() == null ? "" : uri.getRawPath()));
+        }
+        return builder.build(true).toUri();
+    }
+
+    /**
+     * Hex encoded HMAC-SHA256 of the rewritten (encoded) path followed by the expiry in epoch
+     * seconds, e.g. {@code /img/2024/01/a.png1735689600}.
+     */
+    String sign(String path, long expires) {
+        try {
+            final var mac = Mac.getInstance(SIGN_ALGORITHM);
+            mac.init(signKey);
+            return HexFormat.of().formatHex(
+                mac.doFinal((path + expires).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("Failed to sign CDN URL", e);
+        }
+    }
+}
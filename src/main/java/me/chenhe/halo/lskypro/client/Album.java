@@ -0,0 +1,25 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.util.List;
+
+/**
+ * An album of the user, as returned by {@code GET /albums}.
+ */
+public record Album(int id, String name, String intro, int image_num) {
+
+    /**
+     * One page of albums.
+     */
+    public record Page(
+        int current_page,
+        int last_page,
+        int per_page,
+        int total,
+        List<Album> data
+    ) {
+
+        public boolean hasNext() {
+            return current_page < last_page;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package me.chenhe.halo.lskypro.client;
+
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Limits the number of uploads in flight to one Lsky Pro instance, so that a busy policy cannot
+ * take all connections and memory from the others.
+ * <p>
+ * Uploads over the limit wait in a bounded FIFO queue for at most {@code maxWait}. Waiting does
+ * not block any thread: a permit is handed to the next waiter as soon as an upload finishes.
+ */
+@Slf4j
+public class Bulkhead {
+
+    private final String name;
+
+    private int maxConcurrent;
+    private int maxQueued;
+    private Duration maxWait;
+
+    private int active;
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder rejectedFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+
+    public Bulkhead(String name) {
+        this.name = name;
+        configure(1, 0, Duration.ZERO);
+    }
+
+    /**
+     * @param maxConcurrent Max number of uploads in flight.
+     * @param maxQueued     Max number of uploads waiting for a permit, {@code 0} to reject at
+     *                      once when full.
+     * @param maxWait       Max time an upload may wait for a permit.
+     */
+    public void configure(int maxConcurrent, int maxQueued, Duration maxWait) {
+        final List<Waiter> admittedNow = new ArrayList<>();
+        synchronized (this) {
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.maxQueued = Math.max(0, maxQueued);
+            this.maxWait = maxWait;
+            // a raised limit admits waiters right away rather than on the next release
+            while (active < this.maxConcurrent && !queue.isEmpty()) {
+                final var next = queue.poll();
+                active++;
+                next.permit = new Permit();
+                admittedNow.add(next);
+            }
+        }
+        // signalled outside the lock, the uploads are subscribed right away
+        admittedNow.forEach(Waiter::grant);
+    }
+
+    /**
+     * Subscribe to {@code source} once a permit is available, and give the permit back once it
+     * terminates or is cancelled.
+     *
+     * @return Errors with {@link BulkheadFullException} if the queue is full or the wait times
+     * out.
+     */
+    public <T> Mono<T> protect(Mono<T> source) {
+        return Mono.usingWhen(acquire(), permit -> source,
+            permit -> Mono.fromRunnable(permit::release),
+            (permit, e) -> Mono.fromRunnable(permit::release),
+            permit -> Mono.fromRunnable(permit::release));
+    }
+
+    Mono<Permit> acquire() {
+        return Mono.defer(() -> {
+            final Duration wait;
+            synchronized (this) {
+                wait = maxWait;
+            }
+            final var permit = Mono.<Permit>create(this::enqueue);
+            // without a wait nothing is queued, see enqueue
+            return (wait.isZero() ? permit : permit.timeout(wait))
+                .onErrorMap(TimeoutException.class, e -> {
+                    rejectedTimeout.increment();
+                    return new BulkheadFullException(name,
+                        "no upload slot within %s".formatted(wait));
+                });
+        });
+    }
+
+    private void enqueue(MonoSink<Permit> sink) {
+        final var waiter = new Waiter(sink, System.nanoTime());
+        // registered first, since the timeout may cancel as soon as the waiter is queued
+        sink.onCancel(() -> abandon(waiter));
+        final BulkheadFullException rejection;
+        synchronized (this) {
+            if (waiter.cancelled) {
+                return;
+            }
+            if (active < maxConcurrent && queue.isEmpty()) {
+                active++;
+                waiter.permit = new Permit();
+                rejection = null;
+            } else if (queue.size() >= maxQueued || maxWait.isZero()) {
+                rejection = new BulkheadFullException(name,
+                    "%d uploads in flight and %d waiting".formatted(active, queue.size()));
+            } else {
+                queue.add(waiter);
+                log.debug("Upload to LskyPro instance {} waits for a slot", name);
+                return;
+            }
+        }
+        // signalled outside the lock, the upload is subscribed right away
+        if (rejection != null) {
+            rejectedFull.increment();
+            sink.error(rejection);
+        } else {
+            waiter.grant();
+        }
+    }
+
+    /**
+     * The waiter gave up, e.g. timed out. If a permit was granted meanwhile it is passed on.
+     */
+    private void abandon(Waiter waiter) {
+        final Permit granted;
+        synchronized (this) {
+            waiter.cancelled = true;
+            if (queue.remove(waiter)) {
+                return;
+            }
+            granted = waiter.permit;
+        }
+        if (granted != null) {
+            granted.release();
+        }
+    }
+
+    private void release() {
+        final Waiter next;
+        synchronized (this) {
+            next = active <= maxConcurrent ? queue.poll() : null;
+            if (next == null) {
+                active--;
+                return;
+            }
+            // the permit goes to the next waiter, so the number in flight stays the same
+            next.permit = new Permit();
+        }
+        next.grant();
+    }
+
+    public synchronized Status getStatus() {
+        return new Status(maxConcurrent, active, queue.size(), admitted.sum(),
+            Duration.ofNanos(waitNanos.sum()), rejectedFull.sum(), rejectedTimeout.sum());
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public double getWaitSeconds() {
+        return waitNanos.sum() / 1e9;
+    }
+
+    public long getRejectedFull() {
+        return rejectedFull.sum();
+    }
+
+    public long getRejectedTimeout() {
+        return rejectedTimeout.sum();
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private final class Waiter {
+        final MonoSink<Permit> sink;
+        final long enqueuedNanos;
+        @Nullable Permit permit;
+        boolean cancelled;
+
+        Waiter(MonoSink<Permit> sink, long enqueuedNanos) {
+            this.sink = sink;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        void grant() {
+            admitted.increment();
+            waitNanos.add(System.nanoTime() - enqueuedNanos);
+            sink.success(permit);
+        }
+    }
+
+    /**
+     * A slot held by one upload. Releasing it more than once has no effect.
+     */
+    final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                Bulkhead.this.release();
+            }
+        }
+    }
+
+    /**
+     * @param maxConcurrent   Configured max number of uploads in flight.
+     * @param active          Uploads in flight.
+     * @param queued          Uploads waiting for a slot.
+     * @param admitted        Uploads admitted since plugin start.
+     * @param totalWait       Time spent waiting by all admitted uploads.
+     * @param rejectedFull    Uploads rejected since the queue was full.
+     * @param rejectedTimeout Uploads rejected since they waited too long.
+     */
+    public record Status(int maxConcurrent, int active, int queued, long admitted,
+                         Duration totalWait, long rejectedFull, long rejectedTimeout) {
+    }
+}
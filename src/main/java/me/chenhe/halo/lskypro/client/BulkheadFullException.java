@@ -0,0 +1,14 @@
+package me.chenhe.halo.lskypro.client;
+
+/**
+ * Thrown without sending any request if too many uploads to the instance are in flight, see
+ * {@link Bulkhead}.
+ */
+public class BulkheadFullException extends RuntimeException {
+    public final String instanceId;
+
+    BulkheadFullException(String instanceId, String reason) {
+        super("too many uploads to instance %s: %s".formatted(instanceId, reason));
+        this.instanceId = instanceId;
+    }
+}
@@ -0,0 +1,130 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * A circuit breaker guarding one Lsky Pro instance.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the circuit opens and all requests fail
+ * fast with {@link CircuitOpenException}. Once {@code openDuration} has passed, a single request
+ * is let through as a probe (half-open): the circuit closes if it succeeds, or opens again
+ * if it fails.
+ * <p>
+ * Only failures indicating the instance is unhealthy count, see
+ * {@link LskyProClient#isServerFailure(Throwable)}. Other errors (e.g. 401 or 413) neither count
+ * as failures nor prove the instance healthy, so a half-open circuit stays half-open and lets
+ * the next request probe.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Instant openedAt;
+    private boolean probing;
+
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+        this(name, failureThreshold, openDuration, Clock.systemUTC());
+    }
+
+    CircuitBreaker(String name, int failureThreshold, Duration openDuration, Clock clock) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    public <T> Mono<T> protect(Mono<T> source) {
+        return Mono.defer(() -> {
+            final var retryAfter = tryAcquire();
+            if (retryAfter != null) {
+                return Mono.error(new CircuitOpenException(name, retryAfter));
+            }
+            return source
+                .doOnSuccess(v -> onSuccess())
+                .doOnError(e -> {
+                    if (LskyProClient.isServerFailure(e)) {
+                        onFailure();
+                    } else {
+                        onIgnored();
+                    }
+                })
+                .doOnCancel(this::onCancel);
+        });
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return {@code null} if the request is permitted, otherwise the remaining time before the
+     * next probe.
+     */
+    private synchronized Duration tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return null;
+            case OPEN:
+                final var elapsed = Duration.between(openedAt, clock.instant());
+                if (elapsed.compareTo(openDuration) < 0) {
+                    return openDuration.minus(elapsed);
+                }
+                log.debug("Circuit breaker of LskyPro instance {} is half-open", name);
+                state = State.HALF_OPEN;
+                probing = true;
+                return null;
+            default:
+                if (probing) {
+                    return Duration.ZERO;
+                }
+                probing = true;
+                return null;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("LskyPro instance {} recovered, circuit breaker closed", name);
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                log.warn("LskyPro instance {} seems unhealthy, circuit breaker opened for {}",
+                    name, openDuration);
+            }
+            state = State.OPEN;
+            openedAt = clock.instant();
+        }
+        probing = false;
+    }
+
+    private synchronized void onIgnored() {
+        // release the probe slot without changing the state
+        probing = false;
+    }
+
+    private synchronized void onCancel() {
+        // let another request probe
+        probing = false;
+    }
+}
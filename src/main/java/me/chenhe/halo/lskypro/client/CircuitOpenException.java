@@ -0,0 +1,19 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.time.Duration;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown without sending any request while the circuit breaker of an instance is open.
+ */
+public class CircuitOpenException extends LskyProException {
+    public final String instanceId;
+    public final Duration retryAfter;
+
+    CircuitOpenException(String instanceId, Duration retryAfter) {
+        super(HttpStatus.SERVICE_UNAVAILABLE,
+            "instance %s is temporarily unavailable".formatted(instanceId));
+        this.instanceId = instanceId;
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,68 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.time.Duration;
+
+/**
+ * Recent latency and error rate of one Lsky Pro endpoint, as exponentially weighted moving
+ * averages.
+ */
+public class EndpointStats {
+
+    /**
+     * Weight of the newest sample.
+     */
+    static final double ALPHA = 0.2;
+
+    /**
+     * An endpoint that failed recently is ranked behind healthy ones for this long.
+     */
+    static final Duration FAILURE_PENALTY = Duration.ofSeconds(30);
+
+    private long samples;
+    private double latencyMillis;
+    private double errorRate;
+    private long lastFailureNanos;
+
+    public synchronized void recordSuccess(Duration latency) {
+        record(latency, 0);
+    }
+
+    public synchronized void recordFailure(Duration latency) {
+        record(latency, 1);
+        lastFailureNanos = System.nanoTime();
+    }
+
+    private void record(Duration latency, double error) {
+        final var millis = latency.toNanos() / 1e6;
+        if (samples == 0) {
+            latencyMillis = millis;
+            errorRate = error;
+        } else {
+            latencyMillis += ALPHA * (millis - latencyMillis);
+            errorRate += ALPHA * (error - errorRate);
+        }
+        samples++;
+    }
+
+    /**
+     * Lower is better. An endpoint without samples scores {@code 0} so that it is tried first.
+     */
+    public synchronized double score() {
+        if (samples == 0) {
+            return 0;
+        }
+        var score = latencyMillis * (1 + 10 * errorRate);
+        if (lastFailureNanos != 0
+            && System.nanoTime() - lastFailureNanos < FAILURE_PENALTY.toNanos()) {
+            score += FAILURE_PENALTY.toMillis();
+        }
+        return score;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(samples, latencyMillis, errorRate);
+    }
+
+    public record Snapshot(long samples, double latencyMillis, double errorRate) {
+    }
+}
@@ -0,0 +1,32 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.util.List;
+
+/**
+ * One page of the images owned by the user, as returned by {@code GET /images}.
+ */
+public record ImagePage(
+    int current_page,
+    int last_page,
+    int per_page,
+    int total,
+    List<Image> data
+) {
+
+    public boolean hasNext() {
+        return current_page < last_page;
+    }
+
+    /**
+     * @param size in KB
+     */
+    public record Image(
+        String key,
+        String name,
+        String origin_name,
+        float size,
+        String mimetype,
+        Links links
+    ) {
+    }
+}
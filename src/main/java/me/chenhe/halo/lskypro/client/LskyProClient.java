@@ -2,44 +2,105 @@ package me.chenhe.halo.lskypro.client;
 
 import jakarta.annotation.Nullable;
 import jakarta.validation.constraints.NotNull;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
+@Slf4j
 public class LskyProClient {
     protected WebClient client;
 
+    private final RetryOptions retryOptions;
+    private final @Nullable CircuitBreaker circuitBreaker;
+    private final @Nullable RateLimiter rateLimiter;
+    private final boolean hasToken;
+
     public LskyProClient(@NotNull String server, @Nullable String token) {
+        this(server, token, null, RetryOptions.NONE, null, null, null);
+    }
+
+    /**
+     * @param connector      The connector to send requests with, typically a shared one backed
+     *                       by a keep-alive connection pool. {@code null} to use the default
+     *                       connector.
+     * @param circuitBreaker The circuit breaker of the instance. {@code null} to disable.
+     * @param rateLimiter    The rate limiter of the instance. {@code null} to disable.
+     * @param customizer     Applied to the {@link WebClient.Builder} after built-in settings,
+     *                       e.g. to add instrumentation filters.
+     */
+    public LskyProClient(@NotNull String server, @Nullable String token,
+        @Nullable ClientHttpConnector connector, RetryOptions retryOptions,
+        @Nullable CircuitBreaker circuitBreaker, @Nullable RateLimiter rateLimiter,
+        @Nullable Consumer<WebClient.Builder> customizer) {
+        this.retryOptions = retryOptions;
+        this.circuitBreaker = circuitBreaker;
+        this.rateLimiter = rateLimiter;
+        this.hasToken = StringUtils.hasText(token);
         final String baseUrl = server + (server.endsWith("/") ? "" : "/") + "api/v1";
 
         var builder = WebClient.builder()
             .baseUrl(baseUrl)
             .defaultHeader("Accept", "application/json")
             .filter(errorHandler());
+        if (rateLimiter != null) {
+            // registered after the error handler so that it sees error responses as well
+            builder = builder.filter(ExchangeFilterFunction.ofResponseProcessor(resp -> {
+                rateLimiter.onResponse(resp.statusCode(), resp.headers().asHttpHeaders());
+                return Mono.just(resp);
+            }));
+        }
+        if (connector != null) {
+            builder = builder.clientConnector(connector);
+        }
         if (StringUtils.hasText(token)) {
             builder = builder.defaultHeader("Authorization", "Bearer " + token);
         }
+        if (customizer != null) {
+            customizer.accept(builder);
+        }
         client = builder.build();
     }
 
+    /**
+     * Whether requests are authenticated. Without a token, only APIs open to guests work, e.g.
+     * uploads if the server allows guest uploads.
+     */
+    public boolean hasToken() {
+        return hasToken;
+    }
+
     protected static ExchangeFilterFunction errorHandler() {
         return ExchangeFilterFunction.ofResponseProcessor(resp -> {
+            final var retryAfter = resp.headers().asHttpHeaders()
+                .getFirst(HttpHeaders.RETRY_AFTER);
             if (resp.statusCode().is5xxServerError()) {
                 return resp.bodyToMono(String.class)
-                    .flatMap(errorBody ->
-                        Mono.error(new LskyProException(resp.statusCode(), errorBody)));
+                    .defaultIfEmpty("")
+                    .flatMap(errorBody -> Mono.error(
+                        new LskyProException(resp.statusCode(), errorBody, retryAfter)));
             } else if (!resp.statusCode().is2xxSuccessful()) {
-                return resp.bodyToMono(LskyResponse.class).flatMap(body ->
-                    Mono.error(new LskyProException(resp.statusCode(), body.message)));
+                return resp.bodyToMono(LskyResponse.class).flatMap(body -> Mono.error(
+                    new LskyProException(resp.statusCode(), body.message, retryAfter)));
             }
             // 2xx
             return Mono.just(resp);
@@ -53,6 +114,26 @@ public class LskyProClient {
         @Nullable Integer strategyId,
         @Nullable Integer albumId
     ) {
+        return upload(content, filename, contentType, strategyId, albumId, false);
+    }
+
+    /**
+     * Uploads are not idempotent: a timeout or server error may come after the image is stored,
+     * and sending it again would store a duplicate. So an upload is only retried if the server
+     * certainly stored nothing, see {@link #isUploadRefused(Throwable)}.
+     *
+     * @param replayable Whether {@code content} can be subscribed again, in which case the upload
+     *                   is retried when the server refused it as well, rather than only on
+     *                   connection failures.
+     */
+    public Mono<UploadResponse> upload(
+        @NotNull Flux<DataBuffer> content,
+        @Nullable String filename,
+        @Nullable MediaType contentType,
+        @Nullable Integer strategyId,
+        @Nullable Integer albumId,
+        boolean replayable
+    ) {
 
         final var bodyBuilder = new MultipartBodyBuilder();
         final var filePartBuilder = bodyBuilder.asyncPart("file", content, DataBuffer.class);
@@ -72,13 +153,16 @@ public class LskyProClient {
             bodyBuilder.part("album_id", albumId);
         }
 
-        return client.post()
+        final var request = client.post()
             .uri("/upload")
             .contentType(MediaType.MULTIPART_FORM_DATA)
             .body(BodyInserters.fromMultipartData(bodyBuilder.build()))
             .retrieve()
             .bodyToMono(new ParameterizedTypeReference<LskyResponse<UploadResponse>>() {
-            })
+            });
+        // a one-shot content can only be consumed once, so only retry if it was not sent at all
+        return resilient(request, replayable
+                ? LskyProClient::isUploadRefused : LskyProClient::isConnectFailure)
             .flatMap(this::checkResponse)
             .flatMap((data) -> {
                 if (data == null || data.links() == null || !StringUtils.hasText(
@@ -91,15 +175,179 @@ public class LskyProClient {
     }
 
     public Mono<Void> delete(@NotNull String key) {
-        return client.delete()
+        final var request = client.delete()
             .uri("/images/" + key)
             .retrieve()
             .bodyToMono(new ParameterizedTypeReference<LskyResponse<Void>>() {
-            })
+            });
+        // delete is idempotent
+        return resilient(request, t -> isServerFailure(t) || isTooManyRequests(t))
             .flatMap((this::checkResponse))
             .then(Mono.empty());
     }
 
+    /**
+     * List images of the user, oldest first so that images uploaded meanwhile are appended to
+     * the last page instead of shifting the pages being read.
+     *
+     * @param page    1-based page number.
+     * @param albumId Only list images in this album. {@code null} for all images.
+     */
+    public Mono<ImagePage> listImages(int page, @Nullable Integer albumId) {
+        final var request = client.get()
+            .uri(builder -> {
+                builder.path("/images")
+                    .queryParam("page", page)
+                    .queryParam("order", "earliest");
+                if (albumId != null) {
+                    builder.queryParam("album_id", albumId);
+                }
+                return builder.build();
+            })
+            .retrieve()
+            .bodyToMono(new ParameterizedTypeReference<LskyResponse<ImagePage>>() {
+            });
+        return resilient(request, t -> isServerFailure(t) || isTooManyRequests(t))
+            .flatMap(this::checkResponse);
+    }
+
+    public Mono<List<Strategy>> listStrategies() {
+        final var request = client.get()
+            .uri("/strategies")
+            .retrieve()
+            .bodyToMono(new ParameterizedTypeReference<LskyResponse<Strategies>>() {
+            });
+        return resilient(request, t -> isServerFailure(t) || isTooManyRequests(t), false)
+            .flatMap(this::checkResponse)
+            .map(data -> data.strategies() == null ? List.<Strategy>of() : data.strategies());
+    }
+
+    /**
+     * @param page 1-based page number.
+     */
+    public Mono<Album.Page> listAlbums(int page) {
+        final var request = client.get()
+            .uri(builder -> builder.path("/albums")
+                .queryParam("page", page)
+                .queryParam("order", "earliest")
+                .build())
+            .retrieve()
+            .bodyToMono(new ParameterizedTypeReference<LskyResponse<Album.Page>>() {
+            });
+        return resilient(request, t -> isServerFailure(t) || isTooManyRequests(t), false)
+            .flatMap(this::checkResponse);
+    }
+
+    public Mono<Profile> getProfile() {
+        final var request = client.get()
+            .uri("/profile")
+            .retrieve()
+            .bodyToMono(new ParameterizedTypeReference<LskyResponse<Profile>>() {
+            });
+        return resilient(request, t -> isServerFailure(t) || isTooManyRequests(t), false)
+            .flatMap(this::checkResponse);
+    }
+
+    /**
+     * Request the profile of the user, the cheapest API that requires a valid token. Neither
+     * retried nor guarded by the circuit breaker, since it only checks the health of the server.
+     * <p>
+     * Without a token, the strategies are requested instead, and any response other than a
+     * server error counts as healthy, since the server may not show them to guests.
+     */
+    public Mono<Void> probe() {
+        if (!hasToken) {
+            return client.get()
+                .uri("/strategies")
+                .retrieve()
+                .toBodilessEntity()
+                .onErrorResume(e -> e instanceof LskyProException lskyProException
+                    && lskyProException.statusCode.is4xxClientError(), e -> Mono.empty())
+                .then();
+        }
+        return client.get()
+            .uri("/profile")
+            .retrieve()
+            .bodyToMono(new ParameterizedTypeReference<LskyResponse<Object>>() {
+            })
+            .flatMap(this::checkResponse)
+            .then();
+    }
+
+    private <T> Mono<T> resilient(Mono<T> request, Predicate<Throwable> retryable) {
+        return resilient(request, retryable, true);
+    }
+
+    /**
+     * Apply rate limit, retry and circuit breaker to the given request.
+     *
+     * @param retryable   Whether a failure is safe to retry.
+     * @param rateLimited Whether to wait for the rate limiter. Requests for the catalog of the
+     *                    account are few and cached, so they do not take the tokens of uploads
+     *                    and deletes. The limiter still learns from their responses.
+     */
+    private <T> Mono<T> resilient(Mono<T> request, Predicate<Throwable> retryable,
+        boolean rateLimited) {
+        var mono = rateLimiter == null || !rateLimited ? request
+            : rateLimiter.acquire().then(request);
+        if (retryOptions.enabled()) {
+            mono = mono.retryWhen(Retry
+                .backoff(retryOptions.maxRetries(), retryOptions.minBackoff())
+                .jitter(0.5)
+                .filter(retryable)
+                .doBeforeRetry(signal -> log.debug("Retry LskyPro request (#{}) due to: {}",
+                    signal.totalRetries() + 1, signal.failure().getMessage()))
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+        }
+        return circuitBreaker == null ? mono : circuitBreaker.protect(mono);
+    }
+
+    /**
+     * Whether the failure indicates that the server is unhealthy, rather than a problem of the
+     * request itself.
+     */
+    static boolean isServerFailure(Throwable t) {
+        if (t instanceof CircuitOpenException || t instanceof RateLimitedException) {
+            return false;
+        }
+        if (t instanceof LskyProException e) {
+            return e.statusCode.is5xxServerError();
+        }
+        return t instanceof WebClientRequestException || t instanceof TimeoutException;
+    }
+
+    /**
+     * Whether the server rejected the request due to its rate limit.
+     */
+    static boolean isTooManyRequests(Throwable t) {
+        return t instanceof LskyProException e && !(t instanceof RateLimitedException)
+            && e.statusCode.value() == 429;
+    }
+
+    /**
+     * Whether the server certainly did not store a failed upload: it was not sent at all, or the
+     * server refused to handle it for now, i.e. 429, or 503 with {@code Retry-After} as in
+     * maintenance mode.
+     */
+    static boolean isUploadRefused(Throwable t) {
+        if (isConnectFailure(t) || isTooManyRequests(t)) {
+            return true;
+        }
+        return t instanceof LskyProException e && !(t instanceof RateLimitedException)
+            && e.statusCode.value() == 503 && e.retryAfter != null;
+    }
+
+    /**
+     * Whether the request failed before a connection was established, i.e. nothing was sent.
+     */
+    static boolean isConnectFailure(Throwable t) {
+        if (!(t instanceof WebClientRequestException)) {
+            return false;
+        }
+        final var cause = t.getCause();
+        return cause instanceof ConnectException || cause instanceof UnknownHostException;
+    }
+
     /**
      * Verify that the Lsky Pro API response status is {@code true}.
      */
@@ -114,4 +362,7 @@ public class LskyProClient {
     public record LskyResponse<T>(boolean status, String message, T data) {
     }
 
+    record Strategies(List<Strategy> strategies) {
+    }
+
 }
@@ -1,12 +1,23 @@
 package me.chenhe.halo.lskypro.client;
 
+import jakarta.annotation.Nullable;
 import org.springframework.http.HttpStatusCode;
 
 public class LskyProException extends RuntimeException {
     public HttpStatusCode statusCode;
 
+    /**
+     * The {@code Retry-After} header of the error response, if any.
+     */
+    public @Nullable String retryAfter;
+
     LskyProException(HttpStatusCode statusCode, String message) {
+        this(statusCode, message, null);
+    }
+
+    LskyProException(HttpStatusCode statusCode, String message, @Nullable String retryAfter) {
         super(message);
         this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
     }
 }
@@ -0,0 +1,69 @@
+package me.chenhe.halo.lskypro.client;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * A keep-alive connection pool and the connector sending requests through it, built from
+ * {@link TransportOptions}.
+ */
+@Slf4j
+public class LskyProTransport {
+
+    static final Duration EVICTION_INTERVAL = Duration.ofSeconds(60);
+
+    private final ConnectionProvider connectionProvider;
+    private final ClientHttpConnector connector;
+
+    private LskyProTransport(ConnectionProvider connectionProvider,
+        ClientHttpConnector connector) {
+        this.connectionProvider = connectionProvider;
+        this.connector = connector;
+    }
+
+    public static LskyProTransport create(String name, TransportOptions options) {
+        final var connectionProvider = ConnectionProvider.builder(name)
+            .maxConnections(options.maxConnections())
+            .pendingAcquireMaxCount(options.pendingAcquireMaxCount())
+            .pendingAcquireTimeout(options.pendingAcquireTimeout())
+            .maxIdleTime(options.maxIdleTime())
+            .evictInBackground(EVICTION_INTERVAL)
+            .build();
+        final var writeTimeoutMillis = options.writeTimeout().toMillis();
+        final var httpClient = HttpClient.create(connectionProvider)
+            .keepAlive(true)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                (int) Math.min(Integer.MAX_VALUE, options.connectTimeout().toMillis()))
+            .responseTimeout(options.responseTimeout())
+            .doOnConnected(conn -> conn.addHandlerLast(
+                new WriteTimeoutHandler(writeTimeoutMillis, TimeUnit.MILLISECONDS)))
+            .compress(options.compression())
+            .protocol(switch (options.protocol()) {
+                case HTTP_1_1 -> new HttpProtocol[] {HttpProtocol.HTTP11};
+                case H2 -> new HttpProtocol[] {HttpProtocol.H2, HttpProtocol.HTTP11};
+                case H2C -> new HttpProtocol[] {HttpProtocol.H2C, HttpProtocol.HTTP11};
+            });
+        log.debug("Created LskyPro transport {} with {}", name, options);
+        return new LskyProTransport(connectionProvider, new ReactorClientHttpConnector(httpClient));
+    }
+
+    public ClientHttpConnector connector() {
+        return connector;
+    }
+
+    /**
+     * Close the connection pool, including connections in use.
+     */
+    public Mono<Void> dispose() {
+        return connectionProvider.disposeLater();
+    }
+}
@@ -0,0 +1,24 @@
+package me.chenhe.halo.lskypro.client;
+
+/**
+ * The account of the token, as returned by {@code GET /profile}.
+ *
+ * @param capacity      Total capacity in KB.
+ * @param used_capacity Used capacity in KB.
+ */
+public record Profile(
+    String name,
+    String email,
+    double capacity,
+    double used_capacity,
+    int image_num,
+    int album_num
+) {
+
+    /**
+     * @return Remaining capacity in KB, never negative.
+     */
+    public double remainingCapacity() {
+        return Math.max(0, capacity - used_capacity);
+    }
+}
@@ -0,0 +1,17 @@
+package me.chenhe.halo.lskypro.client;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown without sending any request if the client-side rate limit would make the request wait
+ * too long.
+ */
+public class RateLimitedException extends LskyProException {
+    public final String instanceId;
+
+    RateLimitedException(String instanceId) {
+        super(HttpStatus.TOO_MANY_REQUESTS,
+            "too many requests to instance %s".formatted(instanceId));
+        this.instanceId = instanceId;
+    }
+}
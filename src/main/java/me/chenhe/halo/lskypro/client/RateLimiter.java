@@ -0,0 +1,159 @@
+package me.chenhe.halo.lskypro.client;
+
+import jakarta.annotation.Nullable;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import reactor.core.publisher.Mono;
+
+/**
+ * A token bucket limiting the request rate to one Lsky Pro instance.
+ * <p>
+ * Besides the configured rate, it also follows what the server says: a {@code Retry-After}
+ * header (or {@code X-RateLimit-Remaining: 0} together with {@code X-RateLimit-Reset}) blocks
+ * all requests until then, and {@code X-RateLimit-Remaining} caps the available tokens so that
+ * we never burst beyond the server's quota.
+ * <p>
+ * Requests over budget wait for a token instead of failing, as long as the wait does not exceed
+ * {@code maxWait}.
+ */
+@Slf4j
+public class RateLimiter {
+
+    static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    static final String HEADER_RESET = "X-RateLimit-Reset";
+
+    private final String name;
+
+    /**
+     * Tokens refilled per nanosecond, {@code 0} for unlimited.
+     */
+    private double refillPerNano;
+    private double capacity;
+    private Duration maxWait;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Do not send requests before this time ({@link System#nanoTime()}).
+     */
+    private long blockedUntilNanos;
+
+    public RateLimiter(String name) {
+        this.name = name;
+        this.lastRefillNanos = System.nanoTime();
+        this.blockedUntilNanos = lastRefillNanos;
+        configure(0, 0, Duration.ZERO);
+    }
+
+    /**
+     * @param permitsPerMinute Max number of requests per minute. {@code 0} for unlimited, in
+     *                         which case only the server headers are respected.
+     * @param burst            Max number of requests sent at once, {@code 0} to use
+     *                         {@code permitsPerMinute}.
+     * @param maxWait          Max time a request may wait for a token.
+     */
+    public synchronized void configure(int permitsPerMinute, int burst, Duration maxWait) {
+        final var wasUnlimited = refillPerNano == 0;
+        this.refillPerNano = permitsPerMinute <= 0 ? 0 : permitsPerMinute / 60e9;
+        this.capacity = permitsPerMinute <= 0 ? 0 : Math.max(1, burst > 0 ? burst :
+            permitsPerMinute);
+        // start with a full bucket
+        this.tokens = wasUnlimited ? capacity : Math.min(tokens, capacity);
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Wait for a token.
+     *
+     * @return Completes once the request is allowed to be sent, or errors with
+     * {@link RateLimitedException} if it would wait longer than {@code maxWait}.
+     */
+    public Mono<Void> acquire() {
+        return Mono.defer(() -> {
+            final var waitNanos = reserve();
+            if (waitNanos < 0) {
+                return Mono.error(new RateLimitedException(name));
+            }
+            if (waitNanos == 0) {
+                return Mono.empty();
+            }
+            log.debug("Request to LskyPro instance {} is throttled for {}ms", name,
+                waitNanos / 1_000_000);
+            return Mono.delay(Duration.ofNanos(waitNanos)).then();
+        });
+    }
+
+    /**
+     * Take a token in advance.
+     *
+     * @return Nanoseconds to wait before the token is available, or {@code -1} if it exceeds
+     * {@code maxWait} (no token is taken in that case).
+     */
+    private synchronized long reserve() {
+        final var now = System.nanoTime();
+        refill(now);
+        long waitNanos = Math.max(0, blockedUntilNanos - now);
+        if (refillPerNano > 0) {
+            final var tokensAfter = tokens - 1;
+            if (tokensAfter < 0) {
+                waitNanos = Math.max(waitNanos, (long) (-tokensAfter / refillPerNano));
+            }
+            if (waitNanos > maxWait.toNanos()) {
+                return -1;
+            }
+            tokens = tokensAfter;
+        } else if (waitNanos > maxWait.toNanos()) {
+            return -1;
+        }
+        return waitNanos;
+    }
+
+    private void refill(long now) {
+        if (refillPerNano > 0) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNano);
+        }
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Learn the server-side quota from response headers.
+     */
+    public synchronized void onResponse(HttpStatusCode status, HttpHeaders headers) {
+        final var now = System.nanoTime();
+        final var remaining = parseLong(headers.getFirst(HEADER_REMAINING));
+        if (remaining != null && refillPerNano > 0) {
+            refill(now);
+            tokens = Math.min(tokens, remaining);
+        }
+
+        Duration blockFor = null;
+        final var retryAfter = parseLong(headers.getFirst(HttpHeaders.RETRY_AFTER));
+        if (retryAfter != null && (status.value() == 429 || status.value() == 503
+            || (remaining != null && remaining <= 0))) {
+            blockFor = Duration.ofSeconds(retryAfter);
+        } else if (remaining != null && remaining <= 0) {
+            final var reset = parseLong(headers.getFirst(HEADER_RESET));
+            if (reset != null) {
+                blockFor = Duration.ofSeconds(reset - System.currentTimeMillis() / 1000);
+            }
+        }
+        if (blockFor != null && !blockFor.isNegative()) {
+            log.debug("LskyPro instance {} asks to slow down for {}", name, blockFor);
+            blockedUntilNanos = Math.max(blockedUntilNanos, now + blockFor.toNanos());
+        }
+    }
+
+    private static @Nullable Long parseLong(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
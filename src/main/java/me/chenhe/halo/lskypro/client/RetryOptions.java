@@ -0,0 +1,18 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.time.Duration;
+
+/**
+ * How {@link LskyProClient} retries transient failures.
+ *
+ * @param maxRetries Max number of retries, {@code 0} to disable.
+ * @param minBackoff Backoff before the first retry, doubled (with jitter) on each retry.
+ */
+public record RetryOptions(int maxRetries, Duration minBackoff) {
+
+    public static final RetryOptions NONE = new RetryOptions(0, Duration.ZERO);
+
+    public boolean enabled() {
+        return maxRetries > 0;
+    }
+}
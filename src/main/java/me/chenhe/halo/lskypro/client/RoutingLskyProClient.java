@@ -0,0 +1,161 @@
+package me.chenhe.halo.lskypro.client;
+
+import jakarta.annotation.Nullable;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends requests of one policy to a set of mirrored Lsky Pro endpoints sharing the same storage.
+ * <p>
+ * Endpoints are ranked by their recent latency and error rate, see {@link EndpointStats}. A
+ * request goes to the best one and fails over to the next if the endpoint is unhealthy. Once in
+ * a while a random endpoint is tried first, so that a recovered endpoint gets noticed.
+ */
+@Slf4j
+public class RoutingLskyProClient {
+
+    /**
+     * Probability of trying a random endpoint first.
+     */
+    static final double EXPLORATION_RATE = 0.05;
+
+    private final List<Endpoint> endpoints;
+
+    public RoutingLskyProClient(List<Endpoint> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        this.endpoints = List.copyOf(endpoints);
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * See {@link LskyProClient#hasToken()}. All endpoints share the same token.
+     */
+    public boolean hasToken() {
+        return endpoints.get(0).client().hasToken();
+    }
+
+    /**
+     * See {@link LskyProClient#upload(Flux, String, MediaType, Integer, Integer, boolean)}.
+     * <p>
+     * Like retries, an upload only fails over if the endpoint certainly stored nothing, since
+     * mirrors share the same storage. A one-shot content only fails over if it was not sent at
+     * all.
+     */
+    public Mono<UploadResponse> upload(
+        @NotNull Flux<DataBuffer> content,
+        @Nullable String filename,
+        @Nullable MediaType contentType,
+        @Nullable Integer strategyId,
+        @Nullable Integer albumId,
+        boolean replayable
+    ) {
+        return route(client -> client.upload(content, filename, contentType, strategyId,
+                albumId, replayable),
+            replayable
+                ? t -> LskyProClient.isUploadRefused(t) || t instanceof CircuitOpenException
+                : t -> LskyProClient.isConnectFailure(t) || t instanceof CircuitOpenException);
+    }
+
+    public Mono<Void> delete(@NotNull String key) {
+        return route(client -> client.delete(key), RoutingLskyProClient::isEndpointFailure);
+    }
+
+    public Mono<ImagePage> listImages(int page, @Nullable Integer albumId) {
+        return route(client -> client.listImages(page, albumId),
+            RoutingLskyProClient::isEndpointFailure);
+    }
+
+    public Mono<List<Strategy>> listStrategies() {
+        return route(LskyProClient::listStrategies, RoutingLskyProClient::isEndpointFailure);
+    }
+
+    public Mono<Album.Page> listAlbums(int page) {
+        return route(client -> client.listAlbums(page), RoutingLskyProClient::isEndpointFailure);
+    }
+
+    public Mono<Profile> getProfile() {
+        return route(LskyProClient::getProfile, RoutingLskyProClient::isEndpointFailure);
+    }
+
+    private <T> Mono<T> route(Function<LskyProClient, Mono<T>> request,
+        Predicate<Throwable> failover) {
+        return Mono.defer(() -> attempt(rank(), 0, request, failover));
+    }
+
+    private <T> Mono<T> attempt(List<Endpoint> ranked, int index,
+        Function<LskyProClient, Mono<T>> request, Predicate<Throwable> failover) {
+        final var endpoint = ranked.get(index);
+        return Mono.defer(() -> {
+                final var start = System.nanoTime();
+                return request.apply(endpoint.client())
+                    .doOnSuccess(v -> endpoint.stats().recordSuccess(since(start)))
+                    .doOnError(e -> {
+                        // an open circuit fails fast and says nothing about the latency
+                        if (isEndpointFailure(e) && !(e instanceof CircuitOpenException)) {
+                            endpoint.stats().recordFailure(since(start));
+                        }
+                    });
+            })
+            .onErrorResume(e -> index + 1 < ranked.size() && failover.test(e), e -> {
+                log.warn("LskyPro endpoint {} failed, fail over to {}: {}", endpoint.url(),
+                    ranked.get(index + 1).url(), e.getMessage());
+                return attempt(ranked, index + 1, request, failover);
+            });
+    }
+
+    /**
+     * Endpoints in the order they should be tried.
+     */
+    List<Endpoint> rank() {
+        if (endpoints.size() == 1) {
+            return endpoints;
+        }
+        // scores change concurrently, so take them once before sorting
+        final var scores = new IdentityHashMap<Endpoint, Double>();
+        endpoints.forEach(e -> scores.put(e, e.stats().score()));
+        final var ranked = new ArrayList<>(endpoints);
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        final var random = ThreadLocalRandom.current();
+        if (random.nextDouble() < EXPLORATION_RATE) {
+            ranked.add(0, ranked.remove(random.nextInt(ranked.size())));
+        }
+        return ranked;
+    }
+
+    /**
+     * Whether the failure is specific to the endpoint, so that another one may succeed.
+     */
+    static boolean isEndpointFailure(Throwable t) {
+        return LskyProClient.isServerFailure(t) || LskyProClient.isTooManyRequests(t)
+            || t instanceof CircuitOpenException;
+    }
+
+    private static Duration since(long startNanos) {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param url    The base URL, as {@code lskyUrl}.
+     * @param client The client of this endpoint, with its own circuit breaker.
+     * @param stats  Kept across policy changes, so a new client starts with known health.
+     */
+    public record Endpoint(String url, LskyProClient client, EndpointStats stats) {
+    }
+}
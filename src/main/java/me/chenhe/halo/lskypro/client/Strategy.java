@@ -0,0 +1,7 @@
+package me.chenhe.halo.lskypro.client;
+
+/**
+ * A storage strategy available to the user, as returned by {@code GET /strategies}.
+ */
+public record Strategy(int id, String name) {
+}
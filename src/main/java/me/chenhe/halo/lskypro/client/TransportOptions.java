@@ -0,0 +1,54 @@
+package me.chenhe.halo.lskypro.client;
+
+import java.time.Duration;
+
+/**
+ * How {@link LskyProClient} talks HTTP to an instance, see {@link LskyProTransport}.
+ *
+ * @param connectTimeout         Max time to establish a connection.
+ * @param responseTimeout        Max time without receiving anything once the request is sent.
+ * @param writeTimeout           Max time a single write may take, e.g. a chunk of an upload.
+ * @param maxConnections         Max number of connections, per host.
+ * @param pendingAcquireMaxCount Max number of requests waiting for a connection, further
+ *                               requests fail at once.
+ * @param pendingAcquireTimeout  Max time a request may wait for a connection.
+ * @param maxIdleTime            Idle connections are closed after this.
+ * @param protocol               The HTTP version to speak.
+ * @param compression            Whether to accept compressed responses.
+ */
+public record TransportOptions(
+    Duration connectTimeout,
+    Duration responseTimeout,
+    Duration writeTimeout,
+    int maxConnections,
+    int pendingAcquireMaxCount,
+    Duration pendingAcquireTimeout,
+    Duration maxIdleTime,
+    Protocol protocol,
+    boolean compression
+) {
+
+    public static final TransportOptions DEFAULT = new TransportOptions(
+        Duration.ofSeconds(10),
+        Duration.ofSeconds(60),
+        Duration.ofSeconds(30),
+        64,
+        256,
+        Duration.ofSeconds(45),
+        Duration.ofSeconds(30),
+        Protocol.HTTP_1_1,
+        false);
+
+    public enum Protocol {
+        HTTP_1_1,
+        /**
+         * HTTP/2 over TLS, negotiated with ALPN and falling back to HTTP/1.1. Only takes effect
+         * for {@code https} URLs.
+         */
+        H2,
+        /**
+         * HTTP/2 over cleartext, upgraded from HTTP/1.1.
+         */
+        H2C
+    }
+}
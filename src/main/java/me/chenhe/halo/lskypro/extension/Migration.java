@@ -0,0 +1,109 @@
+package me.chenhe.halo.lskypro.extension;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import run.halo.app.extension.AbstractExtension;
+import run.halo.app.extension.GVK;
+
+/**
+ * A run moving attachments of another policy into a Lsky Pro policy.
+ * <p>
+ * Attachments are migrated in the order of their names, and the name of the last migrated page
+ * is saved as checkpoint so that the run can be paused and resumed, also across restarts.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@GVK(group = "lsky-pro.chenhe.me", version = "v1alpha1", kind = "Migration",
+    plural = "migrations", singular = "migration")
+public class Migration extends AbstractExtension {
+
+    @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+    private Spec spec;
+
+    private Status status = new Status();
+
+    public enum Phase {
+        RUNNING, PAUSED, COMPLETED, FAILED
+    }
+
+    @Data
+    public static class Spec {
+        /**
+         * The policy to migrate attachments from.
+         */
+        @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+        private String sourcePolicyName;
+
+        /**
+         * The Lsky Pro policy to migrate attachments to.
+         */
+        @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+        private String targetPolicyName;
+
+        /**
+         * Max number of attachments migrated at once.
+         */
+        private int concurrency;
+
+        /**
+         * Used to resolve relative permalinks of the source attachments, e.g. local files.
+         */
+        private String baseUrl;
+    }
+
+    @Data
+    public static class Status {
+        private Phase phase;
+
+        /**
+         * Name of the last attachment handled, the next run starts after it.
+         */
+        private String checkpoint;
+
+        /**
+         * Source attachments not handled yet, as of the last page.
+         */
+        private long remaining;
+
+        private long migrated;
+
+        /**
+         * Attachments that are not images.
+         */
+        private long skipped;
+
+        private long failed;
+
+        /**
+         * Total size of migrated images in bytes.
+         */
+        private long bytes;
+
+        /**
+         * Time spent running, excluding pauses.
+         */
+        private long elapsedMillis;
+
+        private Instant startedAt;
+
+        private Instant updatedAt;
+
+        private String lastError;
+
+        /**
+         * Rounds of retrying {@link #failedAttachments} done after all pages.
+         */
+        private int retryRounds;
+
+        /**
+         * Names of the attachments that failed to migrate, capped to the most recent ones. They
+         * are left in the source policy, retried once all pages are done, and otherwise by a new
+         * migration.
+         */
+        private List<String> failedAttachments = new ArrayList<>();
+    }
+}
@@ -0,0 +1,50 @@
+package me.chenhe.halo.lskypro.extension;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import run.halo.app.extension.AbstractExtension;
+import run.halo.app.extension.GVK;
+
+/**
+ * An image waiting to be deleted from Lsky Pro.
+ * <p>
+ * Persisted so that deletes accepted by the write-behind queue survive restarts.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@GVK(group = "lsky-pro.chenhe.me", version = "v1alpha1", kind = "PendingDelete",
+    plural = "pendingdeletes", singular = "pendingdelete")
+public class PendingDelete extends AbstractExtension {
+
+    @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+    private Spec spec;
+
+    @Data
+    public static class Spec {
+        @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+        private String imageKey;
+
+        @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+        private String instanceId;
+
+        /**
+         * The policy whose settings are used to delete the image.
+         */
+        @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+        private String policyName;
+
+        /**
+         * How many times the delete has failed.
+         */
+        private int attempts;
+
+        /**
+         * Not to retry before this time. {@code null} means as soon as possible.
+         */
+        private Instant nextAttemptAt;
+
+        private String lastError;
+    }
+}
@@ -0,0 +1,88 @@
+package me.chenhe.halo.lskypro.extension;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import run.halo.app.extension.AbstractExtension;
+import run.halo.app.extension.GVK;
+
+/**
+ * A run comparing the images in Lsky Pro with the attachments of a Lsky Pro policy.
+ * <p>
+ * Orphan images exist in Lsky Pro but are not referenced by any attachment, e.g. because a
+ * delete failed. Dangling attachments point at images that no longer exist in Lsky Pro, e.g.
+ * because they were deleted in the Lsky Pro web UI.
+ */
+@Data
+@EqualsAndHashCode(callSuper = true)
+@GVK(group = "lsky-pro.chenhe.me", version = "v1alpha1", kind = "Reconciliation",
+    plural = "reconciliations", singular = "reconciliation")
+public class Reconciliation extends AbstractExtension {
+
+    @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+    private Spec spec;
+
+    private Status status = new Status();
+
+    public enum Phase {
+        RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    @Data
+    public static class Spec {
+        @Schema(requiredMode = Schema.RequiredMode.REQUIRED)
+        private String policyName;
+
+        /**
+         * Delete orphan images from Lsky Pro. Otherwise they are only reported.
+         */
+        private boolean deleteOrphanImages;
+
+        /**
+         * Delete dangling attachments from Halo. Otherwise they are only reported.
+         */
+        private boolean deleteDanglingAttachments;
+
+        /**
+         * Max number of requests per second this run sends to Lsky Pro, on top of the rate
+         * limit of the policy.
+         */
+        private double requestsPerSecond;
+    }
+
+    @Data
+    public static class Status {
+        private Phase phase;
+
+        private long attachmentsScanned;
+
+        private long imagesScanned;
+
+        private long orphanImages;
+
+        private long danglingAttachments;
+
+        private long deletedImages;
+
+        private long deletedAttachments;
+
+        /**
+         * Keys of orphan images, capped to the first ones found.
+         */
+        private List<String> orphanImageKeys = new ArrayList<>();
+
+        /**
+         * Names of dangling attachments, capped to the first ones found.
+         */
+        private List<String> danglingAttachmentNames = new ArrayList<>();
+
+        private Instant startedAt;
+
+        private Instant completedAt;
+
+        private String lastError;
+    }
+}
@@ -0,0 +1,75 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import org.junit.jupiter.api.Test;
+
+class BlurHashTest {
+
+    /**
+     * Expected hashes computed with a port of the reference encoder, which samples the basis
+     * functions at whole pixels, so even a solid image has small AC components.
+     */
+    @Test
+    void matchesReferenceEncoder() {
+        assertEquals("LsTSUA_3fQ_3~qt7fQt7fQfQfQfQ", BlurHash.encode(solid(Color.WHITE), 4, 3));
+        assertEquals("L;H1y870wxX8omWrjtfSfVfRfQfR", BlurHash.encode(gradient(), 4, 3));
+        assertEquals("000000", BlurHash.encode(solid(Color.BLACK), 1, 1));
+    }
+
+    @Test
+    void encodesComponentCount() {
+        final var image = gradient();
+        assertEquals(1 + 1 + 4 + 2 * (9 * 9 - 1), BlurHash.encode(image, 9, 9).length());
+        assertEquals('8', BlurHash.encode(image, 9, 1).charAt(0));
+        assertEquals(6, BlurHash.encode(image, 1, 1).length());
+    }
+
+    @Test
+    void distinguishesMirroredImages() {
+        final var image = gradient();
+        final var mirrored = new BufferedImage(image.getWidth(), image.getHeight(),
+            BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < image.getWidth(); x++) {
+            for (int y = 0; y < image.getHeight(); y++) {
+                mirrored.setRGB(image.getWidth() - 1 - x, y, image.getRGB(x, y));
+            }
+        }
+        final var hash = BlurHash.encode(image, 4, 3);
+        final var mirroredHash = BlurHash.encode(mirrored, 4, 3);
+        // same average colour, opposite horizontal component
+        assertEquals(hash.substring(0, 6), mirroredHash.substring(0, 6));
+        assertNotEquals(hash, mirroredHash);
+    }
+
+    @Test
+    void rejectsInvalidComponents() {
+        assertThrows(IllegalArgumentException.class,
+            () -> BlurHash.encode(solid(Color.WHITE), 0, 3));
+        assertThrows(IllegalArgumentException.class,
+            () -> BlurHash.encode(solid(Color.WHITE), 4, 10));
+    }
+
+    private static BufferedImage solid(Color color) {
+        final var image = new BufferedImage(8, 6, BufferedImage.TYPE_INT_RGB);
+        final var graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, 8, 6);
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage gradient() {
+        final var image = new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 32; x++) {
+            for (int y = 0; y < 24; y++) {
+                image.setRGB(x, y, new Color(x * 8, 128, 255 - y * 10).getRGB());
+            }
+        }
+        return image;
+    }
+}
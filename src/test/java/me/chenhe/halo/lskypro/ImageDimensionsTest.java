@@ -0,0 +1,82 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import me.chenhe.halo.lskypro.ImageDimensions.Dimensions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ImageDimensionsTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"png", "gif", "jpeg", "bmp"})
+    void readsEncodedImages(String format) throws IOException {
+        final var data = ImageTransformerTest.encode(format, 40, 20);
+        assertEquals(new Dimensions(40, 20), ImageDimensions.read(data));
+    }
+
+    @Test
+    void readsTruncatedPrefix() throws IOException {
+        final var data = ImageTransformerTest.encode("png", 640, 480);
+        assertEquals(new Dimensions(640, 480), ImageDimensions.read(Arrays.copyOf(data, 24)));
+        assertNull(ImageDimensions.read(Arrays.copyOf(data, 20)));
+    }
+
+    @Test
+    void appliesJpegOrientation() throws IOException {
+        final var data = ImageTransformerTest.encode("jpeg", 40, 20);
+        // orientations 5 to 8 rotate by 90 degrees
+        assertEquals(new Dimensions(20, 40), read(data, 6, true));
+        assertEquals(new Dimensions(20, 40), read(data, 8, false));
+        assertEquals(new Dimensions(40, 20), read(data, 3, true));
+    }
+
+    @Test
+    void readsWebpVp8x() {
+        final var data = webp("VP8X", 30);
+        // canvas size minus one, 24 bits each
+        data.put(24, (byte) 0x1F).put(25, (byte) 0x03).put(26, (byte) 0);
+        data.put(27, (byte) 0xDF).put(28, (byte) 0x01).put(29, (byte) 0);
+        assertEquals(new Dimensions(800, 480), ImageDimensions.read(data.array()));
+    }
+
+    @Test
+    void readsWebpVp8() {
+        final var data = webp("VP8 ", 30);
+        data.putShort(26, (short) 1024).putShort(28, (short) 768);
+        assertEquals(new Dimensions(1024, 768), ImageDimensions.read(data.array()));
+    }
+
+    @Test
+    void readsWebpVp8l() {
+        final var data = webp("VP8L", 30);
+        data.put(20, (byte) 0x2F);
+        data.putInt(21, (300 - 1) | ((200 - 1) << 14));
+        assertEquals(new Dimensions(300, 200), ImageDimensions.read(data.array()));
+    }
+
+    @Test
+    void rejectsUnknownFormat() {
+        assertNull(ImageDimensions.read("not an image at all".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Dimensions read(byte[] jpeg, int orientation, boolean littleEndian) {
+        return ImageDimensions.read(
+            ImageTransformerTest.withOrientation(jpeg, orientation, littleEndian));
+    }
+
+    private static ByteBuffer webp(String chunk, int length) {
+        final var data = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        data.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(length - 8)
+            .put("WEBP".getBytes(StandardCharsets.US_ASCII))
+            .put(chunk.getBytes(StandardCharsets.US_ASCII));
+        return data;
+    }
+}
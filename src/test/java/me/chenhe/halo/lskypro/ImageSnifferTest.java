@@ -0,0 +1,91 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+
+class ImageSnifferTest {
+
+    @Test
+    void detectsEncodedImages() throws IOException {
+        assertEquals(MediaType.IMAGE_PNG,
+            ImageSniffer.detect(ImageTransformerTest.encode("png", 4, 4)));
+        assertEquals(MediaType.IMAGE_JPEG,
+            ImageSniffer.detect(ImageTransformerTest.encode("jpeg", 4, 4)));
+        assertEquals(MediaType.IMAGE_GIF,
+            ImageSniffer.detect(ImageTransformerTest.encode("gif", 4, 4)));
+        assertEquals(ImageSniffer.IMAGE_BMP,
+            ImageSniffer.detect(ImageTransformerTest.encode("bmp", 4, 4)));
+    }
+
+    @Test
+    void detectsWebpAndAvif() {
+        assertEquals(ImageSniffer.IMAGE_WEBP, ImageSniffer.detect(ascii("RIFF\0\0\0\0WEBPVP8 ")));
+        assertEquals(ImageSniffer.IMAGE_AVIF,
+            ImageSniffer.detect(ascii("\0\0\0\u0018ftypmif1\0\0\0\0avifmif1")));
+        assertNull(ImageSniffer.detect(ascii("\0\0\0\u0014ftypisom\0\0\0\0mp41")));
+    }
+
+    @Test
+    void detectsSvgRoot() {
+        assertEquals(ImageSniffer.IMAGE_SVG, ImageSniffer.detect(utf8(
+            "\uFEFF<?xml version=\"1.0\"?>\n<!-- <html> -->\n"
+                + "<!DOCTYPE svg PUBLIC \"-//W3C//DTD SVG 1.1//EN\" [ <!ENTITY a \"b\"> ]>\n"
+                + "<svg xmlns=\"http://www.w3.org/2000/svg\"/>")));
+        assertEquals(ImageSniffer.IMAGE_SVG, ImageSniffer.detect(utf8("<svg>")));
+    }
+
+    @Test
+    void rejectsDocumentsEmbeddingSvg() {
+        assertNull(ImageSniffer.detect(utf8("<!DOCTYPE html><html><body><svg></svg>")));
+        assertNull(ImageSniffer.detect(utf8("<?xml version=\"1.0\"?><doc><svg/></doc>")));
+        assertNull(ImageSniffer.detect(utf8("<svgx/>")));
+        assertNull(ImageSniffer.detect(utf8("text mentioning <svg>")));
+    }
+
+    @Test
+    void fallsBackToFilenameForShortFirstBuffer() {
+        // the first buffer ends within the 12-byte signature
+        assertEquals(ImageSniffer.IMAGE_WEBP,
+            ImageSniffer.getMediaType(buffer(ascii("RIFF\0\0")), "image.webp"));
+        assertEquals(ImageSniffer.IMAGE_AVIF,
+            ImageSniffer.getMediaType(buffer(ascii("\0\0\0\u001Cftyp")), "image.avif"));
+        assertEquals(MediaType.IMAGE_PNG, ImageSniffer.getMediaType(
+            buffer(new byte[] {(byte) 0x89, 'P', 'N'}), "image.png"));
+        assertEquals(ImageSniffer.IMAGE_SVG,
+            ImageSniffer.getMediaType(buffer(utf8("<?xml version=")), "image.svg"));
+    }
+
+    @Test
+    void rejectsShortBufferContradictingFilename() {
+        assertNull(ImageSniffer.getMediaType(buffer(ascii("MZ\0\0")), "image.webp"));
+        assertNull(ImageSniffer.getMediaType(buffer(ascii("RIFF")), "notes.txt"));
+        assertNull(ImageSniffer.getMediaType(buffer(utf8("<html>")), "image.svg"));
+    }
+
+    @Test
+    void fallsBackToFilenameForUnsniffableImages() {
+        assertEquals(MediaType.parseMediaType("image/tiff"),
+            ImageSniffer.getMediaType(buffer(ascii("II*\0\u0008\0\0\0\0\0\0\0")), "scan.tiff"));
+        assertNull(ImageSniffer.getMediaType(buffer(ascii("plain text, not an image")),
+            "notes.jpg"));
+    }
+
+    private static DataBuffer buffer(byte[] data) {
+        return DefaultDataBufferFactory.sharedInstance.wrap(data);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,352 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ImageTransformerTest {
+
+    @TempDir
+    Path dir;
+
+    private final ImageTransformer transformer = new ImageTransformer();
+
+    @Test
+    void downscalesToMaxWidth() throws IOException {
+        final var source = write("wide.png", encode("png", 400, 200));
+        final var properties = new LskyProProperties();
+        properties.setTransformMaxWidth(100);
+
+        final var result = transformer.process(source, properties);
+        try {
+            assertTrue(result.changed());
+            final var image = ImageIO.read(result.file().toFile());
+            assertEquals(100, image.getWidth());
+            assertEquals(50, image.getHeight());
+            assertEquals(Files.size(result.file()), result.finalSize());
+        } finally {
+            Files.deleteIfExists(result.file());
+        }
+    }
+
+    @Test
+    void keepsImageWithinLimits() throws IOException {
+        final var source = write("small.png", encode("png", 50, 50));
+        final var properties = new LskyProProperties();
+        properties.setTransformMaxWidth(100);
+        properties.setTransformMaxHeight(100);
+
+        final var result = transformer.process(source, properties);
+        assertFalse(result.changed());
+        assertSame(source, result.file());
+    }
+
+    @Test
+    void appliesOrientationBeforeDownscaling() throws IOException {
+        // stored landscape, displayed portrait
+        final var source = write("rotated.jpg", withOrientation(encode("jpeg", 400, 200), 6,
+            false));
+        final var properties = new LskyProProperties();
+        properties.setTransformMaxHeight(200);
+
+        final var result = transformer.process(source, properties);
+        try {
+            assertTrue(result.changed());
+            final var image = ImageIO.read(result.file().toFile());
+            assertEquals(100, image.getWidth());
+            assertEquals(200, image.getHeight());
+        } finally {
+            Files.deleteIfExists(result.file());
+        }
+    }
+
+    @Test
+    void scaleFitsBothLimits() {
+        final var properties = new LskyProProperties();
+        assertEquals(1, ImageTransformer.getScale(4000, 3000, properties));
+        properties.setTransformMaxWidth(2000);
+        properties.setTransformMaxHeight(1000);
+        assertEquals(1000 / 3000d, ImageTransformer.getScale(4000, 3000, properties));
+        assertEquals(1, ImageTransformer.getScale(800, 600, properties));
+    }
+
+    @Test
+    void stripJpegMetadataKeepsOrientationOnly() throws IOException {
+        final var jpeg = withOrientation(encode("jpeg", 40, 20), 6, true);
+        final var source = write("source.jpg", insertAfterSoi(jpeg, comment("secret location")));
+
+        final var stripped = ImageTransformer.stripJpegMetadata(source);
+        assertNotNull(stripped);
+        try {
+            final var data = Files.readAllBytes(stripped);
+            assertFalse(new String(data, StandardCharsets.ISO_8859_1).contains("secret"));
+            assertEquals(6, ImageTransformer.readJpegOrientation(stripped));
+            assertEquals(new ImageDimensions.Dimensions(20, 40), ImageDimensions.read(data));
+            assertNotNull(ImageIO.read(stripped.toFile()));
+        } finally {
+            Files.deleteIfExists(stripped);
+        }
+    }
+
+    @Test
+    void stripJpegMetadataCopiesScanAsIs() throws IOException {
+        final var jpeg = encode("jpeg", 16, 16);
+        final var source = write("plain.jpg", jpeg);
+
+        final var stripped = ImageTransformer.stripJpegMetadata(source);
+        assertNotNull(stripped);
+        try {
+            // without an orientation nothing is added, and JFIF and the scan are kept
+            assertArrayEquals(jpeg, Files.readAllBytes(stripped));
+        } finally {
+            Files.deleteIfExists(stripped);
+        }
+    }
+
+    @Test
+    void stripJpegMetadataIgnoresOtherFormats() throws IOException {
+        final var source = write("image.png", encode("png", 8, 8));
+        assertNull(ImageTransformer.stripJpegMetadata(source));
+    }
+
+    @Test
+    void stripsExifEvenWithoutReencoding() throws IOException {
+        final var jpeg = insertAfterSoi(encode("jpeg", 16, 16), comment("secret location"));
+        final var source = write("small.jpg", jpeg);
+        final var properties = new LskyProProperties();
+        properties.setStripExif(true);
+        // below the size threshold, so it is not re-encoded
+        properties.setTransformMinKb(1024);
+
+        final var result = transformer.process(source, properties);
+        try {
+            assertTrue(result.changed());
+            assertFalse(new String(Files.readAllBytes(result.file()), StandardCharsets.ISO_8859_1)
+                .contains("secret"));
+        } finally {
+            Files.deleteIfExists(result.file());
+        }
+    }
+
+    @Test
+    void stripsPngMetadataEvenWithoutReencoding() throws IOException {
+        final var png = encode("png", 16, 16);
+        // orientation followed by more EXIF data, then a text chunk
+        final var exif = ByteBuffer.allocate(26 + 15)
+            .put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8)
+            .putShort((short) 1)
+            .putShort((short) 0x0112).putShort((short) 3).putInt(1)
+            .putShort((short) 6).putShort((short) 0)
+            .putInt(0)
+            .put("secret location".getBytes(StandardCharsets.US_ASCII))
+            .array();
+        final var source = write("exif.png", insertAfterIhdr(png,
+            pngChunk("eXIf", exif),
+            pngChunk("tEXt", "Comment\0secret note".getBytes(StandardCharsets.ISO_8859_1))));
+        final var properties = new LskyProProperties();
+        properties.setStripExif(true);
+
+        final var result = transformer.process(source, properties);
+        try {
+            assertTrue(result.changed());
+            final var data = Files.readAllBytes(result.file());
+            final var text = new String(data, StandardCharsets.ISO_8859_1);
+            assertFalse(text.contains("secret"));
+            assertFalse(text.contains("tEXt"));
+            // the orientation is kept in a minimal eXIf chunk
+            final var exifChunk = text.indexOf("eXIf");
+            assertEquals(26, ByteBuffer.wrap(data, exifChunk - 4, 4).getInt());
+            assertEquals(6, ByteBuffer.wrap(data, exifChunk + 4 + 18, 2).getShort());
+            final var image = ImageIO.read(result.file().toFile());
+            assertEquals(16, image.getWidth());
+        } finally {
+            Files.deleteIfExists(result.file());
+        }
+    }
+
+    @Test
+    void stripsWebpMetadataChunks() throws IOException {
+        final var vp8x = new byte[10];
+        // ICC, EXIF and XMP flags
+        vp8x[0] = 0x2C;
+        final var source = write("image.webp", webp(
+            riffChunk("VP8X", vp8x),
+            riffChunk("VP8L", new byte[] {0x2F, 1, 2, 3, 4}),
+            riffChunk("EXIF", "secret location".getBytes(StandardCharsets.US_ASCII)),
+            riffChunk("XMP ", "<x:xmpmeta>secret</x:xmpmeta>".getBytes(StandardCharsets.UTF_8))));
+
+        final var stripped = ImageTransformer.stripMetadata(source);
+        assertNotNull(stripped);
+        try {
+            final var data = Files.readAllBytes(stripped);
+            assertFalse(new String(data, StandardCharsets.ISO_8859_1).contains("secret"));
+            assertArrayEquals(webp(riffChunk("VP8X", withFlags(vp8x, 0x20)),
+                riffChunk("VP8L", new byte[] {0x2F, 1, 2, 3, 4})), data);
+        } finally {
+            Files.deleteIfExists(stripped);
+        }
+    }
+
+    @Test
+    void blanksAvifMetadataItemsInPlace() throws IOException {
+        final var pixels = "pixel data".getBytes(StandardCharsets.US_ASCII);
+        final var exif = "secret location".getBytes(StandardCharsets.US_ASCII);
+        final var ftyp = box("ftyp", "avif\0\0\0\0avifmif1".getBytes(StandardCharsets.US_ASCII));
+        // item 1 is the image, item 2 its EXIF, both stored in mdat
+        final var infe1 = box("infe", ByteBuffer.allocate(4 + 2 + 2 + 4 + 1)
+            .put((byte) 2).put(new byte[3]).putShort((short) 1).putShort((short) 0)
+            .put("av01".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).array());
+        final var infe2 = box("infe", ByteBuffer.allocate(4 + 2 + 2 + 4 + 1)
+            .put((byte) 2).put(new byte[3]).putShort((short) 2).putShort((short) 0)
+            .put("Exif".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).array());
+        final var iinf = box("iinf", ByteBuffer.allocate(6 + infe1.length + infe2.length)
+            .put(new byte[4]).putShort((short) 2).put(infe1).put(infe2).array());
+        final var ilocSize = 8 + 4 + 4 + 2 * 16;
+        final var metaSize = 8 + 4 + iinf.length + ilocSize;
+        final var mdatOffset = ftyp.length + metaSize;
+        final var iloc = box("iloc", ByteBuffer.allocate(ilocSize - 8)
+            // version 0, 4-byte offsets and lengths, no base offset
+            .put(new byte[4]).put((byte) 0x44).put((byte) 0).putShort((short) 2)
+            .putShort((short) 1).putShort((short) 0).putShort((short) 1)
+            .putInt(mdatOffset + 8).putInt(pixels.length)
+            .putShort((short) 2).putShort((short) 0).putShort((short) 1)
+            .putInt(mdatOffset + 8 + pixels.length).putInt(exif.length)
+            .array());
+        final var meta = box("meta", ByteBuffer.allocate(4 + iinf.length + iloc.length)
+            .put(new byte[4]).put(iinf).put(iloc).array());
+        final var mdat = box("mdat", ByteBuffer.allocate(pixels.length + exif.length)
+            .put(pixels).put(exif).array());
+        final var avif = ByteBuffer.allocate(ftyp.length + meta.length + mdat.length)
+            .put(ftyp).put(meta).put(mdat).array();
+        final var source = write("image.avif", avif);
+
+        final var stripped = ImageTransformer.stripMetadata(source);
+        assertNotNull(stripped);
+        try {
+            final var expected = avif.clone();
+            Arrays.fill(expected, avif.length - exif.length, avif.length, (byte) 0);
+            assertArrayEquals(expected, Files.readAllBytes(stripped));
+        } finally {
+            Files.deleteIfExists(stripped);
+        }
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(dir.resolve(name), data);
+    }
+
+    static byte[] encode(String format, int width, int height) throws IOException {
+        final var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final var out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IllegalStateException("No writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Insert an EXIF segment with the given orientation right after SOI.
+     */
+    static byte[] withOrientation(byte[] jpeg, int orientation, boolean littleEndian) {
+        final var exif = ByteBuffer.allocate(36);
+        exif.putShort((short) 0xFFE1).putShort((short) 34)
+            .put("Exif\0\0".getBytes(StandardCharsets.US_ASCII))
+            .put((littleEndian ? "II" : "MM").getBytes(StandardCharsets.US_ASCII));
+        // the TIFF header and IFD are in the byte order announced above
+        exif.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN)
+            .putShort((short) 42).putInt(8)
+            .putShort((short) 1)
+            .putShort((short) 0x0112).putShort((short) 3).putInt(1)
+            .putShort((short) orientation).putShort((short) 0)
+            .putInt(0);
+        return insertAfterSoi(jpeg, exif.array());
+    }
+
+    static byte[] comment(String text) {
+        final var bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(bytes.length + 4)
+            .putShort((short) 0xFFFE)
+            .putShort((short) (bytes.length + 2))
+            .put(bytes)
+            .array();
+    }
+
+    static byte[] insertAfterSoi(byte[] jpeg, byte[] segment) {
+        final var result = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, result, 0, 2);
+        System.arraycopy(segment, 0, result, 2, segment.length);
+        System.arraycopy(jpeg, 2, result, 2 + segment.length, jpeg.length - 2);
+        return result;
+    }
+
+    private static byte[] pngChunk(String type, byte[] data) {
+        final var typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final var crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        return ByteBuffer.allocate(12 + data.length)
+            .putInt(data.length).put(typeBytes).put(data).putInt((int) crc.getValue())
+            .array();
+    }
+
+    /**
+     * Insert chunks right after IHDR, which is 25 bytes long after the signature.
+     */
+    private static byte[] insertAfterIhdr(byte[] png, byte[]... chunks) {
+        final var out = new ByteArrayOutputStream();
+        out.write(png, 0, 33);
+        for (final var chunk : chunks) {
+            out.writeBytes(chunk);
+        }
+        out.write(png, 33, png.length - 33);
+        return out.toByteArray();
+    }
+
+    private static byte[] riffChunk(String type, byte[] data) {
+        final var chunk = ByteBuffer.allocate(8 + data.length + (data.length & 1))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        return chunk.put(type.getBytes(StandardCharsets.US_ASCII)).putInt(data.length)
+            .put(data).array();
+    }
+
+    private static byte[] webp(byte[]... chunks) {
+        final var out = new ByteArrayOutputStream();
+        for (final var chunk : chunks) {
+            out.writeBytes(chunk);
+        }
+        return ByteBuffer.allocate(12 + out.size()).order(ByteOrder.LITTLE_ENDIAN)
+            .put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(4 + out.size())
+            .put("WEBP".getBytes(StandardCharsets.US_ASCII)).put(out.toByteArray())
+            .array();
+    }
+
+    private static byte[] withFlags(byte[] vp8x, int flags) {
+        final var copy = vp8x.clone();
+        copy[0] = (byte) flags;
+        return copy;
+    }
+
+    private static byte[] box(String type, byte[] content) {
+        return ByteBuffer.allocate(8 + content.length)
+            .putInt(8 + content.length).put(type.getBytes(StandardCharsets.US_ASCII))
+            .put(content).array();
+    }
+}
@@ -0,0 +1,71 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class KeyFingerprintSetTest {
+
+    @Test
+    void addAndContains() {
+        final var set = new KeyFingerprintSet();
+        assertTrue(set.add("a1b2c3"));
+        assertFalse(set.add("a1b2c3"));
+        assertTrue(set.contains("a1b2c3"));
+        assertFalse(set.contains("a1b2c4"));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void growsFromTinyTable() {
+        // a table of two slots, so nearly every key probes past others and triggers growth
+        final var set = new KeyFingerprintSet(1);
+        final var count = 200_000;
+        for (int i = 0; i < count; i++) {
+            assertTrue(set.add("key-" + i));
+        }
+        assertEquals(count, set.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(set.contains("key-" + i), "missing key-" + i);
+        }
+        for (int i = count; i < 2 * count; i++) {
+            assertFalse(set.contains("key-" + i), "unexpected key-" + i);
+        }
+    }
+
+    @Test
+    void duplicatesAfterGrowthAreNotCounted() {
+        final var set = new KeyFingerprintSet(4);
+        for (int i = 0; i < 10_000; i++) {
+            set.add("k" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertFalse(set.add("k" + i));
+        }
+        assertEquals(10_000, set.size());
+    }
+
+    @Test
+    void emptyKeyIsStorable() {
+        final var set = new KeyFingerprintSet();
+        assertFalse(set.contains(""));
+        assertTrue(set.add(""));
+        assertTrue(set.contains(""));
+    }
+
+    @Test
+    void fingerprintIsNeverTheEmptyMarker() {
+        for (int i = 0; i < 100_000; i++) {
+            assertNotEquals(0L, KeyFingerprintSet.fingerprint(Integer.toString(i, 36)));
+        }
+    }
+
+    @Test
+    void similarKeysHaveDifferentFingerprints() {
+        assertNotEquals(KeyFingerprintSet.fingerprint("ab"), KeyFingerprintSet.fingerprint("ba"));
+        assertNotEquals(KeyFingerprintSet.fingerprint("a"), KeyFingerprintSet.fingerprint("a\0"));
+    }
+}
@@ -0,0 +1,104 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ServerWebInputException;
+import run.halo.app.core.extension.attachment.Policy;
+import run.halo.app.extension.ConfigMap;
+import run.halo.app.extension.Metadata;
+
+class PolicyPropertiesCacheTest {
+
+    private final PolicyPropertiesCache cache = new PolicyPropertiesCache();
+
+    private final Policy policy = policy();
+
+    @Test
+    void parsesOncePerVersion() {
+        final var first = cache.resolve(configMap("cm", 1L, "{\"lskyUrl\":\"https://a.com\"}"),
+            policy);
+        final var again = cache.resolve(configMap("cm", 1L, "{\"lskyUrl\":\"https://a.com\"}"),
+            policy);
+        assertSame(first, again);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        final var updated = cache.resolve(configMap("cm", 2L, "{\"lskyUrl\":\"https://b.com\"}"),
+            policy);
+        assertEquals(List.of("https://b.com"), updated.properties().getEndpointUrls());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void neverCachesUnversionedConfigMaps() {
+        final var configMap = configMap("cm", null, "{\"lskyUrl\":\"https://a.com\"}");
+        assertNotSame(cache.resolve(configMap, policy), cache.resolve(configMap, policy));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void evictsAllVersions() {
+        final var first = cache.resolve(configMap("cm", 1L, "{\"lskyUrl\":\"https://a.com\"}"),
+            policy);
+        cache.evict("cm");
+        assertNotSame(first,
+            cache.resolve(configMap("cm", 1L, "{\"lskyUrl\":\"https://a.com\"}"), policy));
+    }
+
+    @Test
+    void dropsEldestBeyondLimit() {
+        final var first = cache.resolve(configMap("cm0", 1L, "{\"lskyUrl\":\"https://a.com\"}"),
+            policy);
+        for (int i = 1; i <= PolicyPropertiesCache.MAX_ENTRIES; i++) {
+            cache.resolve(configMap("cm" + i, 1L, "{\"lskyUrl\":\"https://a.com\"}"), policy);
+        }
+        assertNotSame(first,
+            cache.resolve(configMap("cm0", 1L, "{\"lskyUrl\":\"https://a.com\"}"), policy));
+    }
+
+    @Test
+    void normalizesEquivalentSettings() {
+        final var plain = cache.resolve(configMap("a", 1L, """
+            {"lskyUrl":"https://a.com","lskyMirrorUrls":"https://b.com","lskyToken":"abc"}
+            """), policy).properties();
+        final var decorated = cache.resolve(configMap("b", 1L, """
+            {"lskyUrl":" https://a.com/api/v1// ","lskyMirrorUrls":"https://b.com/\\n\\n",
+            "lskyToken":" Bearer  abc "}
+            """), policy).properties();
+        assertEquals(List.of("https://a.com", "https://b.com"), decorated.getEndpointUrls());
+        assertEquals(plain.getEndpointUrls(), decorated.getEndpointUrls());
+        assertEquals(plain.getLskyToken(), decorated.getLskyToken());
+    }
+
+    @Test
+    void rejectsMissingUrl() {
+        assertThrows(ServerWebInputException.class,
+            () -> cache.resolve(configMap("cm", 1L, "{\"lskyUrl\":\" / \"}"), policy));
+        assertThrows(ServerWebInputException.class,
+            () -> cache.resolve(configMap("cm", 1L, "{\"lskyUrl\":\"a.com\"}"), policy));
+    }
+
+    private static ConfigMap configMap(String name, Long version, String json) {
+        final var metadata = new Metadata();
+        metadata.setName(name);
+        metadata.setVersion(version);
+        final var configMap = new ConfigMap();
+        configMap.setMetadata(metadata);
+        configMap.setData(Map.of("default", json));
+        return configMap;
+    }
+
+    private static Policy policy() {
+        final var metadata = new Metadata();
+        metadata.setName("policy");
+        final var policy = new Policy();
+        policy.setMetadata(metadata);
+        return policy;
+    }
+}
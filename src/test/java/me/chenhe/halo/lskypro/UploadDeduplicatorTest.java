@@ -0,0 +1,147 @@
+package me.chenhe.halo.lskypro;
+
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_KEY;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_LINK;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_SHA1;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.IMAGE_STORAGE;
+import static me.chenhe.halo.lskypro.LskyProAttachmentHandler.INSTANCE_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import run.halo.app.core.extension.attachment.Attachment;
+import run.halo.app.extension.Metadata;
+import run.halo.app.extension.ReactiveExtensionClient;
+import run.halo.app.extension.controller.Reconciler;
+
+class UploadDeduplicatorTest {
+
+    private static final String INSTANCE = "lsky.example.com";
+    private static final String STORAGE = "1/-";
+
+    /**
+     * Attachments stored in Halo.
+     */
+    private final List<Attachment> stored = new ArrayList<>();
+
+    private final ReactiveExtensionClient client = mock(ReactiveExtensionClient.class);
+
+    private final UploadDeduplicator deduplicator =
+        new UploadDeduplicator(client, new UploadSpooler());
+
+    @BeforeEach
+    void setUp() {
+        when(client.list(eq(Attachment.class), any(), isNull())).thenAnswer(invocation ->
+            Flux.fromIterable(List.copyOf(stored))
+                .filter(invocation.<Predicate<Attachment>>getArgument(1)));
+        when(client.listAll(eq(Attachment.class), any(), any())).thenAnswer(invocation ->
+            Flux.fromIterable(List.copyOf(stored)));
+        when(client.fetch(eq(Attachment.class), any())).thenAnswer(invocation ->
+            Mono.justOrEmpty(stored.stream()
+                .filter(a -> a.getMetadata().getName().equals(invocation.getArgument(1)))
+                .findFirst()));
+    }
+
+    @Test
+    void keepsImageUntilLastReferenceIsReleased() {
+        final var first = store(attachment("a", "key1", "sha1"));
+        final var second = store(attachment("b", "key1", "sha1"));
+
+        unstore(first);
+        assertTrue(deduplicator.release(INSTANCE, first).block());
+        unstore(second);
+        assertFalse(deduplicator.release(INSTANCE, second).block());
+        assertNull(deduplicator.find(INSTANCE, STORAGE, "sha1").block());
+    }
+
+    @Test
+    void referencesRegisteredImageOnceAttachmentIsCreated() {
+        final var uploaded = attachment("a", "key1", "sha1");
+        deduplicator.register(INSTANCE, uploaded).block();
+        assertEquals("key1", deduplicator.find(INSTANCE, STORAGE, "sha1").block().key);
+
+        // reused by another upload, then both attachments are created
+        final var reused = attachment("b", "key1", "sha1");
+        store(uploaded);
+        store(reused);
+        deduplicator.reconcile(new Reconciler.Request("a"));
+        deduplicator.reconcile(new Reconciler.Request("b"));
+
+        unstore(reused);
+        assertTrue(deduplicator.release(INSTANCE, reused).block());
+        unstore(uploaded);
+        assertFalse(deduplicator.release(INSTANCE, uploaded).block());
+    }
+
+    @Test
+    void looksUpReferencesNotReconciledYet() {
+        final var first = store(attachment("a", "key1", "sha1"));
+        // load the index before the second attachment exists
+        deduplicator.find(INSTANCE, STORAGE, "sha1").block();
+        final var second = store(attachment("b", "key1", "sha1"));
+
+        unstore(first);
+        assertTrue(deduplicator.release(INSTANCE, first).block());
+        unstore(second);
+        assertFalse(deduplicator.release(INSTANCE, second).block());
+    }
+
+    @Test
+    void ignoresDeletingAttachments() {
+        final var first = store(attachment("a", "key1", "sha1"));
+        final var deleting = store(attachment("b", "key1", "sha1"));
+        deleting.getMetadata().setDeletionTimestamp(Instant.now());
+
+        unstore(first);
+        assertFalse(deduplicator.release(INSTANCE, first).block());
+    }
+
+    @Test
+    void neverKeepsImagesUploadedWithoutDeduplication() {
+        final var attachment = attachment("a", "key1", null);
+        store(attachment);
+        store(attachment("b", "key1", null));
+        assertFalse(deduplicator.release(INSTANCE, attachment).block());
+    }
+
+    private Attachment store(Attachment attachment) {
+        stored.add(attachment);
+        return attachment;
+    }
+
+    private void unstore(Attachment attachment) {
+        stored.remove(attachment);
+    }
+
+    private static Attachment attachment(String name, String key, String sha1) {
+        final var annotations = new HashMap<String, String>();
+        annotations.put(IMAGE_KEY, key);
+        annotations.put(IMAGE_LINK, "https://lsky.example.com/" + key + ".png");
+        annotations.put(INSTANCE_ID, INSTANCE);
+        annotations.put(IMAGE_STORAGE, STORAGE);
+        if (sha1 != null) {
+            annotations.put(IMAGE_SHA1, sha1);
+        }
+        final var metadata = new Metadata();
+        metadata.setName(name);
+        metadata.setAnnotations(annotations);
+        final var attachment = new Attachment();
+        attachment.setMetadata(metadata);
+        return attachment;
+    }
+}
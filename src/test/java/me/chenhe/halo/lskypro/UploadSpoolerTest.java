@@ -0,0 +1,152 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBuffer;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+class UploadSpoolerTest {
+
+    private final UploadSpooler spooler = new UploadSpooler();
+
+    private final NettyDataBufferFactory factory =
+        new NettyDataBufferFactory(UnpooledByteBufAllocator.DEFAULT);
+
+    /**
+     * Buffers handed to the spooler, to check that all of them are released.
+     */
+    private final List<NettyDataBuffer> received = new ArrayList<>();
+
+    @Test
+    void keepsSmallContentInMemory() {
+        final var result = spooler.spool(content("hello ", "world"), 1024,
+            Schedulers.immediate(), spooled -> {
+                assertNull(spooled.file());
+                assertEquals(11, spooled.size());
+                return read(spooled).then(read(spooled));
+            }).block();
+        assertEquals("hello world", result);
+        assertAllReleased();
+    }
+
+    @Test
+    void deletesSpoolFileOnceConsumed() {
+        final var file = new AtomicReference<Path>();
+        final var result = spooler.spool(content("hello ", "world"), 4,
+            Schedulers.immediate(), spooled -> {
+                file.set(spooled.file());
+                assertNotNull(spooled.file());
+                // replayable any number of times
+                return read(spooled).then(read(spooled));
+            }).block();
+        assertEquals("hello world", result);
+        assertTrue(Files.notExists(file.get()));
+        assertAllReleased();
+    }
+
+    @Test
+    void deletesSpoolFileOnConsumerError() {
+        final var file = new AtomicReference<Path>();
+        assertThrows(IllegalStateException.class, () -> spooler.spool(content("hello ", "world"),
+            4, Schedulers.immediate(), spooled -> {
+                file.set(spooled.file());
+                return Mono.error(new IllegalStateException("upload failed"));
+            }).block());
+        assertTrue(Files.notExists(file.get()));
+        assertAllReleased();
+    }
+
+    @Test
+    void deletesSpoolFileOnCancel() {
+        final var file = new AtomicReference<Path>();
+        final var subscription = spooler.spool(content("hello ", "world"), 4,
+            Schedulers.immediate(), spooled -> {
+                file.set(spooled.file());
+                return Sinks.<String>one().asMono();
+            }).subscribe();
+        assertTrue(Files.exists(file.get()));
+        subscription.dispose();
+        assertTrue(Files.notExists(file.get()));
+        assertAllReleased();
+    }
+
+    @Test
+    void cleansUpWhenContentFails() throws IOException {
+        final var before = spoolFiles();
+        final var content = content("hello ", "world")
+            .concatWith(Flux.error(new IllegalStateException("connection reset")));
+        assertThrows(IllegalStateException.class, () -> spooler.spool(content, 4,
+            Schedulers.immediate(), spooled -> Mono.just("never")).block());
+        assertEquals(before, spoolFiles());
+
+        // kept in memory
+        assertThrows(IllegalStateException.class, () -> spooler.spool(content, 1024,
+            Schedulers.immediate(), spooled -> Mono.just("never")).block());
+        assertAllReleased();
+    }
+
+    @Test
+    void releasesBuffersWhenCancelledWhileReceiving() {
+        final var sink = Sinks.many().unicast().<DataBuffer>onBackpressureBuffer();
+        final var subscription = spooler.spool(sink.asFlux(), 1024, Schedulers.immediate(),
+            spooled -> Mono.just("never")).subscribe();
+        sink.tryEmitNext(buffer("hello"));
+        sink.tryEmitNext(buffer("world"));
+        subscription.dispose();
+        assertAllReleased();
+    }
+
+    private Flux<DataBuffer> content(String... parts) {
+        return Flux.fromArray(parts).map(this::buffer);
+    }
+
+    private DataBuffer buffer(String text) {
+        final var buffer = (NettyDataBuffer) factory.wrap(text.getBytes(StandardCharsets.UTF_8));
+        received.add(buffer);
+        return buffer;
+    }
+
+    private static Mono<String> read(UploadSpooler.Spooled spooled) {
+        return DataBufferUtils.join(spooled.content()).map(buffer -> {
+            try {
+                return buffer.toString(StandardCharsets.UTF_8);
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        });
+    }
+
+    private void assertAllReleased() {
+        for (final var buffer : received) {
+            assertEquals(0, buffer.getNativeBuffer().refCnt());
+        }
+    }
+
+    private static Set<Path> spoolFiles() throws IOException {
+        try (var files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(f -> f.getFileName().toString().startsWith("lsky-spool-"))
+                .collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package me.chenhe.halo.lskypro;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+
+class UrlRewriterTest {
+
+    static final String LINK = "https://lsky.example.com/i/2024/01/a.png";
+
+    @Test
+    void keepsLinkWithoutRules() {
+        final var rewriter = UrlRewriter.compile(new LskyProProperties());
+        assertEquals(URI.create(LINK), rewriter.rewrite(LINK));
+    }
+
+    @Test
+    void swapsHostAndPrependsPath() {
+        final var properties = new LskyProProperties();
+        properties.setCdnHost("cdn.example.com:8443");
+        properties.setCdnPathPrefix("img/");
+        final var rewriter = UrlRewriter.compile(properties);
+        assertEquals(URI.create("https://cdn.example.com:8443/img/i/2024/01/a.png"),
+            rewriter.rewrite(LINK));
+        assertSame(rewriter.rewrite(LINK), rewriter.rewrite(LINK));
+    }
+
+    @Test
+    void swapsScheme() {
+        final var properties = new LskyProProperties();
+        properties.setCdnHost("http://cdn.example.com");
+        assertEquals(URI.create("http://cdn.example.com/i/2024/01/a.png"),
+            UrlRewriter.compile(properties).rewrite(LINK));
+    }
+
+    @Test
+    void signsWithHmacSha256() {
+        final var properties = new LskyProProperties();
+        properties.setCdnSignKey("secret");
+        // computed independently, e.g. with Python's hmac module
+        assertEquals("2dc2e01bf571af0268153910d10498af920091a2b4e00d2d33045124fb3451d6",
+            UrlRewriter.compile(properties).sign("/img/2024/01/a.png", 1735689600L));
+    }
+
+    @Test
+    void sharesSignedUrl() {
+        final var properties = new LskyProProperties();
+        properties.setCdnHost("cdn.example.com");
+        properties.setCdnPathPrefix("/img");
+        properties.setCdnSignKey("secret");
+        properties.setCdnSignParam("token");
+        final var rewriter = UrlRewriter.compile(properties);
+
+        final var ttl = Duration.ofHours(1);
+        final var before = Instant.now().getEpochSecond();
+        final var shared = rewriter.share(LINK, ttl);
+        final var params = UriComponentsBuilder.fromUri(shared).build().getQueryParams();
+        final var expires = Long.parseLong(params.getFirst("expires"));
+
+        assertEquals("/img/i/2024/01/a.png", shared.getRawPath());
+        assertEquals("cdn.example.com", shared.getHost());
+        assertEquals(0, expires % UrlRewriter.EXPIRY_GRANULARITY_SECONDS);
+        assertTrue(expires >= before + ttl.toSeconds());
+        assertEquals(rewriter.sign(shared.getRawPath(), expires), params.getFirst("token"));
+        // the permanent URL is never signed
+        assertEquals(URI.create("https://cdn.example.com/img/i/2024/01/a.png"),
+            rewriter.share(LINK, null));
+    }
+}
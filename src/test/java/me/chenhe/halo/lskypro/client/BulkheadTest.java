@@ -0,0 +1,115 @@
+package me.chenhe.halo.lskypro.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class BulkheadTest {
+
+    private final Bulkhead bulkhead = new Bulkhead("test");
+
+    @Test
+    void rejectsWhenFullWithoutQueue() {
+        bulkhead.configure(1, 0, Duration.ZERO);
+        final var held = bulkhead.acquire().block();
+        assertNotNull(held);
+        assertThrows(BulkheadFullException.class, () -> bulkhead.acquire().block());
+        held.release();
+        assertNotNull(bulkhead.acquire().block());
+    }
+
+    @Test
+    void handsPermitToNextWaiter() {
+        bulkhead.configure(1, 2, Duration.ofSeconds(10));
+        final var held = bulkhead.acquire().block();
+        final var first = bulkhead.acquire().toFuture();
+        final var second = bulkhead.acquire().toFuture();
+        assertEquals(2, bulkhead.getQueued());
+        // the queue is full
+        assertThrows(BulkheadFullException.class, () -> bulkhead.acquire().block());
+
+        held.release();
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(1, bulkhead.getActive());
+        first.join().release();
+        second.join().release();
+        assertEquals(0, bulkhead.getActive());
+    }
+
+    @Test
+    void releasingTwiceHasNoEffect() {
+        bulkhead.configure(2, 0, Duration.ZERO);
+        final var held = bulkhead.acquire().block();
+        bulkhead.acquire().block();
+        held.release();
+        held.release();
+        assertEquals(1, bulkhead.getActive());
+    }
+
+    @Test
+    void rejectsAfterMaxWait() {
+        bulkhead.configure(1, 1, Duration.ofMillis(50));
+        bulkhead.acquire().block();
+        assertThrows(BulkheadFullException.class, () -> bulkhead.acquire().block());
+        assertEquals(0, bulkhead.getQueued());
+        assertEquals(1, bulkhead.getStatus().rejectedTimeout());
+    }
+
+    @Test
+    void raisedLimitAdmitsWaiters() {
+        bulkhead.configure(1, 4, Duration.ofSeconds(10));
+        bulkhead.acquire().block();
+        final var first = bulkhead.acquire().toFuture();
+        final var second = bulkhead.acquire().toFuture();
+        final var third = bulkhead.acquire().toFuture();
+
+        bulkhead.configure(3, 4, Duration.ofSeconds(10));
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(3, bulkhead.getActive());
+        assertEquals(1, bulkhead.getQueued());
+    }
+
+    @Test
+    void loweredLimitDrainsBeforeAdmitting() {
+        bulkhead.configure(2, 1, Duration.ofSeconds(10));
+        final var a = bulkhead.acquire().block();
+        final var b = bulkhead.acquire().block();
+        final var waiting = bulkhead.acquire().toFuture();
+
+        bulkhead.configure(1, 1, Duration.ofSeconds(10));
+        a.release();
+        // still one in flight, which is the new limit
+        assertFalse(waiting.isDone());
+        b.release();
+        assertTrue(waiting.isDone());
+    }
+
+    @Test
+    void protectReleasesOnError() {
+        bulkhead.configure(1, 0, Duration.ZERO);
+        assertThrows(IllegalStateException.class, () -> bulkhead.protect(
+            Mono.error(new IllegalStateException("boom"))).block());
+        assertEquals(0, bulkhead.getActive());
+    }
+
+    @Test
+    void protectReleasesOnCancel() {
+        bulkhead.configure(1, 0, Duration.ZERO);
+        final var pending = bulkhead.protect(Sinks.<String>one().asMono()).toFuture();
+        assertEquals(1, bulkhead.getActive());
+        pending.cancel(true);
+        assertEquals(0, bulkhead.getActive());
+        assertThrows(CancellationException.class, pending::join);
+    }
+}
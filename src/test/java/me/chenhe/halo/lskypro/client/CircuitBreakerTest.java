@@ -0,0 +1,137 @@
+package me.chenhe.halo.lskypro.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class CircuitBreakerTest {
+
+    static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    private final MutableClock clock = new MutableClock();
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 3, OPEN_DURATION, clock);
+
+    @Test
+    void opensAfterConsecutiveServerFailures() {
+        fail(HttpStatus.BAD_GATEWAY);
+        fail(HttpStatus.BAD_GATEWAY);
+        succeed();
+        // the success reset the count
+        fail(HttpStatus.BAD_GATEWAY);
+        fail(HttpStatus.BAD_GATEWAY);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        fail(HttpStatus.BAD_GATEWAY);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        final var e = assertThrows(CircuitOpenException.class,
+            () -> breaker.protect(Mono.just("ok")).block());
+        assertEquals(OPEN_DURATION, e.retryAfter);
+    }
+
+    @Test
+    void clientErrorsDoNotCount() {
+        for (int i = 0; i < 10; i++) {
+            fail(HttpStatus.UNAUTHORIZED);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenClosesOnSuccess() {
+        open();
+        clock.advance(OPEN_DURATION);
+        succeed();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenReopensOnFailure() {
+        open();
+        clock.advance(OPEN_DURATION);
+        fail(HttpStatus.SERVICE_UNAVAILABLE);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitOpenException.class, () -> breaker.protect(Mono.just("ok")).block());
+    }
+
+    @Test
+    void halfOpenLetsOneProbeThrough() {
+        open();
+        clock.advance(OPEN_DURATION);
+        final var probe = Sinks.<String>one();
+        final var pending = breaker.protect(probe.asMono()).toFuture();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertThrows(CircuitOpenException.class, () -> breaker.protect(Mono.just("ok")).block());
+
+        probe.tryEmitValue("ok");
+        assertEquals("ok", pending.join());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenStaysHalfOpenOnClientError() {
+        open();
+        clock.advance(OPEN_DURATION);
+        fail(HttpStatus.PAYLOAD_TOO_LARGE);
+        // neither closed by the client error nor stuck: the next request probes
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        succeed();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void cancelledProbeReleasesSlot() {
+        open();
+        clock.advance(OPEN_DURATION);
+        breaker.protect(Sinks.<String>one().asMono()).subscribe().dispose();
+        succeed();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            fail(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void succeed() {
+        assertEquals("ok", breaker.protect(Mono.just("ok")).block());
+    }
+
+    private void fail(HttpStatus status) {
+        assertThrows(LskyProException.class, () -> breaker.protect(
+            Mono.error(new LskyProException(status, status.getReasonPhrase()))).block());
+    }
+
+    static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
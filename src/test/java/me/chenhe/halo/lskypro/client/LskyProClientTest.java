@@ -0,0 +1,43 @@
+package me.chenhe.halo.lskypro.client;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+class LskyProClientTest {
+
+    @Test
+    void retriesUploadOnlyIfNothingWasStored() {
+        assertTrue(LskyProClient.isUploadRefused(requestError(new ConnectException())));
+        assertTrue(LskyProClient.isUploadRefused(
+            new LskyProException(HttpStatus.TOO_MANY_REQUESTS, "slow down")));
+        assertTrue(LskyProClient.isUploadRefused(
+            new LskyProException(HttpStatus.SERVICE_UNAVAILABLE, "maintenance", "60")));
+        // nothing was sent, but waiting is up to the client-side rate limiter
+        assertFalse(LskyProClient.isUploadRefused(new RateLimitedException("test")));
+    }
+
+    @Test
+    void neverRetriesUploadThatMayBeStored() {
+        // the request may have reached the server before the response was lost
+        assertFalse(LskyProClient.isUploadRefused(requestError(new TimeoutException())));
+        assertFalse(LskyProClient.isUploadRefused(new TimeoutException()));
+        assertFalse(LskyProClient.isUploadRefused(
+            new LskyProException(HttpStatus.SERVICE_UNAVAILABLE, "overloaded")));
+        assertFalse(LskyProClient.isUploadRefused(
+            new LskyProException(HttpStatus.BAD_GATEWAY, "bad gateway", "60")));
+    }
+
+    static WebClientRequestException requestError(Throwable cause) {
+        return new WebClientRequestException(cause, HttpMethod.POST,
+            URI.create("https://lsky.example.com/api/v1/upload"), new HttpHeaders());
+    }
+}
@@ -0,0 +1,70 @@
+package me.chenhe.halo.lskypro.client;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+class RateLimiterTest {
+
+    private final RateLimiter limiter = new RateLimiter("test");
+
+    @Test
+    void unlimitedByDefault() {
+        for (int i = 0; i < 1000; i++) {
+            assertDoesNotThrow(() -> limiter.acquire().block());
+        }
+    }
+
+    @Test
+    void rejectsBeyondBurstWithoutWaiting() {
+        limiter.configure(60, 2, Duration.ZERO);
+        limiter.acquire().block();
+        limiter.acquire().block();
+        // the next token is a second away
+        assertThrows(RateLimitedException.class, () -> limiter.acquire().block());
+    }
+
+    @Test
+    void waitsForNextToken() {
+        limiter.configure(600, 1, Duration.ofSeconds(1));
+        limiter.acquire().block();
+        final var start = System.nanoTime();
+        limiter.acquire().block();
+        final var waited = Duration.ofNanos(System.nanoTime() - start);
+        // a token every 100ms
+        assertTrue(waited.compareTo(Duration.ofMillis(50)) > 0, "waited only " + waited);
+    }
+
+    @Test
+    void followsRetryAfter() {
+        limiter.configure(0, 0, Duration.ofSeconds(1));
+        final var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "60");
+        limiter.onResponse(HttpStatus.TOO_MANY_REQUESTS, headers);
+        assertThrows(RateLimitedException.class, () -> limiter.acquire().block());
+    }
+
+    @Test
+    void ignoresRetryAfterOnSuccess() {
+        limiter.configure(0, 0, Duration.ZERO);
+        final var headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "60");
+        limiter.onResponse(HttpStatus.OK, headers);
+        assertDoesNotThrow(() -> limiter.acquire().block());
+    }
+
+    @Test
+    void capsTokensByRemainingQuota() {
+        limiter.configure(60, 10, Duration.ZERO);
+        final var headers = new HttpHeaders();
+        headers.set(RateLimiter.HEADER_REMAINING, "1");
+        limiter.onResponse(HttpStatus.OK, headers);
+        limiter.acquire().block();
+        assertThrows(RateLimitedException.class, () -> limiter.acquire().block());
+    }
+}
@@ -0,0 +1,126 @@
+package me.chenhe.halo.lskypro.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class RoutingLskyProClientTest {
+
+    private final LskyProClient first = mock(LskyProClient.class);
+    private final LskyProClient second = mock(LskyProClient.class);
+    private final EndpointStats firstStats = new EndpointStats();
+    private final EndpointStats secondStats = new EndpointStats();
+
+    /**
+     * Endpoints may be tried in any order, since a random one is explored once in a while.
+     */
+    private final RoutingLskyProClient router = new RoutingLskyProClient(List.of(
+        new RoutingLskyProClient.Endpoint("https://a.example.com", first, firstStats),
+        new RoutingLskyProClient.Endpoint("https://b.example.com", second, secondStats)));
+
+    @Test
+    void failsOverOnServerError() {
+        when(first.delete("key")).thenReturn(Mono.error(
+            new LskyProException(HttpStatus.BAD_GATEWAY, "bad gateway")));
+        when(second.delete("key")).thenReturn(Mono.empty());
+
+        router.delete("key").block();
+        assertEquals(1, calls(second));
+        if (calls(first) == 1) {
+            assertEquals(1, firstStats.snapshot().errorRate());
+            assertEquals(0, secondStats.snapshot().errorRate());
+        }
+    }
+
+    @Test
+    void doesNotFailOverOnClientError() {
+        final var notFound = new LskyProException(HttpStatus.NOT_FOUND, "not found");
+        when(first.delete("key")).thenReturn(Mono.error(notFound));
+        when(second.delete("key")).thenReturn(Mono.error(notFound));
+
+        assertThrows(LskyProException.class, () -> router.delete("key").block());
+        assertEquals(1, calls(first) + calls(second));
+        assertEquals(0, firstStats.snapshot().samples() + secondStats.snapshot().samples());
+    }
+
+    @Test
+    void failsOverOnOpenCircuitWithoutRecordingIt() {
+        final var open = new CircuitOpenException("a.example.com", Duration.ofSeconds(30));
+        when(first.delete("key")).thenReturn(Mono.error(open));
+        when(second.delete("key")).thenReturn(Mono.error(open));
+
+        assertThrows(CircuitOpenException.class, () -> router.delete("key").block());
+        assertEquals(2, calls(first) + calls(second));
+        assertEquals(0, firstStats.snapshot().samples() + secondStats.snapshot().samples());
+    }
+
+    @Test
+    void failsOverReplayableUploadOnlyIfNothingWasStored() {
+        uploadFails(new LskyProException(HttpStatus.SERVICE_UNAVAILABLE, "maintenance", "60"));
+        assertThrows(LskyProException.class, () -> upload(true));
+        assertEquals(2, calls(first) + calls(second));
+    }
+
+    @Test
+    void neverFailsOverUploadThatMayBeStored() {
+        uploadFails(new LskyProException(HttpStatus.INTERNAL_SERVER_ERROR, "oops"));
+        assertThrows(LskyProException.class, () -> upload(true));
+        assertEquals(1, calls(first) + calls(second));
+    }
+
+    @Test
+    void failsOverOneShotUploadOnlyIfNotSent() {
+        uploadFails(new LskyProException(HttpStatus.TOO_MANY_REQUESTS, "slow down"));
+        assertThrows(LskyProException.class, () -> upload(false));
+        assertEquals(1, calls(first) + calls(second));
+    }
+
+    @Test
+    void failsOverOneShotUploadOnConnectFailure() {
+        uploadFails(LskyProClientTest.requestError(new ConnectException("refused")));
+        assertThrows(RuntimeException.class, () -> upload(false));
+        assertEquals(2, calls(first) + calls(second));
+    }
+
+    @Test
+    void ranksHealthyEndpointFirst() {
+        firstStats.recordFailure(Duration.ofMillis(100));
+        secondStats.recordSuccess(Duration.ofMillis(100));
+        var secondFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (router.rank().get(0).client() == second) {
+                secondFirst++;
+            }
+        }
+        // apart from exploration
+        assertTrue(secondFirst > 900, "ranked first only " + secondFirst + " times");
+    }
+
+    private void uploadFails(Throwable error) {
+        when(first.upload(any(), any(), any(), any(), any(), anyBoolean()))
+            .thenReturn(Mono.error(error));
+        when(second.upload(any(), any(), any(), any(), any(), anyBoolean()))
+            .thenReturn(Mono.error(error));
+    }
+
+    private UploadResponse upload(boolean replayable) {
+        return router.upload(Flux.empty(), "image.png", null, null, null, replayable).block();
+    }
+
+    private static long calls(LskyProClient client) {
+        return mockingDetails(client).getInvocations().size();
+    }
+}